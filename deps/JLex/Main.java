@@ -281,6 +281,9 @@ class CSpec
   /* Verbose execution flag. */
   boolean m_verbose;
 
+  /* Minimize with the old algorithm instead of Hopcroft's. */
+  boolean m_moore;
+
   /* JLex directives flags. */
   boolean m_integer_type;
   boolean m_intwrap_type;
@@ -291,6 +294,10 @@ class CSpec
   boolean m_unix;
   boolean m_public;
   boolean m_ignorecase;
+  boolean m_bytes;
+  boolean m_switch;
+  boolean m_lazy;
+  boolean m_stats;
 
   char m_init_code[];
   int m_init_read;
@@ -373,9 +380,14 @@ class CSpec
         m_public = false;
 	m_yyeof = false;
 	m_ignorecase = false;
+	m_bytes = false;
+	m_switch = false;
+	m_lazy = false;
+	m_stats = false;
 
 	/* Initialize variables for JLex runtime options. */
 	m_verbose = true;
+	m_moore = false;
 
 	m_nfa_start = null;
 	m_nfa_states = new Vector();
@@ -441,6 +453,10 @@ class CEmit
     **************************************************************/
   private final boolean EDBG = true;
   private final boolean NOT_EDBG = false;
+  /* Lines of 75 characters in a string constant (at most 64K). */
+  private final int CHUNKS_PER_PIECE = 800;
+  /* States in the cache of a %lazy lexer. */
+  private final int LAZY_STATES = 1024;
 
   /***************************************************************
     Function: CEmit
@@ -621,6 +637,10 @@ class CEmit
 	  emit_construct();
 	  emit_helpers();
 	  emit_driver();
+	  if (m_spec.m_stats)
+	    {
+	      emit_stats();
+	    }
 	  emit_footer();
 	  
 	  reset();
@@ -668,12 +688,27 @@ class CEmit
 	    }
 
 	  /* Member Variables */
-	  m_outstream.println("\tprivate java.io.BufferedReader yy_reader;");
+	  if (m_spec.m_bytes)
+	    {
+	      m_outstream.println("\tprivate java.io.Reader yy_reader;");
+	      m_outstream.println("\tprivate java.io.InputStream yy_instream;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\tprivate java.io.BufferedReader yy_reader;");
+	    }
 	  m_outstream.println("\tprivate int yy_buffer_index;");
 	  m_outstream.println("\tprivate int yy_buffer_read;");
 	  m_outstream.println("\tprivate int yy_buffer_start;");
 	  m_outstream.println("\tprivate int yy_buffer_end;");
-	  m_outstream.println("\tprivate char yy_buffer[];");
+	  if (m_spec.m_bytes)
+	    {
+	      m_outstream.println("\tprivate java.nio.ByteBuffer yy_buffer;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\tprivate char yy_buffer[];");
+	    }
 	  if (m_spec.m_count_chars)
 	    {
 	      m_outstream.println("\tprivate int yychar;");
@@ -718,7 +753,14 @@ class CEmit
 	  m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
 				 + "stream initializer.\"));");
 	  m_outstream.println("\t\t}");
-	  m_outstream.println("\t\tyy_reader = new java.io.BufferedReader(reader);");
+	  if (m_spec.m_bytes)
+	    {
+	      m_outstream.println("\t\tyy_reader = reader;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\tyy_reader = new java.io.BufferedReader(reader);");
+	    }
 	  m_outstream.println("\t}");
 	  m_outstream.println();
 
@@ -749,10 +791,22 @@ class CEmit
 	  m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
 				 + "stream initializer.\"));");
 	  m_outstream.println("\t\t}");
-	  m_outstream.println("\t\tyy_reader = new java.io.BufferedReader(new java.io.InputStreamReader(instream));");
+	  if (m_spec.m_bytes)
+	    {
+	      m_outstream.println("\t\tyy_instream = instream;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\tyy_reader = new java.io.BufferedReader(new java.io.InputStreamReader(instream));");
+	    }
 	  m_outstream.println("\t}");
 	  m_outstream.println();
 
+	  if (m_spec.m_bytes)
+	    {
+	      emit_construct_bytes();
+	    }
+
 
 	  /* Function: third, private constructor - only for internal use */
 	  m_outstream.print("\tprivate ");
@@ -772,7 +826,10 @@ class CEmit
 	      m_outstream.println(" {");
 	    }
 	  
-	  m_outstream.println("\t\tyy_buffer = new char[YY_BUFFER_SIZE];");
+	  if (false == m_spec.m_bytes)
+	    {
+	      m_outstream.println("\t\tyy_buffer = new char[YY_BUFFER_SIZE];");
+	    }
 	  m_outstream.println("\t\tyy_buffer_read = 0;");
 	  m_outstream.println("\t\tyy_buffer_index = 0;");
 	  m_outstream.println("\t\tyy_buffer_start = 0;");
@@ -804,6 +861,105 @@ class CEmit
 
 	}
 
+  /***************************************************************
+    Function: emit_construct_bytes
+    Description: Emits the constructors of a %bytes lexer that
+    scan a byte array, a byte buffer, or a memory-mapped file.
+    The Reader and InputStream constructors read their whole
+    input on the first call to yy_advance instead.
+    **************************************************************/
+  private void emit_construct_bytes
+    (
+     )
+      throws java.io.IOException
+	{
+	  /* Function: byte array constructor */
+	  emit_construct_head("byte bytes[]", null);
+	  m_outstream.println("\t\tthis (java.nio.ByteBuffer.wrap(bytes));");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  /* Function: byte buffer constructor */
+	  emit_construct_head("java.nio.ByteBuffer buffer", null);
+	  m_outstream.println("\t\tthis ();");
+	  m_outstream.println("\t\tif (null == buffer) {");
+	  m_outstream.println("\t\t\tthrow (new Error(\"Error: Bad input "
+				 + "stream initializer.\"));");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t\tyy_buffer = buffer.slice();");
+	  m_outstream.println("\t\tyy_buffer_read = yy_buffer.limit();");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+
+	  /* Function: memory-mapped file constructor */
+	  emit_construct_head("java.io.File file", "java.io.IOException");
+	  m_outstream.println("\t\tthis ();");
+	  m_outstream.println("\t\tjava.io.RandomAccessFile raf "
+			      + "= new java.io.RandomAccessFile(file, \"r\");");
+	  m_outstream.println("\t\ttry {");
+	  m_outstream.println("\t\t\tjava.nio.channels.FileChannel channel "
+			      + "= raf.getChannel();");
+	  m_outstream.println("\t\t\tif (channel.size() > "
+			      + "java.lang.Integer.MAX_VALUE) {");
+	  m_outstream.println("\t\t\t\tthrow (new java.io.IOException("
+			      + "\"Error: Input file too large.\"));");
+	  m_outstream.println("\t\t\t}");
+	  m_outstream.println("\t\t\tyy_buffer = channel.map(java.nio.channels."
+			      + "FileChannel.MapMode.READ_ONLY, 0, channel.size());");
+	  m_outstream.println("\t\t} finally {");
+	  m_outstream.println("\t\t\traf.close();");
+	  m_outstream.println("\t\t}");
+	  m_outstream.println("\t\tyy_buffer_read = yy_buffer.limit();");
+	  m_outstream.println("\t}");
+	  m_outstream.println();
+	}
+
+  /***************************************************************
+    Function: emit_construct_head
+    Description: Emits the head of a public constructor, with 
+    the given parameter list and checked exception (or null),
+    followed by those of %initthrow.
+    **************************************************************/
+  private void emit_construct_head
+    (
+     String params,
+     String exception
+     )
+      throws java.io.IOException
+	{
+	  m_outstream.print("\t");
+	  if (true == m_spec.m_public) {
+	    m_outstream.print("public ");
+	  }
+          m_outstream.print(new String(m_spec.m_class_name));
+	  m_outstream.print(" (" + params + ")");
+
+	  if (null != exception || null != m_spec.m_init_throw_code)
+	    {
+	      m_outstream.println(); 
+	      m_outstream.print("\t\tthrows "); 
+	      if (null != exception)
+		{
+		  m_outstream.print(exception);
+		  if (null != m_spec.m_init_throw_code)
+		    {
+		      m_outstream.print(", ");
+		    }
+		}
+	      if (null != m_spec.m_init_throw_code)
+		{
+		  m_outstream.print(new String(m_spec.m_init_throw_code,0,
+						  m_spec.m_init_throw_read));
+		}
+	      m_outstream.println();
+	      m_outstream.println("\t\t{");
+	    }
+	  else
+	    {
+	      m_outstream.println(" {");
+	    }
+	}
+
   /***************************************************************
     Function: emit_states
     Description: Emits constants that serve as lexical states,
@@ -837,6 +993,12 @@ class CEmit
 	      /*++index;*/
 	    }
 
+	  if (m_spec.m_lazy)
+	    {
+	      /* The start states are made as they are needed. */
+	      return;
+	    }
+
 	  m_outstream.println("\tprivate final int yy_state_dtrans[] = {");
 	  for (index = 0; index < m_spec.m_state_dtrans.length; ++index)
 	    {
@@ -909,65 +1071,24 @@ class CEmit
 	m_outstream.println("\t}");*/
 
 	/* Function: yy_advance */
-	m_outstream.println("\tprivate int yy_advance ()");
-	m_outstream.println("\t\tthrows java.io.IOException {");
-	/*m_outstream.println("\t\t{");*/
-	m_outstream.println("\t\tint next_read;");
-	m_outstream.println("\t\tint i;");
-	m_outstream.println("\t\tint j;");
-	m_outstream.println();
-
-	m_outstream.println("\t\tif (yy_buffer_index < yy_buffer_read) {");
-	m_outstream.println("\t\t\treturn yy_buffer[yy_buffer_index++];");
-	/*m_outstream.println("\t\t\t++yy_buffer_index;");*/
-	m_outstream.println("\t\t}");
-	m_outstream.println();
-
-	m_outstream.println("\t\tif (0 != yy_buffer_start) {");
-	m_outstream.println("\t\t\ti = yy_buffer_start;");
-	m_outstream.println("\t\t\tj = 0;");
-	m_outstream.println("\t\t\twhile (i < yy_buffer_read) {");
-	m_outstream.println("\t\t\t\tyy_buffer[j] = yy_buffer[i];");
-	m_outstream.println("\t\t\t\t++i;");
-	m_outstream.println("\t\t\t\t++j;");
-	m_outstream.println("\t\t\t}");
-	m_outstream.println("\t\t\tyy_buffer_end = yy_buffer_end - yy_buffer_start;");
-	m_outstream.println("\t\t\tyy_buffer_start = 0;");
-	m_outstream.println("\t\t\tyy_buffer_read = j;");
-	m_outstream.println("\t\t\tyy_buffer_index = j;");
-	m_outstream.println("\t\t\tnext_read = yy_reader.read(yy_buffer,");
-	m_outstream.println("\t\t\t\t\tyy_buffer_read,");
-	m_outstream.println("\t\t\t\t\tyy_buffer.length - yy_buffer_read);");
-	m_outstream.println("\t\t\tif (-1 == next_read) {");
-	m_outstream.println("\t\t\t\treturn YY_EOF;");
-	m_outstream.println("\t\t\t}");
-	m_outstream.println("\t\t\tyy_buffer_read = yy_buffer_read + next_read;");
-	m_outstream.println("\t\t}");
-	m_outstream.println();
-
-	m_outstream.println("\t\twhile (yy_buffer_index >= yy_buffer_read) {");
-	m_outstream.println("\t\t\tif (yy_buffer_index >= yy_buffer.length) {");
-	m_outstream.println("\t\t\t\tyy_buffer = yy_double(yy_buffer);");
-	m_outstream.println("\t\t\t}");
-	m_outstream.println("\t\t\tnext_read = yy_reader.read(yy_buffer,");
-	m_outstream.println("\t\t\t\t\tyy_buffer_read,");
-	m_outstream.println("\t\t\t\t\tyy_buffer.length - yy_buffer_read);");
-	m_outstream.println("\t\t\tif (-1 == next_read) {");
-	m_outstream.println("\t\t\t\treturn YY_EOF;");
-	m_outstream.println("\t\t\t}");
-	m_outstream.println("\t\t\tyy_buffer_read = yy_buffer_read + next_read;");
-	m_outstream.println("\t\t}");
+	if (m_spec.m_bytes)
+	  {
+	    emit_advance_bytes();
+	  }
+	else
+	  {
+	    emit_advance();
+	  }
 
-	m_outstream.println("\t\treturn yy_buffer[yy_buffer_index++];");
-	m_outstream.println("\t}");
-	
 	/* Function: yy_move_end */
 	m_outstream.println("\tprivate void yy_move_end () {");
 	m_outstream.println("\t\tif (yy_buffer_end > yy_buffer_start &&");
-	m_outstream.println("\t\t    '\\n' == yy_buffer[yy_buffer_end-1])");
+	m_outstream.println("\t\t    '\\n' == "
+			    + buffer_at("yy_buffer_end-1") + ")");
 	m_outstream.println("\t\t\tyy_buffer_end--;");
 	m_outstream.println("\t\tif (yy_buffer_end > yy_buffer_start &&");
-	m_outstream.println("\t\t    '\\r' == yy_buffer[yy_buffer_end-1])");
+	m_outstream.println("\t\t    '\\r' == "
+			    + buffer_at("yy_buffer_end-1") + ")");
 	m_outstream.println("\t\t\tyy_buffer_end--;");
 	m_outstream.println("\t}");
 
@@ -981,16 +1102,29 @@ class CEmit
 		m_outstream.println("\t\tint i;");
 		m_outstream.println("\t\tfor (i = yy_buffer_start; " 
 				       + "i < yy_buffer_index; ++i) {");
-		m_outstream.println("\t\t\tif ('\\n' == yy_buffer[i] && !yy_last_was_cr) {");
+		m_outstream.println("\t\t\tif ('\\n' == " + buffer_at("i")
+				    + " && !yy_last_was_cr) {");
 		m_outstream.println("\t\t\t\t++yyline;");
 		m_outstream.println("\t\t\t}");
-		m_outstream.println("\t\t\tif ('\\r' == yy_buffer[i]) {");
+		m_outstream.println("\t\t\tif ('\\r' == " + buffer_at("i") + ") {");
 		m_outstream.println("\t\t\t\t++yyline;");
 		m_outstream.println("\t\t\t\tyy_last_was_cr=true;");
 		m_outstream.println("\t\t\t} else yy_last_was_cr=false;");
 		m_outstream.println("\t\t}");
 	      }
-	    if (m_spec.m_count_chars)
+	    if (m_spec.m_count_chars && m_spec.m_bytes)
+	      {
+		/* Count the bytes that start a UTF-8 sequence. */
+		m_outstream.println("\t\tint j;");
+		m_outstream.println("\t\tfor (j = yy_buffer_start; " 
+				       + "j < yy_buffer_index; ++j) {");
+		m_outstream.println("\t\t\tif (0x80 != (0xc0 & " 
+				    + buffer_at("j") + ")) {");
+		m_outstream.println("\t\t\t\t++yychar;");
+		m_outstream.println("\t\t\t}");
+		m_outstream.println("\t\t}");
+	      }
+	    else if (m_spec.m_count_chars)
 	      {
 		m_outstream.println("\t\tyychar = yychar"); 
 		m_outstream.println("\t\t\t+ yy_buffer_index - yy_buffer_start;");
@@ -1010,37 +1144,49 @@ class CEmit
 	m_outstream.println("\t\tyy_at_bol = "+
 			    "(yy_buffer_end > yy_buffer_start) &&");
 	m_outstream.println("\t\t            "+
-			    "('\\r' == yy_buffer[yy_buffer_end-1] ||");
+			    "('\\r' == "+buffer_at("yy_buffer_end-1")+" ||");
 	m_outstream.println("\t\t            "+
-			    " '\\n' == yy_buffer[yy_buffer_end-1] ||");
+			    " '\\n' == "+buffer_at("yy_buffer_end-1")+" ||");
 	m_outstream.println("\t\t            "+ /* unicode LS */
-			    " 2028/*LS*/ == yy_buffer[yy_buffer_end-1] ||");
+			    " 2028/*LS*/ == "+buffer_at("yy_buffer_end-1")+" ||");
 	m_outstream.println("\t\t            "+ /* unicode PS */
-			    " 2029/*PS*/ == yy_buffer[yy_buffer_end-1]);");
+			    " 2029/*PS*/ == "+buffer_at("yy_buffer_end-1")+");");
 	m_outstream.println("\t}");
 
 	/* Function: yytext */
-	m_outstream.println("\tprivate java.lang.String yytext () {");
-	m_outstream.println("\t\treturn (new java.lang.String(yy_buffer,");
-	m_outstream.println("\t\t\tyy_buffer_start,");
-	m_outstream.println("\t\t\tyy_buffer_end - yy_buffer_start));");
-	m_outstream.println("\t}");
+	if (m_spec.m_bytes)
+	  {
+	    emit_yytext_bytes();
+	  }
+	else
+	  {
+	    m_outstream.println("\tprivate java.lang.String yytext () {");
+	    m_outstream.println("\t\treturn (new java.lang.String(yy_buffer,");
+	    m_outstream.println("\t\t\tyy_buffer_start,");
+	    m_outstream.println("\t\t\tyy_buffer_end - yy_buffer_start));");
+	    m_outstream.println("\t}");
+	  }
 
 	/* Function: yylength */
 	m_outstream.println("\tprivate int yylength () {");
 	m_outstream.println("\t\treturn yy_buffer_end - yy_buffer_start;");
 	m_outstream.println("\t}");
 
+	emit_slice();
+
 	/* Function: yy_double */
-	m_outstream.println("\tprivate char[] yy_double (char buf[]) {");
-	m_outstream.println("\t\tint i;");
-	m_outstream.println("\t\tchar newbuf[];");
-	m_outstream.println("\t\tnewbuf = new char[2*buf.length];");
-	m_outstream.println("\t\tfor (i = 0; i < buf.length; ++i) {");
-	m_outstream.println("\t\t\tnewbuf[i] = buf[i];");
-	m_outstream.println("\t\t}");
-	m_outstream.println("\t\treturn newbuf;");
-	m_outstream.println("\t}");
+	if (false == m_spec.m_bytes)
+	  {
+	    m_outstream.println("\tprivate char[] yy_double (char buf[]) {");
+	    m_outstream.println("\t\tint i;");
+	    m_outstream.println("\t\tchar newbuf[];");
+	    m_outstream.println("\t\tnewbuf = new char[2*buf.length];");
+	    m_outstream.println("\t\tfor (i = 0; i < buf.length; ++i) {");
+	    m_outstream.println("\t\t\tnewbuf[i] = buf[i];");
+	    m_outstream.println("\t\t}");
+	    m_outstream.println("\t\treturn newbuf;");
+	    m_outstream.println("\t}");
+	  }
 
 	/* Function: yy_error */
 	m_outstream.println("\tprivate final int YY_E_INTERNAL = 0;");
@@ -1067,6 +1213,11 @@ class CEmit
 	m_outstream.println("\t\treturn yy_acpt[current];");
 	m_outstream.println("\t}");*/
 
+	if (m_spec.m_switch && false == m_spec.m_lazy)
+	  {
+	    /* The transitions are coded directly, with no tables to unpack. */
+	    return;
+	  }
 
 	// Function: private int [][] unpackFromString(int size1, int size2, String st)
 	// Added 6/24/98 Raimondas Lencevicius
@@ -1113,63 +1264,420 @@ class CEmit
 	m_outstream.println("\t\t}");
 	m_outstream.println("\t\treturn res;");
 	m_outstream.println("\t}");
+
+	/* Functions: yy_narrow_byte, yy_narrow_char */
+	m_outstream.println("\tprivate byte[] yy_narrow_byte (int a[]) {");
+	m_outstream.println("\t\tbyte res[] = new byte[a.length];");
+	m_outstream.println("\t\tfor (int i = 0; i < a.length; i++) {");
+	m_outstream.println("\t\t\tres[i] = (byte) a[i];");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn res;");
+	m_outstream.println("\t}");
+	m_outstream.println("\tprivate char[] yy_narrow_char (int a[]) {");
+	m_outstream.println("\t\tchar res[] = new char[a.length];");
+	m_outstream.println("\t\tfor (int i = 0; i < a.length; i++) {");
+	m_outstream.println("\t\t\tres[i] = (char) a[i];");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn res;");
+	m_outstream.println("\t}");
       }
 
   /***************************************************************
-    Function: emit_header
-    Description: Emits class header.
+    Function: emit_advance
+    Description: Emits yy_advance, which returns the next input
+    character, refilling (and shifting or doubling) the buffer
+    from the reader as needed.
     **************************************************************/
-  private void emit_header
+  private void emit_advance
     (
      )
       throws java.io.IOException
       {
-	if (CUtility.DEBUG)
-	  {
-	    CUtility.ASSERT(null != m_spec);
-	    CUtility.ASSERT(null != m_outstream);
-	  }
+	m_outstream.println("\tprivate int yy_advance ()");
+	m_outstream.println("\t\tthrows java.io.IOException {");
+	/*m_outstream.println("\t\t{");*/
+	m_outstream.println("\t\tint next_read;");
+	m_outstream.println("\t\tint i;");
+	m_outstream.println("\t\tint j;");
+	m_outstream.println();
 
+	m_outstream.println("\t\tif (yy_buffer_index < yy_buffer_read) {");
+	m_outstream.println("\t\t\treturn yy_buffer[yy_buffer_index++];");
+	/*m_outstream.println("\t\t\t++yy_buffer_index;");*/
+	m_outstream.println("\t\t}");
 	m_outstream.println();
+
+	m_outstream.println("\t\tif (0 != yy_buffer_start) {");
+	m_outstream.println("\t\t\ti = yy_buffer_start;");
+	m_outstream.println("\t\t\tj = 0;");
+	m_outstream.println("\t\t\twhile (i < yy_buffer_read) {");
+	m_outstream.println("\t\t\t\tyy_buffer[j] = yy_buffer[i];");
+	m_outstream.println("\t\t\t\t++i;");
+	m_outstream.println("\t\t\t\t++j;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tyy_buffer_end = yy_buffer_end - yy_buffer_start;");
+	m_outstream.println("\t\t\tyy_buffer_start = 0;");
+	m_outstream.println("\t\t\tyy_buffer_read = j;");
+	m_outstream.println("\t\t\tyy_buffer_index = j;");
+	if (m_spec.m_stats)
+	  {
+	    m_outstream.println("\t\t\tyy_stats_refills++;");
+	  }
+	m_outstream.println("\t\t\tnext_read = yy_reader.read(yy_buffer,");
+	m_outstream.println("\t\t\t\t\tyy_buffer_read,");
+	m_outstream.println("\t\t\t\t\tyy_buffer.length - yy_buffer_read);");
+	m_outstream.println("\t\t\tif (-1 == next_read) {");
+	m_outstream.println("\t\t\t\treturn YY_EOF;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tyy_buffer_read = yy_buffer_read + next_read;");
+	m_outstream.println("\t\t}");
 	m_outstream.println();
-	if (true == m_spec.m_public) {
-	  m_outstream.print("public ");
-	}
-	m_outstream.print("class ");
-	m_outstream.print(new String(m_spec.m_class_name,0,
-					  m_spec.m_class_name.length));
-        if (m_spec.m_implements_name.length > 0) {
-	   m_outstream.print(" implements ");	
-	   m_outstream.print(new String(m_spec.m_implements_name,0,
-					  m_spec.m_implements_name.length));
-	}	  
-	m_outstream.println(" {");
+
+	m_outstream.println("\t\twhile (yy_buffer_index >= yy_buffer_read) {");
+	m_outstream.println("\t\t\tif (yy_buffer_index >= yy_buffer.length) {");
+	m_outstream.println("\t\t\t\tyy_buffer = yy_double(yy_buffer);");
+	m_outstream.println("\t\t\t}");
+	if (m_spec.m_stats)
+	  {
+	    m_outstream.println("\t\t\tyy_stats_refills++;");
+	  }
+	m_outstream.println("\t\t\tnext_read = yy_reader.read(yy_buffer,");
+	m_outstream.println("\t\t\t\t\tyy_buffer_read,");
+	m_outstream.println("\t\t\t\t\tyy_buffer.length - yy_buffer_read);");
+	m_outstream.println("\t\t\tif (-1 == next_read) {");
+	m_outstream.println("\t\t\t\treturn YY_EOF;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tyy_buffer_read = yy_buffer_read + next_read;");
+	m_outstream.println("\t\t}");
+
+	m_outstream.println("\t\treturn yy_buffer[yy_buffer_index++];");
+	m_outstream.println("\t}");
       }
 
   /***************************************************************
-    Function: emit_table
-    Description: Emits transition table.
+    Function: buffer_at
+    Description: Returns the generated expression for the input
+    at the given buffer index: a char, or with %bytes a byte.
     **************************************************************/
-  private void emit_table
+  private String buffer_at
     (
+     String index
      )
-      throws java.io.IOException
       {
-	int i;
-	int elem;
-	int size;
-	CDTrans dtrans;
-	boolean is_start;
-	boolean is_end;
-	CAccept accept;
-
-	if (CUtility.DEBUG)
+	if (m_spec.m_bytes)
 	  {
-	    CUtility.ASSERT(null != m_spec);
-	    CUtility.ASSERT(null != m_outstream);
+	    return "yy_buffer.get(" + index + ")";
 	  }
+	return "yy_buffer[" + index + "]";
+      }
 
-	m_outstream.println("\tprivate int yy_acpt[] = {");
+  /***************************************************************
+    Function: emit_advance_bytes
+    Description: Emits yy_advance for %bytes.  The whole input 
+    is in yy_buffer, so there is no refill or shifting; 
+    buffer indices count bytes.  ASCII is returned as is, 
+    and other UTF-8 sequences are decoded by yy_decode
+    (to 0xFFFD if malformed or outside the 16-bit range).
+    **************************************************************/
+  private void emit_advance_bytes
+    (
+     )
+      throws java.io.IOException
+      {
+	m_outstream.println("\tprivate int yy_advance ()");
+	m_outstream.println("\t\tthrows java.io.IOException {");
+	m_outstream.println("\t\tint b;");
+	m_outstream.println();
+
+	m_outstream.println("\t\tif (yy_buffer_index >= yy_buffer_read) {");
+	m_outstream.println("\t\t\tif (null == yy_reader && null == yy_instream) {");
+	m_outstream.println("\t\t\t\treturn YY_EOF;");
+	m_outstream.println("\t\t\t}");
+	if (m_spec.m_stats)
+	  {
+	    m_outstream.println("\t\t\tyy_stats_refills++;");
+	  }
+	m_outstream.println("\t\t\tyy_fill();");
+	m_outstream.println("\t\t\tif (yy_buffer_index >= yy_buffer_read) {");
+	m_outstream.println("\t\t\t\treturn YY_EOF;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tb = yy_buffer.get(yy_buffer_index++);");
+	m_outstream.println("\t\tif (0 <= b) {");
+	m_outstream.println("\t\t\treturn b;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn yy_decode(b);");
+	m_outstream.println("\t}");
+
+	/* Function: yy_decode */
+	m_outstream.println("\tprivate int yy_decode (int b) {");
+	m_outstream.println("\t\tint c;");
+	m_outstream.println("\t\tint n;");
+	m_outstream.println("\t\tint min;");
+	m_outstream.println();
+	m_outstream.println("\t\tif (0xc0 == (0xe0 & b)) {");
+	m_outstream.println("\t\t\tc = 0x1f & b;");
+	m_outstream.println("\t\t\tn = 1;");
+	m_outstream.println("\t\t\tmin = 0x80;");
+	m_outstream.println("\t\t} else if (0xe0 == (0xf0 & b)) {");
+	m_outstream.println("\t\t\tc = 0x0f & b;");
+	m_outstream.println("\t\t\tn = 2;");
+	m_outstream.println("\t\t\tmin = 0x800;");
+	m_outstream.println("\t\t} else if (0xf0 == (0xf8 & b)) {");
+	m_outstream.println("\t\t\tc = 0x07 & b;");
+	m_outstream.println("\t\t\tn = 3;");
+	m_outstream.println("\t\t\tmin = 0x10000;");
+	m_outstream.println("\t\t} else {");
+	m_outstream.println("\t\t\treturn 0xfffd;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tfor (; 0 < n; --n) {");
+	m_outstream.println("\t\t\tif (yy_buffer_index >= yy_buffer_read) {");
+	m_outstream.println("\t\t\t\treturn 0xfffd;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tb = yy_buffer.get(yy_buffer_index);");
+	m_outstream.println("\t\t\tif (0x80 != (0xc0 & b)) {");
+	m_outstream.println("\t\t\t\treturn 0xfffd;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tc = (c << 6) | (0x3f & b);");
+	m_outstream.println("\t\t\t++yy_buffer_index;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (c < min || 0xffff < c "
+			    + "|| (0xd800 <= c && c <= 0xdfff)) {");
+	m_outstream.println("\t\t\treturn 0xfffd;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn c;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_fill */
+	m_outstream.println("\tprivate void yy_fill ()");
+	m_outstream.println("\t\tthrows java.io.IOException {");
+	m_outstream.println("\t\tbyte bytes[];");
+	m_outstream.println("\t\tint n;");
+	m_outstream.println();
+	m_outstream.println("\t\tif (null != yy_instream) {");
+	m_outstream.println("\t\t\tjava.io.ByteArrayOutputStream out "
+			    + "= new java.io.ByteArrayOutputStream();");
+	m_outstream.println("\t\t\tbytes = new byte[8192];");
+	m_outstream.println("\t\t\twhile (-1 != (n = yy_instream.read(bytes, "
+			    + "0, bytes.length))) {");
+	m_outstream.println("\t\t\t\tout.write(bytes, 0, n);");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tbytes = out.toByteArray();");
+	m_outstream.println("\t\t} else {");
+	m_outstream.println("\t\t\tjava.lang.StringBuilder out "
+			    + "= new java.lang.StringBuilder();");
+	m_outstream.println("\t\t\tchar chars[] = new char[8192];");
+	m_outstream.println("\t\t\twhile (-1 != (n = yy_reader.read(chars, "
+			    + "0, chars.length))) {");
+	m_outstream.println("\t\t\t\tout.append(chars, 0, n);");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tbytes = out.toString().getBytes(YY_UTF8);");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tyy_reader = null;");
+	m_outstream.println("\t\tyy_instream = null;");
+	m_outstream.println("\t\tyy_buffer = java.nio.ByteBuffer.wrap(bytes);");
+	m_outstream.println("\t\tyy_buffer_read = bytes.length;");
+	m_outstream.println("\t}");
+      }
+
+  /***************************************************************
+    Function: emit_yytext_bytes
+    Description: Emits yytext for %bytes, which decodes the 
+    token's slice of yy_buffer (from yy_buffer_start to 
+    yy_buffer_end) with yy_decode, so that the text has the 
+    chars the DFA matched: one 0xFFFD for a malformed sequence 
+    or a character outside the 16-bit range, not a surrogate 
+    pair.
+    **************************************************************/
+  private void emit_yytext_bytes
+    (
+     )
+      throws java.io.IOException
+      {
+	m_outstream.println("\tprivate static final java.nio.charset.Charset "
+			    + "YY_UTF8 = java.nio.charset.Charset.forName(\"UTF-8\");");
+	m_outstream.println("\tprivate java.lang.String yytext () {");
+	m_outstream.println("\t\tjava.lang.StringBuilder sb = new java.lang.StringBuilder("
+			    + "yy_buffer_end - yy_buffer_start);");
+	m_outstream.println("\t\tint index = yy_buffer_index;");
+	m_outstream.println("\t\tint b;");
+	m_outstream.println();
+	m_outstream.println("\t\tyy_buffer_index = yy_buffer_start;");
+	m_outstream.println("\t\twhile (yy_buffer_index < yy_buffer_end) {");
+	m_outstream.println("\t\t\tb = yy_buffer.get(yy_buffer_index++);");
+	m_outstream.println("\t\t\tsb.append((char) (0 <= b ? b : yy_decode(b)));");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tyy_buffer_index = index;");
+	m_outstream.println("\t\treturn sb.toString();");
+	m_outstream.println("\t}");
+      }
+
+  /***************************************************************
+    Function: emit_slice
+    Description: Emits the functions that give the text of the
+    current token without making a String: yystart (its offset
+    in yy_buffer; yylength is its length), yychars (a view 
+    of it, the same object for every token) and yylong/yyint 
+    (its value as a decimal integer).  With %bytes, offsets 
+    count bytes and each char of the view is a byte, which is
+    the same for ASCII text.
+    **************************************************************/
+  private void emit_slice
+    (
+     )
+      throws java.io.IOException
+      {
+	String at;
+
+	if (m_spec.m_bytes)
+	  {
+	    at = "(char) (0xff & " + buffer_at("yy_buffer_start + index") + ")";
+	  }
+	else
+	  {
+	    at = buffer_at("yy_buffer_start + index");
+	  }
+
+	/* Function: yystart */
+	m_outstream.println("\tprivate int yystart () {");
+	m_outstream.println("\t\treturn yy_buffer_start;");
+	m_outstream.println("\t}");
+
+	/* Function: yychars */
+	m_outstream.println("\tprivate final java.lang.CharSequence yy_chars "
+			    + "= new java.lang.CharSequence() {");
+	m_outstream.println("\t\tpublic int length () {");
+	m_outstream.println("\t\t\treturn yy_buffer_end - yy_buffer_start;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tpublic char charAt (int index) {");
+	m_outstream.println("\t\t\tif (index < 0 || "
+			    + "yy_buffer_end - yy_buffer_start <= index) {");
+	m_outstream.println("\t\t\t\tthrow (new java.lang."
+			    + "IndexOutOfBoundsException());");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\treturn " + at + ";");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tpublic java.lang.CharSequence subSequence "
+			    + "(int start, int end) {");
+	m_outstream.println("\t\t\tjava.lang.StringBuilder sb "
+			    + "= new java.lang.StringBuilder(end - start);");
+	m_outstream.println("\t\t\tint i;");
+	m_outstream.println("\t\t\tfor (i = start; i < end; ++i) {");
+	m_outstream.println("\t\t\t\tsb.append(charAt(i));");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\treturn sb;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tpublic java.lang.String toString () {");
+	m_outstream.println("\t\t\treturn yytext();");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t};");
+	m_outstream.println("\tprivate java.lang.CharSequence yychars () {");
+	m_outstream.println("\t\treturn yy_chars;");
+	m_outstream.println("\t}");
+
+	/* Function: yylong */
+	m_outstream.println("\tprivate long yylong () {");
+	m_outstream.println("\t\tint i = yy_buffer_start;");
+	m_outstream.println("\t\tboolean negative = false;");
+	m_outstream.println("\t\tlong value = 0;");
+	m_outstream.println("\t\tint digit;");
+	m_outstream.println();
+	m_outstream.println("\t\tif (i < yy_buffer_end && ('-' == " 
+			    + buffer_at("i") + " || '+' == " + buffer_at("i")
+			    + ")) {");
+	m_outstream.println("\t\t\tnegative = '-' == " + buffer_at("i") + ";");
+	m_outstream.println("\t\t\t++i;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tfor (; i < yy_buffer_end; ++i) {");
+	m_outstream.println("\t\t\tdigit = " + buffer_at("i") + " - '0';");
+	m_outstream.println("\t\t\tif (digit < 0 || 9 < digit) {");
+	m_outstream.println("\t\t\t\tbreak;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tif ((java.lang.Long.MAX_VALUE - digit) / 10 "
+			    + "< value) {");
+	m_outstream.println("\t\t\t\treturn negative ? java.lang.Long.MIN_VALUE "
+			    + ": java.lang.Long.MAX_VALUE;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tvalue = 10 * value + digit;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn negative ? -value : value;");
+	m_outstream.println("\t}");
+
+	/* Function: yyint */
+	m_outstream.println("\tprivate int yyint () {");
+	m_outstream.println("\t\tlong value = yylong();");
+	m_outstream.println("\t\tif (java.lang.Integer.MAX_VALUE < value) {");
+	m_outstream.println("\t\t\treturn java.lang.Integer.MAX_VALUE;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (value < java.lang.Integer.MIN_VALUE) {");
+	m_outstream.println("\t\t\treturn java.lang.Integer.MIN_VALUE;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn (int) value;");
+	m_outstream.println("\t}");
+      }
+
+  /***************************************************************
+    Function: emit_header
+    Description: Emits class header.
+    **************************************************************/
+  private void emit_header
+    (
+     )
+      throws java.io.IOException
+      {
+	if (CUtility.DEBUG)
+	  {
+	    CUtility.ASSERT(null != m_spec);
+	    CUtility.ASSERT(null != m_outstream);
+	  }
+
+	m_outstream.println();
+	m_outstream.println();
+	if (true == m_spec.m_public) {
+	  m_outstream.print("public ");
+	}
+	m_outstream.print("class ");
+	m_outstream.print(new String(m_spec.m_class_name,0,
+					  m_spec.m_class_name.length));
+        if (m_spec.m_implements_name.length > 0) {
+	   m_outstream.print(" implements ");	
+	   m_outstream.print(new String(m_spec.m_implements_name,0,
+					  m_spec.m_implements_name.length));
+	}	  
+	m_outstream.println(" {");
+      }
+
+  /***************************************************************
+    Function: emit_table
+    Description: Emits transition table.
+    **************************************************************/
+  private void emit_table
+    (
+     )
+      throws java.io.IOException
+      {
+	int i;
+	int elem;
+	int size;
+	CDTrans dtrans;
+	boolean is_start;
+	boolean is_end;
+	CAccept accept;
+	CLazy lazy = null;
+
+	if (CUtility.DEBUG)
+	  {
+	    CUtility.ASSERT(null != m_spec);
+	    CUtility.ASSERT(null != m_outstream);
+	  }
+
+	if (m_spec.m_lazy)
+	  {
+	    /* Sets the accepting actions to those of the rules. */
+	    lazy = new CLazy(m_spec);
+	  }
+
+	m_outstream.println("\tprivate int yy_acpt[] = {");
 	size = m_spec.m_accept_vector.size();
 	for (elem = 0; elem < size; ++elem)
 	  {
@@ -1200,48 +1708,522 @@ class CEmit
 	      }
 	    else 
 	      {
-		m_outstream.print("YY_NOT_ACCEPT");
+		m_outstream.print("YY_NOT_ACCEPT");
+	      }
+	    
+	    if (elem < size - 1)
+	      {
+		m_outstream.print(",");
+	      }
+	    
+	    m_outstream.println();
+	  }
+	m_outstream.println("\t};");
+
+	if (m_spec.m_lazy)
+	  {
+	    emit_lazy_table(lazy);
+	    return;
+	  }
+
+	if (m_spec.m_switch)
+	  {
+	    emit_switch_table();
+	    return;
+	  }
+
+	// CSA: modified yy_cmap to use string packing 9-Aug-1999
+	int[] yy_cmap = new int[m_spec.m_ccls_map.length];
+	for (i = 0; i < m_spec.m_ccls_map.length; ++i)
+	    yy_cmap[i] = m_spec.m_col_map[m_spec.m_ccls_map[i]];
+	emit_packed_array("yy_cmap", yy_cmap);
+
+	/* The rows of the transition table, packed into yy_nxt by
+	   CPack: state s goes to yy_nxt[yy_base[s] + c] on column c
+	   if yy_chk[yy_base[s] + c] == yy_base[s], and nowhere 
+	   otherwise. */
+	CPack pack = new CPack(m_spec);
+	emit_packed_array("yy_base", pack.m_base);
+	emit_packed_array("yy_chk", pack.m_check);
+	emit_packed_array("yy_nxt", pack.m_next);
+
+	m_outstream.println("\tprivate int yy_next (int state, int c) {");
+	m_outstream.println("\t\tint base = yy_base[state];");
+	m_outstream.println("\t\tint index = base + yy_cmap[c];");
+	m_outstream.println("\t\tif (yy_chk[index] == base) {");
+	m_outstream.println("\t\t\treturn yy_nxt[index];");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn YY_F;");
+	m_outstream.println("\t}");
+	m_outstream.println();
+
+	if (m_spec.m_verbose)
+	  {
+	    size = m_spec.m_dtrans_vector.size();
+	    System.out.println("Transition table of " + size + " rows and "
+			       + m_spec.m_dtrans_ncols + " columns: "
+			       + (4 * (yy_cmap.length 
+				       + m_spec.m_row_map.length
+				       + size * m_spec.m_dtrans_ncols))
+			       + " bytes, "
+			       + (footprint(yy_cmap) + footprint(pack.m_base)
+				  + footprint(pack.m_check)
+				  + footprint(pack.m_next))
+			       + " bytes packed.");
+	  }
+      }
+
+  /***************************************************************
+    Function: emit_lazy_table
+    Description: Emits the NFA for %lazy (see CLazy), and the code
+    that builds the states of the DFA from it as the lexer meets
+    them: yy_next finds the next state in yy_lazy_trans, or else
+    makes it with yy_lazy_move, as CNfa2Dfa would.  A state is the
+    sorted set of its NFA states, and yy_lazy_index finds it from
+    that.  There are at most YY_LAZY_STATES states; when there is
+    no room for another one, all are dropped but the current one
+    (yy_lazy_flush).  If that happens again before the lexer has
+    gone YY_LAZY_STEPS characters per state, the cache is not
+    worth keeping, and the lexer just simulates the NFA from then
+    on: each step makes the next state in the room of the one
+    before, and nothing is looked up or kept.
+    **************************************************************/
+  private void emit_lazy_table
+    (
+     CLazy lazy
+     )
+      throws java.io.IOException
+      {
+	int nstates = lazy.m_edge.length;
+
+	m_outstream.println("\tprivate final int YY_NCLASSES = " 
+			    + m_spec.m_dtrans_ncols + ";");
+	m_outstream.println("\tprivate final int YY_LAZY_STATES = " 
+			    + LAZY_STATES + ";");
+	m_outstream.println("\tprivate final int YY_LAZY_STEPS = 2;");
+	emit_packed_array("yy_cmap", m_spec.m_ccls_map);
+	emit_packed_array("yy_nfa_edge", lazy.m_edge);
+	emit_packed_array("yy_nfa_next", lazy.m_next);
+	emit_packed_array("yy_nfa_next2", lazy.m_next2);
+	emit_packed_array("yy_nfa_ccl", lazy.m_ccl);
+	emit_packed_array("yy_nfa_rule", lazy.m_rule);
+	emit_packed_array("yy_classes", lazy.m_classes);
+	emit_packed_array("yy_nfa_start", lazy.m_start);
+	emit_packed_array("yy_nfa_start_index", lazy.m_start_index);
+
+	m_outstream.println("\tprivate int yy_lazy_trans[] = "
+			    + "new int[YY_LAZY_STATES * YY_NCLASSES];");
+	m_outstream.println("\tprivate int yy_lazy_set[][] = "
+			    + "new int[YY_LAZY_STATES][];");
+	m_outstream.println("\tprivate String yy_lazy_key[] = "
+			    + "new String[YY_LAZY_STATES];");
+	m_outstream.println("\tprivate int yy_lazy_rule[] = "
+			    + "new int[YY_LAZY_STATES];");
+	m_outstream.println("\tprivate java.util.HashMap<String,Integer> yy_lazy_index = "
+			    + "new java.util.HashMap<String,Integer>();");
+	m_outstream.println("\tprivate int yy_lazy_size = 0;");
+	m_outstream.println("\tprivate int yy_lazy_begin[] = new int[" 
+			    + (lazy.m_start_index.length - 1) + "];");
+	m_outstream.println("\tprivate int yy_lazy_begin_set[][] = new int[" 
+			    + (lazy.m_start_index.length - 1) + "][];");
+	m_outstream.println("\tprivate int yy_lazy_begin_rule[] = new int[" 
+			    + (lazy.m_start_index.length - 1) + "];");
+	m_outstream.println("\tprivate int yy_lazy_steps = 0;");
+	m_outstream.println("\tprivate boolean yy_nfa_only = false;");
+	m_outstream.println("\tprivate int yy_nfa_work[] = new int[" + nstates + "];");
+	m_outstream.println("\tprivate int yy_nfa_stack[] = new int[" + nstates + "];");
+	m_outstream.println("\tprivate int yy_nfa_seen[] = new int[" + nstates + "];");
+	m_outstream.println("\tprivate int yy_nfa_stamp = 0;");
+	m_outstream.println("\tprivate int yy_nfa_accept = YY_NO_STATE;");
+
+	/* Function: yy_next */
+	m_outstream.println("\tprivate int yy_next (int state, int c) {");
+	m_outstream.println("\t\tint col = yy_cmap[c];");
+	m_outstream.println("\t\tint next = yy_lazy_trans[state * YY_NCLASSES + col];");
+	m_outstream.println("\t\tyy_lazy_steps++;");
+	m_outstream.println("\t\tif (0 != next) {");
+	m_outstream.println("\t\t\treturn next - 2;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn yy_lazy_move(state, col);");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_start */
+	m_outstream.println("\tprivate int yy_lazy_start (int lexical_state) {");
+	m_outstream.println("\t\tint state = yy_lazy_begin[lexical_state] - 1;");
+	m_outstream.println("\t\tif (0 <= state) {");
+	m_outstream.println("\t\t\treturn state;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (null == yy_lazy_begin_set[lexical_state]) {");
+	m_outstream.println("\t\t\tint n = 0;");
+	m_outstream.println("\t\t\tyy_nfa_mark();");
+	m_outstream.println("\t\t\tfor (int i = yy_nfa_start_index[lexical_state]; "
+			    + "i < yy_nfa_start_index[lexical_state + 1]; i++) {");
+	m_outstream.println("\t\t\t\tn = yy_closure(yy_nfa_start[i], n);");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tyy_lazy_begin_set[lexical_state] = yy_nfa_set(n);");
+	m_outstream.println("\t\t\tyy_lazy_begin_rule[lexical_state] = yy_nfa_accept;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tstate = yy_lazy_state(yy_lazy_begin_set[lexical_state], "
+			    + "yy_lazy_begin_rule[lexical_state], YY_NO_STATE, 0);");
+	m_outstream.println("\t\tif (false == yy_nfa_only) {");
+	m_outstream.println("\t\t\tyy_lazy_begin[lexical_state] = state + 1;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn state;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_move */
+	m_outstream.println("\tprivate int yy_lazy_move (int state, int col) {");
+	m_outstream.println("\t\tint set[] = yy_lazy_set[state];");
+	m_outstream.println("\t\tint n = 0;");
+	m_outstream.println("\t\tyy_nfa_mark();");
+	m_outstream.println("\t\tfor (int i = 0; i < set.length; i++) {");
+	m_outstream.println("\t\t\tint s = set[i];");
+	m_outstream.println("\t\t\tint edge = yy_nfa_edge[s];");
+	m_outstream.println("\t\t\tif (col + 2 == edge || (1 == edge "
+			    + "&& 0 != yy_classes[yy_nfa_ccl[s] * YY_NCLASSES + col])) {");
+	m_outstream.println("\t\t\t\tn = yy_closure(yy_nfa_next[s] - 1, n);");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (0 == n) {");
+	m_outstream.println("\t\t\tif (false == yy_nfa_only) {");
+	m_outstream.println("\t\t\t\tyy_lazy_trans[state * YY_NCLASSES + col] = YY_F + 2;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\treturn YY_F;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn yy_lazy_state(yy_nfa_set(n), yy_nfa_accept, state, col);");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_state */
+	m_outstream.println("\tprivate int yy_lazy_state (int set[], int rule, int from, int col) {");
+	m_outstream.println("\t\tint state = YY_NO_STATE;");
+	m_outstream.println("\t\tString key = null;");
+	m_outstream.println("\t\tif (false == yy_nfa_only) {");
+	m_outstream.println("\t\t\tchar chars[] = new char[2 * set.length];");
+	m_outstream.println("\t\t\tfor (int i = 0; i < set.length; i++) {");
+	m_outstream.println("\t\t\t\tchars[2 * i] = (char) (set[i] >>> 16);");
+	m_outstream.println("\t\t\t\tchars[2 * i + 1] = (char) set[i];");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tkey = new String(chars);");
+	m_outstream.println("\t\t\tInteger found = yy_lazy_index.get(key);");
+	m_outstream.println("\t\t\tif (null != found) {");
+	m_outstream.println("\t\t\t\tstate = found.intValue();");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (YY_NO_STATE == state) {");
+	m_outstream.println("\t\t\tif (yy_nfa_only || YY_LAZY_STATES == yy_lazy_size) {");
+	m_outstream.println("\t\t\t\tfrom = yy_lazy_flush(from);");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tstate = yy_lazy_size++;");
+	m_outstream.println("\t\t\tyy_lazy_set[state] = set;");
+	m_outstream.println("\t\t\tyy_lazy_rule[state] = rule;");
+	m_outstream.println("\t\t\tif (false == yy_nfa_only) {");
+	m_outstream.println("\t\t\t\tyy_lazy_key[state] = key;");
+	m_outstream.println("\t\t\t\tyy_lazy_index.put(key, state);");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tif (false == yy_nfa_only && YY_NO_STATE != from) {");
+	m_outstream.println("\t\t\tyy_lazy_trans[from * YY_NCLASSES + col] = state + 2;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn state;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_lazy_flush */
+	m_outstream.println("\tprivate int yy_lazy_flush (int keep) {");
+	m_outstream.println("\t\tif (false == yy_nfa_only) {");
+	m_outstream.println("\t\t\tif (yy_lazy_steps < YY_LAZY_STEPS * YY_LAZY_STATES) {");
+	m_outstream.println("\t\t\t\tyy_nfa_only = true;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tyy_lazy_steps = 0;");
+	m_outstream.println("\t\t\tjava.util.Arrays.fill(yy_lazy_trans, 0);");
+	m_outstream.println("\t\t\tjava.util.Arrays.fill(yy_lazy_begin, 0);");
+	m_outstream.println("\t\t\tyy_lazy_index.clear();");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tyy_lazy_size = 0;");
+	m_outstream.println("\t\tif (YY_NO_STATE == keep) {");
+	m_outstream.println("\t\t\treturn YY_NO_STATE;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tyy_lazy_set[0] = yy_lazy_set[keep];");
+	m_outstream.println("\t\tyy_lazy_rule[0] = yy_lazy_rule[keep];");
+	m_outstream.println("\t\tyy_lazy_size = 1;");
+	m_outstream.println("\t\tif (false == yy_nfa_only) {");
+	m_outstream.println("\t\t\tyy_lazy_key[0] = yy_lazy_key[keep];");
+	m_outstream.println("\t\t\tyy_lazy_index.put(yy_lazy_key[0], 0);");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn 0;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_nfa_mark */
+	m_outstream.println("\tprivate void yy_nfa_mark () {");
+	m_outstream.println("\t\tif (0 == ++yy_nfa_stamp) {");
+	m_outstream.println("\t\t\tjava.util.Arrays.fill(yy_nfa_seen, 0);");
+	m_outstream.println("\t\t\tyy_nfa_stamp = 1;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tyy_nfa_accept = YY_NO_STATE;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_closure */
+	m_outstream.println("\tprivate int yy_closure (int s, int n) {");
+	m_outstream.println("\t\tint top = 0;");
+	m_outstream.println("\t\tif (yy_nfa_stamp == yy_nfa_seen[s]) {");
+	m_outstream.println("\t\t\treturn n;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tyy_nfa_seen[s] = yy_nfa_stamp;");
+	m_outstream.println("\t\tyy_nfa_stack[top++] = s;");
+	m_outstream.println("\t\twhile (0 < top) {");
+	m_outstream.println("\t\t\ts = yy_nfa_stack[--top];");
+	m_outstream.println("\t\t\tyy_nfa_work[n++] = s;");
+	m_outstream.println("\t\t\tint rule = yy_nfa_rule[s] - 1;");
+	m_outstream.println("\t\t\tif (0 <= rule && (YY_NO_STATE == yy_nfa_accept "
+			    + "|| rule < yy_nfa_accept)) {");
+	m_outstream.println("\t\t\t\tyy_nfa_accept = rule;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tif (0 == yy_nfa_edge[s]) {");
+	m_outstream.println("\t\t\t\tint next = yy_nfa_next[s] - 1;");
+	m_outstream.println("\t\t\t\tif (0 <= next && yy_nfa_stamp != yy_nfa_seen[next]) {");
+	m_outstream.println("\t\t\t\t\tyy_nfa_seen[next] = yy_nfa_stamp;");
+	m_outstream.println("\t\t\t\t\tyy_nfa_stack[top++] = next;");
+	m_outstream.println("\t\t\t\t}");
+	m_outstream.println("\t\t\t\tnext = yy_nfa_next2[s] - 1;");
+	m_outstream.println("\t\t\t\tif (0 <= next && yy_nfa_stamp != yy_nfa_seen[next]) {");
+	m_outstream.println("\t\t\t\t\tyy_nfa_seen[next] = yy_nfa_stamp;");
+	m_outstream.println("\t\t\t\t\tyy_nfa_stack[top++] = next;");
+	m_outstream.println("\t\t\t\t}");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn n;");
+	m_outstream.println("\t}");
+
+	/* Function: yy_nfa_set */
+	m_outstream.println("\tprivate int[] yy_nfa_set (int n) {");
+	m_outstream.println("\t\tint set[] = new int[n];");
+	m_outstream.println("\t\tSystem.arraycopy(yy_nfa_work, 0, set, 0, n);");
+	m_outstream.println("\t\tif (false == yy_nfa_only) {");
+	m_outstream.println("\t\t\tjava.util.Arrays.sort(set);");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn set;");
+	m_outstream.println("\t}");
+	m_outstream.println();
+
+	if (m_spec.m_verbose)
+	  {
+	    System.out.println("NFA of " + nstates + " states and "
+			       + m_spec.m_dtrans_ncols + " character classes: "
+			       + (footprint(m_spec.m_ccls_map) 
+				  + footprint(lazy.m_edge)
+				  + footprint(lazy.m_next)
+				  + footprint(lazy.m_next2)
+				  + footprint(lazy.m_ccl)
+				  + footprint(lazy.m_rule)
+				  + footprint(lazy.m_classes)
+				  + footprint(lazy.m_start)
+				  + footprint(lazy.m_start_index))
+			       + " bytes.");
+	  }
+      }
+
+  /***************************************************************
+    Function: width
+    Description: Returns the smallest of byte, char and int
+    that holds all the (non-negative) elements of a table.
+    **************************************************************/
+  private String width
+    (
+     int a[]
+     )
+      {
+	int i;
+	int max = 0;
+
+	for (i = 0; i < a.length; ++i)
+	  {
+	    if (CUtility.DEBUG)
+	      {
+		CUtility.ASSERT(0 <= a[i]);
+	      }
+	    max = Math.max(max, a[i]);
+	  }
+	if (max <= Byte.MAX_VALUE)
+	  {
+	    return "byte";
+	  }
+	if (max <= Character.MAX_VALUE)
+	  {
+	    return "char";
+	  }
+	return "int";
+      }
+
+  /***************************************************************
+    Function: footprint
+    Description: Returns the size in bytes of the elements of a
+    table emitted by emit_packed_array.
+    **************************************************************/
+  private int footprint
+    (
+     int a[]
+     )
+      {
+	String type = width(a);
+
+	if (type.equals("byte"))
+	  {
+	    return a.length;
+	  }
+	if (type.equals("char"))
+	  {
+	    return 2 * a.length;
+	  }
+	return 4 * a.length;
+      }
+
+  /***************************************************************
+    Function: emit_packed_array
+    Description: Emits a table as an array of the smallest type
+    that holds its elements; it is unpacked as ints and 
+    narrowed by yy_narrow.
+    **************************************************************/
+  private void emit_packed_array
+    (
+     String name,
+     int a[]
+     )
+      throws java.io.IOException
+      {
+	String type = width(a);
+
+	m_outstream.print("\tprivate " + type + " " + name + "[] = ");
+	if (type.equals("int"))
+	  {
+	    m_outstream.print("unpackFromString(");
+	    emit_table_as_string(new int[][] { a });
+	    m_outstream.println(")[0];");
+	  }
+	else
+	  {
+	    m_outstream.print("yy_narrow_" + type + "(unpackFromString(");
+	    emit_table_as_string(new int[][] { a });
+	    m_outstream.println(")[0]);");
+	  }
+	m_outstream.println();
+      }
+
+  /***************************************************************
+    Function: emit_switch_table
+    Description: Emits the transitions for %switch as code
+    instead of tables.  Each row of the transition table
+    becomes a function yy_nextN(c) that finds the next state
+    with a binary search of the character ranges that share 
+    a next state, written out as nested tests; yy_next(state,c)
+    switches on the state to the function of its row.  Rows 
+    are kept in functions of their own so that none is too 
+    large for the JIT compiler.
+    **************************************************************/
+  private void emit_switch_table
+    (
+     )
+      throws java.io.IOException
+      {
+	int size;
+	int nchars;
+	int row;
+	int state;
+	int c;
+	int nranges;
+	int next;
+	int range_lo[];
+	int range_next[];
+	CDTrans dtrans;
+
+	size = m_spec.m_dtrans_vector.size();
+	nchars = m_spec.m_ccls_map.length;
+	range_lo = new int[nchars + 1];
+	range_next = new int[nchars + 1];
+
+	for (row = 0; row < size; ++row)
+	  {
+	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(row);
+
+	    /* Split the characters into ranges with one next state;
+	       the characters past the table have none. */
+	    nranges = 0;
+	    for (c = 0; c < nchars; ++c)
+	      {
+		next = dtrans.m_dtrans[m_spec.m_col_map[m_spec.m_ccls_map[c]]];
+		if (0 == nranges || range_next[nranges - 1] != next)
+		  {
+		    range_lo[nranges] = c;
+		    range_next[nranges] = next;
+		    ++nranges;
+		  }
+	      }
+	    if (CDTrans.F != range_next[nranges - 1])
+	      {
+		range_lo[nranges] = nchars;
+		range_next[nranges] = CDTrans.F;
+		++nranges;
+	      }
+
+	    m_outstream.println("\tprivate int yy_next" + row + " (int c) {");
+	    emit_ranges(range_lo,range_next,0,nranges,"\t\t");
+	    m_outstream.println("\t}");
+	  }
+
+	m_outstream.println("\tprivate int yy_next (int state, int c) {");
+	m_outstream.println("\t\tswitch (state) {");
+	for (row = 0; row < size; ++row)
+	  {
+	    for (state = 0; state < m_spec.m_row_map.length; ++state)
+	      {
+		if (row == m_spec.m_row_map[state])
+		  {
+		    m_outstream.println("\t\tcase " + state + ":");
+		  }
+	      }
+	    m_outstream.println("\t\t\treturn yy_next" + row + "(c);");
+	  }
+	m_outstream.println("\t\tdefault:");
+	m_outstream.println("\t\t\treturn YY_F;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t}");
+	m_outstream.println();
+      }
+
+  /***************************************************************
+    Function: emit_ranges
+    Description: Emits the tests that return the next state of
+    c for the ranges from (inclusive) to to (exclusive); the
+    last range extends to the end of the characters.
+    **************************************************************/
+  private void emit_ranges
+    (
+     int range_lo[],
+     int range_next[],
+     int from,
+     int to,
+     String tabs
+     )
+      throws java.io.IOException
+      {
+	int mid;
+
+	if (1 == to - from)
+	  {
+	    if (CDTrans.F == range_next[from])
+	      {
+		m_outstream.println(tabs + "return YY_F;");
 	      }
-	    
-	    if (elem < size - 1)
+	    else
 	      {
-		m_outstream.print(",");
+		m_outstream.println(tabs + "return " + range_next[from] + ";");
 	      }
-	    
-	    m_outstream.println();
+	    return;
 	  }
-	m_outstream.println("\t};");
-
-	// CSA: modified yy_cmap to use string packing 9-Aug-1999
-	int[] yy_cmap = new int[m_spec.m_ccls_map.length];
-	for (i = 0; i < m_spec.m_ccls_map.length; ++i)
-	    yy_cmap[i] = m_spec.m_col_map[m_spec.m_ccls_map[i]];
-	m_outstream.print("\tprivate int yy_cmap[] = unpackFromString(");
-	emit_table_as_string(new int[][] { yy_cmap });
-	m_outstream.println(")[0];");
-	m_outstream.println();
-
-	// CSA: modified yy_rmap to use string packing 9-Aug-1999
-	m_outstream.print("\tprivate int yy_rmap[] = unpackFromString(");
-	emit_table_as_string(new int[][] { m_spec.m_row_map });
-	m_outstream.println(")[0];");
-	m_outstream.println();
 
-	// 6/24/98 Raimondas Lencevicius
-	// modified to use
-	//    int[][] unpackFromString(int size1, int size2, String st)
-	size = m_spec.m_dtrans_vector.size();
-	int[][] yy_nxt = new int[size][];
-	for (elem=0; elem<size; elem++) {
-	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(elem);
-	    CUtility.ASSERT(dtrans.m_dtrans.length==m_spec.m_dtrans_ncols);
-	    yy_nxt[elem] = dtrans.m_dtrans;
-	}
-	m_outstream.print
-	  ("\tprivate int yy_nxt[][] = unpackFromString(");
-	emit_table_as_string(yy_nxt);
-	m_outstream.println(");");
-	m_outstream.println();
+	mid = (from + to) / 2;
+	m_outstream.println(tabs + "if (c < " + range_lo[mid] + ") {");
+	emit_ranges(range_lo,range_next,from,mid,tabs + "\t");
+	m_outstream.println(tabs + "}");
+	emit_ranges(range_lo,range_next,mid,to,tabs);
       }
 
   /***************************************************************
@@ -1252,11 +2234,16 @@ class CEmit
 	   yy_nxt[][] values are coded into a string
 	   by printing integers and representing
 	   integer sequences as "value:length" pairs.
+    A string constant can be no longer than 64K, so a longer
+    table is split into pieces joined by String.valueOf, which
+    javac cannot fold back into one constant.
     **************************************************************/
   private void emit_table_as_string(int[][] ia) {
 	int sequenceLength = 0; // RL - length of the number sequence
 	boolean sequenceStarted = false; // RL - has number sequence started?
 	int previousInt = -20; // RL - Bogus -20 state.
+	int chunks = 0; // lines of the current piece
+	int pieces = 0; // pieces opened with String.valueOf
 	
 	// RL - Output matrix size
 	m_outstream.print(ia.length);
@@ -1308,7 +2295,13 @@ class CEmit
 		// CSA: output in 75 character chunks.
 		if (outstr.length() > 75) {
 		  String s = outstr.toString();
-		  m_outstream.println("\""+s.substring(0,75)+"\" +");
+		  if (++chunks == CHUNKS_PER_PIECE) {
+		    m_outstream.println("\""+s.substring(0,75)+"\" + String.valueOf(");
+		    chunks = 0;
+		    ++pieces;
+		  } else {
+		    m_outstream.println("\""+s.substring(0,75)+"\" +");
+		  }
 		  outstr = new StringBuffer(s.substring(75));
 		}
 	      }
@@ -1328,6 +2321,9 @@ class CEmit
 	  outstr = new StringBuffer(s.substring(75));
 	}
 	m_outstream.print("\""+outstr+"\"");
+	for (; pieces > 0; --pieces) {
+	  m_outstream.print(")");
+	}
   }
 
   /***************************************************************
@@ -1339,6 +2335,8 @@ class CEmit
      )
       throws java.io.IOException
 	{
+	  String start;
+
 	  if (CUtility.DEBUG)
 	    {
 	      CUtility.ASSERT(null != m_spec);
@@ -1347,6 +2345,9 @@ class CEmit
 	  
 	  emit_table();
 
+	  start = m_spec.m_lazy ? "yy_lazy_start(yy_lexical_state)"
+	    : "yy_state_dtrans[yy_lexical_state]";
+
 	  if (m_spec.m_integer_type)
 	    {
 	      m_outstream.print("\tpublic int ");
@@ -1388,7 +2389,7 @@ class CEmit
 	  /*m_outstream.println("\t\tint yy_state "
 	    + "= yy_initial_dtrans(yy_lexical_state);");*/
 	  m_outstream.println("\t\tint yy_state " 
-				 + "= yy_state_dtrans[yy_lexical_state];");
+				 + "= " + start + ";");
 	  m_outstream.println("\t\tint yy_next_state = YY_NO_STATE;");
 	  /*m_outstream.println("\t\tint yy_prev_stave = YY_NO_STATE;");*/
 	  m_outstream.println("\t\tint yy_last_accept_state = YY_NO_STATE;");
@@ -1398,11 +2399,7 @@ class CEmit
 
 	  m_outstream.println("\t\tyy_mark_start();");
 	  /*m_outstream.println("\t\tyy_this_accept = yy_accept(yy_state);");*/
-	  m_outstream.println("\t\tyy_this_accept = yy_acpt[yy_state];");
-	  m_outstream.println("\t\tif (YY_NOT_ACCEPT != yy_this_accept) {");
-	  m_outstream.println("\t\t\tyy_last_accept_state = yy_state;");
-	  m_outstream.println("\t\t\tyy_mark_end();");
-	  m_outstream.println("\t\t}");
+	  emit_accept("\t\t");
 
 	  if (NOT_EDBG)
 	    {
@@ -1413,12 +2410,25 @@ class CEmit
 
 	  m_outstream.println("\t\t\tif (yy_initial && yy_at_bol) "+
 			                 "yy_lookahead = YY_BOL;");
-	  m_outstream.println("\t\t\telse yy_lookahead = yy_advance();");
+	  if (m_spec.m_stats)
+	    {
+	      m_outstream.println("\t\t\telse {");
+	      m_outstream.println("\t\t\t\tyy_lookahead = yy_advance();");
+	      m_outstream.println("\t\t\t\tif (YY_EOF != yy_lookahead) {");
+	      m_outstream.println("\t\t\t\t\tyy_stats_chars++;");
+	      m_outstream.println("\t\t\t\t}");
+	      m_outstream.println("\t\t\t}");
+	      m_outstream.println("\t\t\tyy_stats_visits[yy_state]++;");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\t\telse yy_lookahead = yy_advance();");
+	    }
 	  m_outstream.println("\t\t\tyy_next_state = YY_F;");
 	  /*m_outstream.println("\t\t\t\tyy_next_state = "
 				 + "yy_next(yy_state,yy_lookahead);");*/
 	  m_outstream.println("\t\t\tyy_next_state = "
- 	   + "yy_nxt[yy_rmap[yy_state]][yy_cmap[yy_lookahead]];");
+			      + "yy_next(yy_state,yy_lookahead);");
 
 	  if (NOT_EDBG)
 	    {
@@ -1467,11 +2477,7 @@ class CEmit
 	  m_outstream.println("\t\t\t\tyy_state = yy_next_state;");
      	  m_outstream.println("\t\t\t\tyy_initial = false;");
      	  /*m_outstream.println("\t\t\t\tyy_this_accept = yy_accept(yy_state);");*/
-	  m_outstream.println("\t\t\t\tyy_this_accept = yy_acpt[yy_state];");
-	  m_outstream.println("\t\t\t\tif (YY_NOT_ACCEPT != yy_this_accept) {");
-	  m_outstream.println("\t\t\t\t\tyy_last_accept_state = yy_state;");
-	  m_outstream.println("\t\t\t\t\tyy_mark_end();");
-	  m_outstream.println("\t\t\t\t}");
+	  emit_accept("\t\t\t\t");
 	  /*m_outstream.println("\t\t\t\tyy_prev_state = yy_state;");*/
 	  /*m_outstream.println("\t\t\t\tyy_state = yy_next_state;");*/
 	  m_outstream.println("\t\t\t}");
@@ -1507,6 +2513,12 @@ class CEmit
 	  m_outstream.println("\t\t\t\t\t\tyy_move_end();");
 	  m_outstream.println("\t\t\t\t\t}");
 	  m_outstream.println("\t\t\t\t\tyy_to_mark();");
+	  if (m_spec.m_stats)
+	    {
+	      m_outstream.println("\t\t\t\t\tyy_stats_matches[yy_last_accept_state]++;");
+	      m_outstream.println("\t\t\t\t\tyy_stats_length[yy_last_accept_state] "
+				  + "+= yy_buffer_end - yy_buffer_start;");
+	    }
 
 	  m_outstream.println("\t\t\t\t\tswitch (yy_last_accept_state) {");
 
@@ -1520,7 +2532,7 @@ class CEmit
 	  
     	  m_outstream.println("\t\t\t\t\tyy_initial = true;");
 	  m_outstream.println("\t\t\t\t\tyy_state "
-				 + "= yy_state_dtrans[yy_lexical_state];");
+				 + "= " + start + ";");
 	  m_outstream.println("\t\t\t\t\tyy_next_state = YY_NO_STATE;");
 	  /*m_outstream.println("\t\t\t\t\tyy_prev_state = YY_NO_STATE;");*/
 	  m_outstream.println("\t\t\t\t\tyy_last_accept_state = YY_NO_STATE;");
@@ -1528,11 +2540,7 @@ class CEmit
 	  m_outstream.println("\t\t\t\t\tyy_mark_start();");
 
 	  /*m_outstream.println("\t\t\t\t\tyy_this_accept = yy_accept(yy_state);");*/
-	  m_outstream.println("\t\t\t\t\tyy_this_accept = yy_acpt[yy_state];");
-	  m_outstream.println("\t\t\t\t\tif (YY_NOT_ACCEPT != yy_this_accept) {");
-	  m_outstream.println("\t\t\t\t\t\tyy_last_accept_state = yy_state;");
-	  m_outstream.println("\t\t\t\t\t\tyy_mark_end();");
-	  m_outstream.println("\t\t\t\t\t}");
+	  emit_accept("\t\t\t\t\t");
 
 	  m_outstream.println("\t\t\t\t}");	  
 	  m_outstream.println("\t\t\t}");
@@ -1547,6 +2555,146 @@ class CEmit
 	  m_outstream.println("\t\t}");*/
 	}
   
+  /***************************************************************
+    Function: emit_accept
+    Description: Emits the code that records whether the lexer
+    is in an accepting state.  yy_last_accept_state is the last
+    accepting state, or with %lazy, the rule it accepts, which
+    yy_acpt and the actions are indexed by.
+    **************************************************************/
+  private void emit_accept
+    (
+     String tabs
+     )
+      throws java.io.IOException
+	{
+	  if (m_spec.m_lazy)
+	    {
+	      m_outstream.println(tabs + "yy_this_accept = yy_lazy_rule[yy_state];");
+	      m_outstream.println(tabs + "if (YY_NO_STATE != yy_this_accept) {");
+	      m_outstream.println(tabs + "\tyy_last_accept_state = yy_this_accept;");
+	    }
+	  else
+	    {
+	      m_outstream.println(tabs + "yy_this_accept = yy_acpt[yy_state];");
+	      m_outstream.println(tabs + "if (YY_NOT_ACCEPT != yy_this_accept) {");
+	      m_outstream.println(tabs + "\tyy_last_accept_state = yy_state;");
+	    }
+	  m_outstream.println(tabs + "\tyy_mark_end();");
+	  m_outstream.println(tabs + "}");
+	}
+
+  /***************************************************************
+    Function: emit_stats
+    Description: Emits the counters of %stats and yyreport, which
+    prints them.  The counters are static, so they add up over 
+    all the lexers of the class, and are not synchronized.
+    Matches and their lengths are counted per accepting action
+    (yy_last_accept_state), and reported per rule, by the line 
+    of its action in the spec (the one JLex adds for BOL and EOF
+    has the line after the spec).  Characters are those read by 
+    yy_advance, including those read again after backing up to
+    the end of a match; with %bytes, lengths are in bytes.  Each
+    character examined counts a visit to the state it is read 
+    in; with %lazy, states are numbered by their slot in the 
+    cache, which is reused when the cache is flushed.
+    **************************************************************/
+  private void emit_stats
+    (
+     )
+      throws java.io.IOException
+      {
+	int size = m_spec.m_accept_vector.size();
+	int lines[] = new int[size];
+	int elem;
+	CAccept accept;
+
+	for (elem = 0; elem < size; ++elem)
+	  {
+	    accept = (CAccept) m_spec.m_accept_vector.elementAt(elem);
+	    if (null != accept)
+	      {
+		lines[elem] = accept.m_line_number;
+	      }
+	  }
+
+	m_outstream.println("\tprivate static long yy_stats_matches[] = new long[" 
+			    + size + "];");
+	m_outstream.println("\tprivate static long yy_stats_length[] = new long[" 
+			    + size + "];");
+	m_outstream.println("\tprivate static long yy_stats_visits[] = new long[" 
+			    + (m_spec.m_lazy ? LAZY_STATES : size) + "];");
+	m_outstream.println("\tprivate static long yy_stats_chars = 0;");
+	m_outstream.println("\tprivate static long yy_stats_refills = 0;");
+	m_outstream.print("\tprivate static final int yy_stats_line[] = yy_stats_unpack(");
+	emit_table_as_string(new int[][] { lines });
+	m_outstream.println(");");
+
+	/* Function: yy_stats_unpack */
+	m_outstream.println("\tprivate static int[] yy_stats_unpack "
+			    + "(int size1, int size2, String st) {");
+	m_outstream.println("\t\tint res[] = new int[size2];");
+	m_outstream.println("\t\tint j = 0;");
+	m_outstream.println("\t\tfor (String item : st.split(\",\")) {");
+	m_outstream.println("\t\t\tint colon = item.indexOf(':');");
+	m_outstream.println("\t\t\tif (-1 == colon) {");
+	m_outstream.println("\t\t\t\tres[j++] = Integer.parseInt(item);");
+	m_outstream.println("\t\t\t\tcontinue;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tint value = Integer.parseInt(item.substring(0, colon));");
+	m_outstream.println("\t\t\tfor (int n = Integer.parseInt(item.substring(colon + 1)); "
+			    + "0 < n; n--) {");
+	m_outstream.println("\t\t\t\tres[j++] = value;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\treturn res;");
+	m_outstream.println("\t}");
+
+	/* Function: yyreport */
+	m_outstream.println("\tpublic static void yyreport (java.io.PrintStream out) {");
+	m_outstream.println("\t\tjava.util.TreeMap<Integer,long[]> rules "
+			    + "= new java.util.TreeMap<Integer,long[]>();");
+	m_outstream.println("\t\tlong matches = 0;");
+	m_outstream.println("\t\tlong length = 0;");
+	m_outstream.println("\t\tlong visits = 0;");
+	m_outstream.println("\t\tfor (int i = 0; i < yy_stats_matches.length; i++) {");
+	m_outstream.println("\t\t\tif (0 == yy_stats_matches[i]) {");
+	m_outstream.println("\t\t\t\tcontinue;");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tlong counts[] = rules.get(yy_stats_line[i]);");
+	m_outstream.println("\t\t\tif (null == counts) {");
+	m_outstream.println("\t\t\t\tcounts = new long[2];");
+	m_outstream.println("\t\t\t\trules.put(yy_stats_line[i], counts);");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t\tcounts[0] += yy_stats_matches[i];");
+	m_outstream.println("\t\t\tcounts[1] += yy_stats_length[i];");
+	m_outstream.println("\t\t\tmatches += yy_stats_matches[i];");
+	m_outstream.println("\t\t\tlength += yy_stats_length[i];");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tfor (int i = 0; i < yy_stats_visits.length; i++) {");
+	m_outstream.println("\t\t\tvisits += yy_stats_visits[i];");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tout.println(matches + \" matches of \" + length "
+			    + "+ \" characters; \" + yy_stats_chars + \" characters read, \"");
+	m_outstream.println("\t\t\t+ yy_stats_refills + \" buffer refills, \" "
+			    + "+ visits + \" state visits\");");
+	m_outstream.println("\t\tout.println(\"rule (line)    matches  average length\");");
+	m_outstream.println("\t\tfor (java.util.Map.Entry<Integer,long[]> rule : rules.entrySet()) {");
+	m_outstream.println("\t\t\tlong counts[] = rule.getValue();");
+	m_outstream.println("\t\t\tout.println(String.format(\"%11d %10d %15.2f\", "
+			    + "rule.getKey(), counts[0], (double) counts[1] / counts[0]));");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t\tout.println(\"state         visits\");");
+	m_outstream.println("\t\tfor (int i = 0; i < yy_stats_visits.length; i++) {");
+	m_outstream.println("\t\t\tif (0 != yy_stats_visits[i]) {");
+	m_outstream.println("\t\t\t\tout.println(String.format(\"%5d %14d\", "
+			    + "i, yy_stats_visits[i]));");
+	m_outstream.println("\t\t\t}");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t}");
+	m_outstream.println();
+      }
+
   /***************************************************************
     Function: emit_actions
     Description:     
@@ -1615,8 +2763,7 @@ class CBunch
   /***************************************************************
     Member Variables
     **************************************************************/
-  Vector m_nfa_set; /* Vector of CNfa states in dfa state. */
-  SparseBitSet m_nfa_bit; /* BitSet representation of CNfa labels. */
+  AdaptiveBitSet m_nfa_bit; /* BitSet representation of CNfa labels. */
   CAccept m_accept; /* Accepting actions, or null if nonaccepting state. */
   int m_anchor; /* Anchors on regular expression. */
   int m_accept_index; /* CNfa index corresponding to accepting actions. */
@@ -1629,7 +2776,6 @@ class CBunch
     (
      )
       {
-	m_nfa_set = null;
 	m_nfa_bit = null;
 	m_accept = null;
 	m_anchor = CSpec.NONE;
@@ -1780,7 +2926,8 @@ class CMakeNfa
      CNfa nfa
      )
       {
-	m_spec.m_nfa_states.removeElement(nfa);
+	/* It was just made by factor, so look for it from the end. */
+	m_spec.m_nfa_states.removeElementAt(m_spec.m_nfa_states.lastIndexOf(nfa));
       }
 
   /***************************************************************
@@ -1789,7 +2936,7 @@ class CMakeNfa
     **************************************************************/
   private void processStates
     (
-     SparseBitSet states,
+     AdaptiveBitSet states,
      CNfa current
      )
       {
@@ -1817,7 +2964,7 @@ class CMakeNfa
       {
 	CNfa start;
 	CNfa p;
-	SparseBitSet states;
+	AdaptiveBitSet states;
 
 	if (CUtility.DESCENT_DEBUG)
 	  {
@@ -1862,7 +3009,7 @@ class CMakeNfa
 	  }
 
 	// CSA: add pseudo-rules for BOL and EOF
-	SparseBitSet all_states = new SparseBitSet();
+	AdaptiveBitSet all_states = new AdaptiveBitSet();
 	for (int i = 0; i < m_spec.m_states.size(); ++i)
 		all_states.set(i);
 	p.m_next2 = CAlloc.newCNfa(m_spec);
@@ -2358,7 +3505,7 @@ class CSimplifyNfa
     this.ccls = new int[original_charset_size]; // initially all zero.
 
     int nextcls = 1;
-    SparseBitSet clsA = new SparseBitSet(), clsB = new SparseBitSet();
+    AdaptiveBitSet clsA = new AdaptiveBitSet(), clsB = new AdaptiveBitSet();
     Hashtable h = new Hashtable();
     
     System.out.print("Working on character classes.");
@@ -2375,8 +3522,8 @@ class CSimplifyNfa
 	  clsB.set(ccls[i]);
       // now figure out which character classes we need to split.
       clsA.and(clsB); // split the classes which show up on both sides of edge
-      System.out.print(clsA.size()==0?".":":");
-      if (clsA.size()==0) continue; // nothing to do.
+      System.out.print(clsA.isEmpty()?".":":");
+      if (clsA.isEmpty()) continue; // nothing to do.
       // and split them.
       h.clear(); // h will map old to new class name
       for (int i=0; i<ccls.length; i++)
@@ -2407,6 +3554,8 @@ class CMinimize
   CSpec m_spec;
   Vector m_group;
   int m_ingroup[];
+  Hashtable<Integer,Integer> m_first; /* For reduce (see first_equiv). */
+  int m_same_hash[];
 
   /***************************************************************
     Function: CMinimize
@@ -2463,7 +3612,14 @@ class CMinimize
 	set(spec);
 
 	/* Remove redundant states. */
-	minimize();
+	if (m_spec.m_moore)
+	  {
+	    minimize();
+	  }
+	else
+	  {
+	    hopcroft();
+	  }
 
 	/* Column and row compression. 
 	   Save accept states in auxilary vector. */
@@ -2600,11 +3756,15 @@ class CMinimize
 	int nrows;
 	int reduced_ncols;
 	int reduced_nrows;
-	SparseBitSet set;
+	AdaptiveBitSet set;
 	CDTrans dtrans;
 	int size;
+	int hash[];
 
-	set = new SparseBitSet();
+	set = new AdaptiveBitSet();
+	m_first = new Hashtable<Integer,Integer>();
+	m_same_hash = new int[Math.max(m_spec.m_dtrans_ncols,
+				       m_spec.m_dtrans_vector.size())];
 	
 	/* Save accept nodes and anchor entries. */
 	size = m_spec.m_dtrans_vector.size();
@@ -2618,54 +3778,31 @@ class CMinimize
 	    dtrans.m_accept = null;
 	  }
 	
-	/* Allocate column map. */
-	m_spec.m_col_map = new int[m_spec.m_dtrans_ncols];
-	for (i = 0; i < m_spec.m_dtrans_ncols; ++i)
-	  {
-	    m_spec.m_col_map[i] = -1;
-	  }
-
-	/* Process columns for reduction. */
-	for (reduced_ncols = 0; ; ++reduced_ncols)
+	/* Map each column to the first column equal to it, finding
+	   equal columns through their hash codes. */
+	size = m_spec.m_dtrans_vector.size();
+	hash = new int[m_spec.m_dtrans_ncols];
+	for (i = 0; i < size; ++i)
 	  {
-	    if (CUtility.DEBUG)
-	      {
-		for (i = 0; i < reduced_ncols; ++i)
-		  {
-		    CUtility.ASSERT(-1 != m_spec.m_col_map[i]);
-		  }
-	      }
-
-	    for (i = reduced_ncols; i < m_spec.m_dtrans_ncols; ++i)
-	      {
-		if (-1 == m_spec.m_col_map[i])
-		  {
-		    break;
-		  }
-	      }
-
-	    if (i >= m_spec.m_dtrans_ncols)
+	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(i);
+	    for (j = 0; j < m_spec.m_dtrans_ncols; ++j)
 	      {
-		break;
+		hash[j] = 31 * hash[j] + dtrans.m_dtrans[j];
 	      }
-
-	    if (CUtility.DEBUG)
+	  }
+	m_spec.m_col_map = new int[m_spec.m_dtrans_ncols];
+	reduced_ncols = 0;
+	for (i = 0; i < m_spec.m_dtrans_ncols; ++i)
+	  {
+	    j = first_equiv(i,hash[i],true);
+	    if (-1 == j)
 	      {
-		CUtility.ASSERT(false == set.get(i));
-		CUtility.ASSERT(-1 == m_spec.m_col_map[i]);
+		set.set(i);
+		m_spec.m_col_map[i] = reduced_ncols++;
 	      }
-
-	    set.set(i);
-	    
-	    m_spec.m_col_map[i] = reduced_ncols;
-	    
-	    /* UNDONE: Optimize by doing all comparisons in one batch. */
-	    for (j = i + 1; j < m_spec.m_dtrans_ncols; ++j)
+	    else
 	      {
-		if (-1 == m_spec.m_col_map[j] && true == col_equiv(i,j))
-		  {
-		    m_spec.m_col_map[j] = reduced_ncols;
-		  }
+		m_spec.m_col_map[i] = m_spec.m_col_map[j];
 	      }
 	  }
 
@@ -2703,55 +3840,23 @@ class CMinimize
 	    CUtility.ASSERT(k == reduced_ncols);
 	  }
 
-	/* Allocate row map. */
+	/* Same for the rows. */
+	m_first.clear();
 	nrows = m_spec.m_dtrans_vector.size();
 	m_spec.m_row_map = new int[nrows];
+	reduced_nrows = 0;
 	for (i = 0; i < nrows; ++i)
 	  {
-	    m_spec.m_row_map[i] = -1;
-	  }
-
-	/* Process rows to reduce. */
-	for (reduced_nrows = 0; ; ++reduced_nrows)
-	  {
-	    if (CUtility.DEBUG)
-	      {
-		for (i = 0; i < reduced_nrows; ++i)
-		  {
-		    CUtility.ASSERT(-1 != m_spec.m_row_map[i]);
-		  }
-	      }
-
-	    for (i = reduced_nrows; i < nrows; ++i)
-	      {
-		if (-1 == m_spec.m_row_map[i])
-		  {
-		    break;
-		  }
-	      }
-
-	    if (i >= nrows)
-	      {
-		break;
-	      }
-
-	    if (CUtility.DEBUG)
+	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(i);
+	    j = first_equiv(i,java.util.Arrays.hashCode(dtrans.m_dtrans),false);
+	    if (-1 == j)
 	      {
-		CUtility.ASSERT(false == set.get(i));
-		CUtility.ASSERT(-1 == m_spec.m_row_map[i]);
+		set.set(i);
+		m_spec.m_row_map[i] = reduced_nrows++;
 	      }
-
-	    set.set(i);
-
-	    m_spec.m_row_map[i] = reduced_nrows;
-	    
-	    /* UNDONE: Optimize by doing all comparisons in one batch. */
-	    for (j = i + 1; j < nrows; ++j)
+	    else
 	      {
-		if (-1 == m_spec.m_row_map[j] && true == row_equiv(i,j))
-		  {
-		    m_spec.m_row_map[j] = reduced_nrows;
-		  }
+		m_spec.m_row_map[i] = m_spec.m_row_map[j];
 	      }
 	  }
 
@@ -2787,6 +3892,43 @@ class CMinimize
 	    /*System.out.println("k = " + k + "\nreduced_nrows = " + reduced_nrows + "");*/
 	    CUtility.ASSERT(k == reduced_nrows);
 	  }
+
+	m_first = null;
+	m_same_hash = null;
+      }
+
+  /***************************************************************
+    Function: first_equiv
+    Description: Returns the first column (or row) before i that
+    is equal to it, or -1 if there is none, and records i as the
+    first of its kind in the latter case.  m_first maps each hash
+    code to the last such first column seen with it, and m_same_hash
+    chains it to the one before.
+    **************************************************************/
+  private int first_equiv
+    (
+     int i,
+     int hash,
+     boolean cols
+     )
+      {
+	Integer key;
+	Integer last;
+	int j;
+
+	key = new Integer(hash);
+	last = m_first.get(key);
+	for (j = (null == last) ? -1 : last.intValue(); -1 != j; j = m_same_hash[j])
+	  {
+	    if (cols ? col_equiv(j,i) : row_equiv(j,i))
+	      {
+		return j;
+	      }
+	  }
+
+	m_same_hash[i] = (null == last) ? -1 : last.intValue();
+	m_first.put(key,new Integer(i));
+	return -1;
       }
 
   /***************************************************************
@@ -2857,6 +3999,7 @@ class CMinimize
 	int c;
 	int group_size;
 	boolean added;
+	int ingroup[];
 
 	init_groups();
 
@@ -2867,6 +4010,12 @@ class CMinimize
 	  {
 	    old_group_count = group_count;
 
+	    /* Compare with the groups as they were before this pass;
+	       with those being split, states that go to the same
+	       states could end up in different groups. */
+	    ingroup = new int[m_ingroup.length];
+	    System.arraycopy(m_ingroup, 0, ingroup, 0, ingroup.length);
+
 	    if (CUtility.DEBUG)
 	      {
 		CUtility.ASSERT(m_group.size() == group_count);
@@ -2898,7 +4047,7 @@ class CMinimize
 			if (goto_first != goto_next
 			    && (goto_first == CDTrans.F
 				|| goto_next == CDTrans.F
-				|| m_ingroup[goto_next] != m_ingroup[goto_first]))
+				|| ingroup[goto_next] != ingroup[goto_first]))
 			  {
 			    if (CUtility.DEBUG)
 			      {
@@ -2936,13 +4085,268 @@ class CMinimize
 				CUtility.ASSERT((m_group.size() - 1) 
 						== m_ingroup[next.m_label]);
 			      }
-
-			    break;
+
+			    break;
+			  }
+		      }
+		  }
+	      }
+	  }
+
+	System.out.println(m_group.size() + " states after removal of redundant states.");
+
+	if (m_spec.m_verbose
+	    && true == CUtility.OLD_DUMP_DEBUG)
+	  {
+	    System.out.println();
+	    System.out.println("States grouped as follows after minimization");
+	    pgroups();
+	  }
+
+	fix_dtrans();
+      }
+
+  /***************************************************************
+    Function: hopcroft
+    Description: Removes redundant transition table states with
+    Hopcroft's partition refinement, in O(n log n) for n states
+    (and a fixed number of columns).  It finds the same groups
+    as minimize, the coarsest partition of the states that 
+    separates different accepts and in which the states of a 
+    group go to the same group on every column.  A failure 
+    counts as a transition to a dead state (state n) that is 
+    in a group of its own.
+
+    The partition is kept in int arrays: m_elems holds the 
+    states with those of each block together, from 
+    first[block] to end[block]; states are marked by moving 
+    them to the front of their block (up to mid[block]).  A 
+    block is split by the states that go into a splitter on
+    one column, found with the inverse transitions; the smaller
+    half becomes a new block and a new splitter.
+    **************************************************************/
+  private void hopcroft
+    (
+     )
+      {
+	int n;
+	int ncols;
+	int nstates;
+	int i;
+	int j;
+	int c;
+	int b;
+	int nb;
+	int e;
+	int t;
+	int nblocks;
+	int elems[];
+	int loc[];
+	int block[];
+	int first[];
+	int end[];
+	int mid[];
+	int work[];
+	int nwork;
+	int touched[];
+	int ntouched;
+	int splitter[];
+	int nsplitter;
+	int inv_start[];
+	int inv[];
+	CDTrans dtrans;
+	Hashtable<CAccept,Integer> accept_block;
+	int none;
+	Vector<Vector<CDTrans>> groups;
+	Vector<CDTrans> dtrans_group;
+
+	n = m_spec.m_dtrans_vector.size();
+	ncols = m_spec.m_dtrans_ncols;
+	nstates = n + 1;
+
+	/* Inverse transitions: the states that go to t on column c
+	   are inv[inv_start[c * nstates + t] ...
+	   inv_start[c * nstates + t + 1] - 1]. */
+	inv_start = new int[ncols * nstates + 1];
+	for (i = 0; i < nstates; ++i)
+	  {
+	    for (c = 0; c < ncols; ++c)
+	      {
+		++inv_start[c * nstates + target(i,c) + 1];
+	      }
+	  }
+	for (i = 1; i <= ncols * nstates; ++i)
+	  {
+	    inv_start[i] += inv_start[i - 1];
+	  }
+	inv = new int[ncols * nstates];
+	loc = new int[ncols * nstates];    /* (fill pointers) */
+	System.arraycopy(inv_start, 0, loc, 0, ncols * nstates);
+	for (i = 0; i < nstates; ++i)
+	  {
+	    for (c = 0; c < ncols; ++c)
+	      {
+		inv[loc[c * nstates + target(i,c)]++] = i;
+	      }
+	  }
+
+	/* Initial partition: the states with the same accept,
+	   in the order of the first one, then the dead state. */
+	block = new int[nstates];
+	nblocks = 0;
+	accept_block = new Hashtable<CAccept,Integer>();
+	none = -1;
+	for (i = 0; i < n; ++i)
+	  {
+	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(i);
+	    if (null == dtrans.m_accept)
+	      {
+		if (-1 == none)
+		  {
+		    none = nblocks++;
+		  }
+		block[i] = none;
+	      }
+	    else if (accept_block.containsKey(dtrans.m_accept))
+	      {
+		block[i] = accept_block.get(dtrans.m_accept).intValue();
+	      }
+	    else
+	      {
+		accept_block.put(dtrans.m_accept, new Integer(nblocks));
+		block[i] = nblocks++;
+	      }
+	  }
+	block[n] = nblocks++;
+
+	elems = new int[nstates];
+	loc = new int[nstates];
+	first = new int[nstates];
+	end = new int[nstates];
+	mid = new int[nstates];
+	for (i = 0; i < nstates; ++i)
+	  {
+	    ++end[block[i]];
+	  }
+	for (b = 1; b < nblocks; ++b)
+	  {
+	    end[b] += end[b - 1];
+	  }
+	for (b = 0; b < nblocks; ++b)
+	  {
+	    first[b] = mid[b] = (0 == b) ? 0 : end[b - 1];
+	  }
+	for (i = 0; i < nstates; ++i)
+	  {
+	    elems[mid[block[i]]] = i;
+	    loc[i] = mid[block[i]]++;
+	  }
+	for (b = 0; b < nblocks; ++b)
+	  {
+	    mid[b] = first[b];
+	  }
+
+	/* Every initial block is a splitter. */
+	work = new int[nstates];
+	nwork = 0;
+	for (b = 0; b < nblocks; ++b)
+	  {
+	    work[nwork++] = b;
+	  }
+
+	touched = new int[nstates];
+	splitter = new int[nstates];
+	while (0 < nwork)
+	  {
+	    b = work[--nwork];
+
+	    /* The block may be split while it is used; the states 
+	       it had are still a union of blocks. */
+	    nsplitter = end[b] - first[b];
+	    System.arraycopy(elems, first[b], splitter, 0, nsplitter);
+
+	    for (c = 0; c < ncols; ++c)
+	      {
+		/* Mark the states that go into the splitter on c. */
+		ntouched = 0;
+		for (i = 0; i < nsplitter; ++i)
+		  {
+		    t = c * nstates + splitter[i];
+		    for (j = inv_start[t]; j < inv_start[t + 1]; ++j)
+		      {
+			e = inv[j];
+			nb = block[e];
+			if (loc[e] >= mid[nb])
+			  {
+			    if (mid[nb] == first[nb])
+			      {
+				touched[ntouched++] = nb;
+			      }
+			    /* Swap e with the first unmarked state. */
+			    elems[loc[e]] = elems[mid[nb]];
+			    loc[elems[loc[e]]] = loc[e];
+			    elems[mid[nb]] = e;
+			    loc[e] = mid[nb]++;
 			  }
 		      }
 		  }
+
+		/* Split the blocks with marked and unmarked states. */
+		for (i = 0; i < ntouched; ++i)
+		  {
+		    t = touched[i];
+		    if (mid[t] == end[t])
+		      {
+			mid[t] = first[t];
+			continue;
+		      }
+		    nb = nblocks++;
+		    if (mid[t] - first[t] <= end[t] - mid[t])
+		      {
+			first[nb] = first[t];
+			end[nb] = mid[t];
+			first[t] = mid[t];
+		      }
+		    else
+		      {
+			first[nb] = mid[t];
+			end[nb] = end[t];
+			end[t] = mid[t];
+		      }
+		    mid[t] = first[t];
+		    mid[nb] = first[nb];
+		    for (j = first[nb]; j < end[nb]; ++j)
+		      {
+			block[elems[j]] = nb;
+		      }
+
+		    /* If t is waiting, both halves must be, else the 
+		       smaller one: nb either way. */
+		    work[nwork++] = nb;
+		  }
+	      }
+	  }
+
+	/* Number the groups in the order of their first states. */
+	groups = new Vector<Vector<CDTrans>>();
+	m_ingroup = new int[n];
+	for (i = 0; i < nblocks; ++i)
+	  {
+	    mid[i] = -1;
+	  }
+	for (i = 0; i < n; ++i)
+	  {
+	    b = block[i];
+	    if (-1 == mid[b])
+	      {
+		mid[b] = groups.size();
+		groups.addElement(new Vector<CDTrans>());
 	      }
+	    m_ingroup[i] = mid[b];
+	    dtrans_group = groups.elementAt(mid[b]);
+	    dtrans_group.addElement((CDTrans) m_spec.m_dtrans_vector.elementAt(i));
 	  }
+	m_group = groups;
 
 	System.out.println(m_group.size() + " states after removal of redundant states.");
 
@@ -2957,6 +4361,32 @@ class CMinimize
 	fix_dtrans();
       }
 
+  /***************************************************************
+    Function: target
+    Description: Returns the state that state goes to on a 
+    column, where state n, one past the last, is the dead state 
+    that failures go to.
+    **************************************************************/
+  private int target
+    (
+     int state,
+     int c
+     )
+      {
+	int next;
+
+	if (state == m_spec.m_dtrans_vector.size())
+	  {
+	    return state;
+	  }
+	next = ((CDTrans) m_spec.m_dtrans_vector.elementAt(state)).m_dtrans[c];
+	if (CDTrans.F == next)
+	  {
+	    return m_spec.m_dtrans_vector.size();
+	  }
+	return next;
+      }
+
   /***************************************************************
     Function: init_groups
     Description:
@@ -3035,74 +4465,463 @@ class CMinimize
 		    break;
 		  }
 	      }
-	    
-	    if (false == group_found)
+	    
+	    if (false == group_found)
+	      {
+		dtrans_group = new Vector();
+		dtrans_group.addElement(dtrans);
+		m_ingroup[i] = m_group.size();
+		m_group.addElement(dtrans_group);
+		++group_count;
+	      }
+	  }
+	
+	if (m_spec.m_verbose
+	    && true == CUtility.OLD_DUMP_DEBUG)
+	  {
+	    System.out.println("Initial grouping:");
+	    pgroups();
+	    System.out.println();
+	  }
+      }
+
+  /***************************************************************
+    Function: pset
+    **************************************************************/
+  private void pset
+    (
+     Vector dtrans_group
+     )
+      {
+	int i;
+	int size;
+	CDTrans dtrans;
+
+	size = dtrans_group.size();
+	for (i = 0; i < size; ++i)
+	  {
+	    dtrans = (CDTrans) dtrans_group.elementAt(i);
+	    System.out.print(dtrans.m_label + " ");
+	  }
+      }
+  
+  /***************************************************************
+    Function: pgroups
+    **************************************************************/
+  private void pgroups
+    (
+     )
+      {
+	int i;
+	int dtrans_size;
+	int group_size;
+	
+	group_size = m_group.size();
+	for (i = 0; i < group_size; ++i)
+	  {
+	    System.out.print("\tGroup " + i + " {");
+	    pset((Vector) m_group.elementAt(i));
+	    System.out.println("}");
+	    System.out.println();
+	  }
+	
+	System.out.println();
+	dtrans_size = m_spec.m_dtrans_vector.size();
+	for (i = 0; i < dtrans_size; ++i)
+	  {
+	    System.out.println("\tstate " + i 
+			       + " is in group " 
+			       + m_ingroup[i]);
+	  }
+      }
+}
+
+/***************************************************************
+  Class: CPack
+  Description: Packs the rows of the transition table into one
+  array by row displacement (a comb vector): each row is given
+  a base, so that the entries of rows that are not failures
+  fall in distinct slots of m_next.  m_check holds the base of
+  the row that owns each slot, and 0 if none does (bases start
+  at 1).  The rows are placed densest first, each at the 
+  smallest base where it fits.  m_base is indexed by state, 
+  through m_row_map.
+  **************************************************************/
+class CPack
+{
+  /***************************************************************
+    Member Variables
+    **************************************************************/
+  int m_base[];
+  int m_check[];
+  int m_next[];
+
+  /***************************************************************
+    Function: CPack
+    Description: Constructor; packs the transition table.
+    **************************************************************/
+  CPack
+    (
+     CSpec spec
+     )
+      {
+	int nrows = spec.m_dtrans_vector.size();
+	int ncols = spec.m_dtrans_ncols;
+	int row_base[] = new int[nrows];
+	int order[] = new int[nrows];
+	int count[] = new int[nrows];
+	int start[] = new int[ncols + 2];
+	long mask[];
+	long used[];
+	boolean taken[];
+	int nwords;
+	int first;
+	int free;
+	int row;
+	int col;
+	int base;
+	int size;
+	int i;
+	int k;
+	CDTrans dtrans;
+
+	for (row = 0; row < nrows; ++row)
+	  {
+	    dtrans = (CDTrans) spec.m_dtrans_vector.elementAt(row);
+	    for (col = 0; col < ncols; ++col)
+	      {
+		if (CDTrans.F != dtrans.m_dtrans[col])
+		  {
+		    ++count[row];
+		  }
+	      }
+	    ++start[ncols - count[row] + 1];
+	  }
+
+	/* Sort the rows densest first, keeping the order of rows of
+	   the same density (counting sort). */
+	for (k = 1; k <= ncols; ++k)
+	  {
+	    start[k] += start[k - 1];
+	  }
+	for (row = 0; row < nrows; ++row)
+	  {
+	    order[start[ncols - count[row]]++] = row;
+	  }
+
+	/* Place the rows, each at the lowest base where its entries
+	   fall on free slots.  The used slots are a bit array, and so
+	   is each row (its mask), so a base is tried 64 columns at a
+	   time.  Only the bases that put the first entry of the row on
+	   a free slot are tried, and free slots are found a word at a
+	   time: most slots are used when most rows are dense. */
+	nwords = (ncols + 63) >> 6;
+	mask = new long[nwords];
+	taken = new boolean[ncols + nrows + 1];                       /* bases */
+	used = new long[((taken.length + (nwords << 6)) >> 6) + 2];   /* slots */
+	free = 1;
+	size = 0;
+	for (i = 0; i < nrows; ++i)
+	  {
+	    row = order[i];
+	    dtrans = (CDTrans) spec.m_dtrans_vector.elementAt(row);
+	    first = -1;
+	    for (k = 0; k < nwords; ++k)
+	      {
+		mask[k] = 0;
+	      }
+	    for (col = 0; col < ncols; ++col)
+	      {
+		if (CDTrans.F != dtrans.m_dtrans[col])
+		  {
+		    mask[col >> 6] |= 1L << col;
+		    if (-1 == first)
+		      {
+			first = col;
+		      }
+		  }
+	      }
+	    for (base = (-1 == first) ? 1 : next_free(used, Math.max(free, first + 1)) - first;
+		 ;
+		 base = (-1 == first) ? base + 1 : next_free(used, base + first + 1) - first)
+	      {
+		if (base + ncols >= taken.length)
+		  {
+		    taken = grow(taken, 2 * (base + ncols));
+		    used = grow(used, ((taken.length + (nwords << 6)) >> 6) + 2);
+		  }
+		if (taken[base])
+		  {
+		    continue;
+		  }
+		for (k = 0; k < nwords; ++k)
+		  {
+		    if (0 != (slots(used, base + (k << 6)) & mask[k]))
+		      {
+			break;
+		      }
+		  }
+		if (k == nwords)
+		  {
+		    break;
+		  }
+	      }
+	    taken[base] = true;
+	    row_base[row] = base;
+	    for (col = 0; col < ncols; ++col)
+	      {
+		if (0 != (mask[col >> 6] & (1L << col)))
+		  {
+		    used[(base + col) >> 6] |= 1L << (base + col);
+		  }
+	      }
+	    free = next_free(used, free);
+	    size = Math.max(size, base + ncols);
+	  }
+
+	/* Fill in the arrays. */
+	m_check = new int[size];
+	m_next = new int[size];
+	for (row = 0; row < nrows; ++row)
+	  {
+	    dtrans = (CDTrans) spec.m_dtrans_vector.elementAt(row);
+	    base = row_base[row];
+	    for (col = 0; col < ncols; ++col)
+	      {
+		if (CDTrans.F != dtrans.m_dtrans[col])
+		  {
+		    m_check[base + col] = base;
+		    m_next[base + col] = dtrans.m_dtrans[col];
+		  }
+	      }
+	  }
+	m_base = new int[spec.m_row_map.length];
+	for (i = 0; i < spec.m_row_map.length; ++i)
+	  {
+	    m_base[i] = row_base[spec.m_row_map[i]];
+	  }
+      }
+
+  /***************************************************************
+    Function: slots
+    Description: Returns the 64 bits of a bit array starting at the
+    given one.
+    **************************************************************/
+  private static long slots
+    (
+     long a[],
+     int bit
+     )
+      {
+	int shift = bit & 63;
+
+	if (0 == shift)
+	  {
+	    return a[bit >> 6];
+	  }
+	return (a[bit >> 6] >>> shift) | (a[(bit >> 6) + 1] << (64 - shift));
+      }
+
+  /***************************************************************
+    Function: next_free
+    Description: Returns the first clear bit of a bit array at or
+    after the given one (bits past the end are clear).
+    **************************************************************/
+  private static int next_free
+    (
+     long a[],
+     int bit
+     )
+      {
+	int i = bit >> 6;
+	long word;
+
+	if (i >= a.length)
+	  {
+	    return bit;
+	  }
+	word = ~a[i] & (-1L << bit);
+	while (0 == word)
+	  {
+	    if (++i >= a.length)
+	      {
+		return i << 6;
+	      }
+	    word = ~a[i];
+	  }
+	return (i << 6) + Long.numberOfTrailingZeros(word);
+      }
+
+  /***************************************************************
+    Function: grow
+    Description: Returns a copy of a table with the given size.
+    **************************************************************/
+  private static boolean[] grow
+    (
+     boolean a[],
+     int size
+     )
+      {
+	boolean b[] = new boolean[size];
+	System.arraycopy(a, 0, b, 0, a.length);
+	return b;
+      }
+
+  private static long[] grow
+    (
+     long a[],
+     int size
+     )
+      {
+	long b[] = new long[size];
+	System.arraycopy(a, 0, b, 0, a.length);
+	return b;
+      }
+}
+
+/***************************************************************
+  Class: CLazy
+  Description: Lays out the NFA for %lazy, where the lexer builds
+  the states of the DFA as it needs them (see emit_lazy_table).
+  States are numbered by label, and the rules by the label of
+  their accepting state, which is their order of priority: a set
+  of NFA states accepts the rule of its first accepting state.
+  The accepting actions and anchors in the spec become those of
+  the rules, so yy_acpt and the actions are indexed by rule.
+ **************************************************************/
+class CLazy
+{
+  /***************************************************************
+    Member Variables
+    **************************************************************/
+  int m_edge[];   /* 0 if none (EPSILON or EMPTY), 1 for CCL,
+		     class + 2 for a single character class. */
+  int m_next[];   /* Label + 1 of the next state, or 0. */
+  int m_next2[];  /* Label + 1 of the other EPSILON next state, or 0. */
+  int m_ccl[];    /* Row of the character class of a CCL edge in
+		     m_classes, or 0. */
+  int m_rule[];   /* Rule + 1 of an accepting state, or 0. */
+  int m_classes[]; /* Rows of 1 (member) and 0 for each character
+		      class; the first row is unused. */
+  int m_start[];  /* Labels of the states each lexical state starts
+		     with, one after the other. */
+  int m_start_index[]; /* Where those of each lexical state begin,
+			  and (last) where they end. */
+
+  /***************************************************************
+    Function: CLazy
+    Description: Constructor; lays out the NFA.
+    **************************************************************/
+  CLazy
+    (
+     CSpec spec
+     )
+      {
+	int nstates = spec.m_nfa_states.size();
+	int ncols = spec.m_dtrans_ncols;
+	Hashtable<String,Integer> rows = new Hashtable<String,Integer>();
+	Vector<int[]> classes = new Vector<int[]>();
+	Vector<CAccept> accepts = new Vector<CAccept>();
+	StringBuffer key = new StringBuffer();
+	Integer row;
+	CNfa nfa;
+	int size;
+	int i;
+	int j;
+	int k;
+
+	m_edge = new int[nstates];
+	m_next = new int[nstates];
+	m_next2 = new int[nstates];
+	m_ccl = new int[nstates];
+	m_rule = new int[nstates];
+	spec.m_accept_vector = accepts;
+	classes.addElement(new int[ncols]);
+	for (i = 0; i < nstates; ++i)
+	  {
+	    nfa = (CNfa) spec.m_nfa_states.elementAt(i);
+
+	    if (CUtility.DEBUG)
+	      {
+		CUtility.ASSERT(i == nfa.m_label);
+	      }
+
+	    if (CNfa.EPSILON == nfa.m_edge)
+	      {
+		m_next[i] = (null == nfa.m_next) ? 0 : nfa.m_next.m_label + 1;
+		m_next2[i] = (null == nfa.m_next2) ? 0 : nfa.m_next2.m_label + 1;
+	      }
+	    else if (CNfa.CCL == nfa.m_edge)
+	      {
+		m_edge[i] = 1;
+		m_next[i] = nfa.m_next.m_label + 1;
+
+		/* Share the rows of equal classes. */
+		key.setLength(0);
+		for (j = 0; j < ncols; ++j)
+		  {
+		    key.append(nfa.m_set.contains(j) ? '1' : '0');
+		  }
+		row = rows.get(key.toString());
+		if (null == row)
+		  {
+		    row = new Integer(classes.size());
+		    rows.put(key.toString(),row);
+		    int members[] = new int[ncols];
+		    for (j = 0; j < ncols; ++j)
+		      {
+			members[j] = key.charAt(j) - '0';
+		      }
+		    classes.addElement(members);
+		  }
+		m_ccl[i] = row.intValue();
+	      }
+	    else if (CNfa.EMPTY != nfa.m_edge)
 	      {
-		dtrans_group = new Vector();
-		dtrans_group.addElement(dtrans);
-		m_ingroup[i] = m_group.size();
-		m_group.addElement(dtrans_group);
-		++group_count;
+		m_edge[i] = nfa.m_edge + 2;
+		m_next[i] = nfa.m_next.m_label + 1;
+	      }
+
+	    if (null != nfa.m_accept)
+	      {
+		accepts.addElement(nfa.m_accept);
+		m_rule[i] = accepts.size();
 	      }
 	  }
-	
-	if (m_spec.m_verbose
-	    && true == CUtility.OLD_DUMP_DEBUG)
+
+	spec.m_anchor_array = new int[accepts.size()];
+	for (i = 0; i < nstates; ++i)
 	  {
-	    System.out.println("Initial grouping:");
-	    pgroups();
-	    System.out.println();
+	    if (0 != m_rule[i])
+	      {
+		nfa = (CNfa) spec.m_nfa_states.elementAt(i);
+		spec.m_anchor_array[m_rule[i] - 1] = nfa.m_anchor;
+	      }
 	  }
-      }
-
-  /***************************************************************
-    Function: pset
-    **************************************************************/
-  private void pset
-    (
-     Vector dtrans_group
-     )
-      {
-	int i;
-	int size;
-	CDTrans dtrans;
 
-	size = dtrans_group.size();
-	for (i = 0; i < size; ++i)
+	m_classes = new int[classes.size() * ncols];
+	for (i = 0; i < classes.size(); ++i)
 	  {
-	    dtrans = (CDTrans) dtrans_group.elementAt(i);
-	    System.out.print(dtrans.m_label + " ");
+	    System.arraycopy(classes.elementAt(i),0,m_classes,i * ncols,ncols);
 	  }
-      }
-  
-  /***************************************************************
-    Function: pgroups
-    **************************************************************/
-  private void pgroups
-    (
-     )
-      {
-	int i;
-	int dtrans_size;
-	int group_size;
-	
-	group_size = m_group.size();
-	for (i = 0; i < group_size; ++i)
+
+	size = 0;
+	for (i = 0; i < spec.m_state_rules.length; ++i)
 	  {
-	    System.out.print("\tGroup " + i + " {");
-	    pset((Vector) m_group.elementAt(i));
-	    System.out.println("}");
-	    System.out.println();
+	    size += spec.m_state_rules[i].size();
 	  }
-	
-	System.out.println();
-	dtrans_size = m_spec.m_dtrans_vector.size();
-	for (i = 0; i < dtrans_size; ++i)
+	m_start = new int[size];
+	m_start_index = new int[spec.m_state_rules.length + 1];
+	k = 0;
+	for (i = 0; i < spec.m_state_rules.length; ++i)
 	  {
-	    System.out.println("\tstate " + i 
-			       + " is in group " 
-			       + m_ingroup[i]);
+	    m_start_index[i] = k;
+	    for (j = 0; j < spec.m_state_rules[i].size(); ++j)
+	      {
+		m_start[k++] = ((CNfa) spec.m_state_rules[i].elementAt(j)).m_label;
+	      }
 	  }
+	m_start_index[i] = k;
       }
 }
 
@@ -3118,6 +4937,22 @@ class CNfa2Dfa
   private int m_unmarked_dfa;
   private CLexGen m_lexGen;
 
+  /* The NFA, as parallel arrays indexed by label. */
+  private int m_edge[]; /* Edge type, as in CNfa. */
+  private int m_next[]; /* Label of the next state, or -1. */
+  private int m_next2[]; /* Label of the other next state, or -1. */
+  private CSet m_ccl[]; /* Character class of CCL edges, else null. */
+  private CAccept m_accept[]; /* Accepting action, or null. */
+  private int m_anchor[]; /* Anchor of the accepting action. */
+  private AdaptiveBitSet m_closure[]; /* Epsilon closure of each NFA state,
+				       or null until it is needed. */
+  private int m_closure_accept[]; /* Label of the first accepting state
+				     in each closure, or INT_MAX. */
+  private int m_stack[]; /* Work stack for computing closures. */
+  private Hashtable<AdaptiveBitSet,Integer> m_moves; /* Hashtable taking the set of NFA states
+				reached on a character (before closure)
+				to the Integer label of its DFA state. */
+
   /***************************************************************
     Constants
     **************************************************************/
@@ -3146,6 +4981,7 @@ class CNfa2Dfa
 	m_lexGen = lexGen;
 	m_spec = spec;
 	m_unmarked_dfa = 0;
+	m_moves = new Hashtable<AdaptiveBitSet,Integer>();
       }
 
   /***************************************************************
@@ -3159,6 +4995,16 @@ class CNfa2Dfa
 	m_lexGen = null;
 	m_spec = null;
 	m_unmarked_dfa = 0;
+	m_edge = null;
+	m_next = null;
+	m_next2 = null;
+	m_ccl = null;
+	m_accept = null;
+	m_anchor = null;
+	m_closure = null;
+	m_closure_accept = null;
+	m_stack = null;
+	m_moves = null;
       }
 
   /***************************************************************
@@ -3186,18 +5032,26 @@ class CNfa2Dfa
 	  }
 
 	free_dfa_states();
+
+	/* Drop the NFA arrays and closures. */
+	reset();
       }     
 
    /***************************************************************
     Function: make_dtrans
     Description: Creates uncompressed CDTrans transition table.
+    The moves of a DFA state on all the columns are found in one
+    pass over its NFA states (see move).  The closure of a set of
+    moves is only computed the first time that set is seen: m_moves
+    keeps the DFA state of every set, so columns (of this state or
+    of others) with the same moves get the same state at the cost
+    of a lookup.
     **************************************************************/
   private void make_dtrans
     (
      )
      /* throws java.lang.CloneNotSupportedException*/
       {
-	CDfa next;
 	CDfa dfa;
 	CBunch bunch;
 	int i;
@@ -3207,13 +5061,44 @@ class CNfa2Dfa
 	CNfa nfa;
 	int istate;
 	int nstates;
+	AdaptiveBitSet targets[];
+	Integer known;
 	
-	System.out.print("Working on DFA states.");
+	System.out.println("Working on DFA states.");
 
 	/* Reference passing type and initializations. */
 	bunch = new CBunch();
 	m_unmarked_dfa = 0;
 
+	/* Lay out the NFA in arrays. */
+	size = m_spec.m_nfa_states.size();
+	m_edge = new int[size];
+	m_next = new int[size];
+	m_next2 = new int[size];
+	m_ccl = new CSet[size];
+	m_accept = new CAccept[size];
+	m_anchor = new int[size];
+	for (i = 0; i < size; ++i)
+	  {
+	    nfa = (CNfa) m_spec.m_nfa_states.elementAt(i);
+
+	    if (CUtility.DEBUG)
+	      {
+		CUtility.ASSERT(i == nfa.m_label);
+	      }
+
+	    m_edge[i] = nfa.m_edge;
+	    m_next[i] = (null == nfa.m_next) ? -1 : nfa.m_next.m_label;
+	    m_next2[i] = (null == nfa.m_next2) ? -1 : nfa.m_next2.m_label;
+	    m_ccl[i] = (CNfa.CCL == nfa.m_edge) ? nfa.m_set : null;
+	    m_accept[i] = nfa.m_accept;
+	    m_anchor[i] = nfa.m_anchor;
+	  }
+	m_closure = new AdaptiveBitSet[size];
+	m_closure_accept = new int[size];
+	m_stack = new int[size];
+	targets = new AdaptiveBitSet[m_spec.m_dtrans_ncols];
+
 	/* Allocate mapping array. */
 	nstates = m_spec.m_state_rules.length;
 	m_spec.m_state_dtrans = new int[nstates];
@@ -3232,24 +5117,15 @@ class CNfa2Dfa
 	    */
 		
 	    /* Create start state and initialize fields. */
-	    bunch.m_nfa_set = (Vector) m_spec.m_state_rules[istate].clone();
-	    sortStates(bunch.m_nfa_set);
-	    
-	    bunch.m_nfa_bit = new SparseBitSet();
-	    
-	    /* Initialize bit set. */
-	    size = bunch.m_nfa_set.size();
+	    targets[0] = new AdaptiveBitSet();
+	    size = m_spec.m_state_rules[istate].size();
 	    for (i = 0; size > i; ++i)
 	      {
-		nfa = (CNfa) bunch.m_nfa_set.elementAt(i);
-		bunch.m_nfa_bit.set(nfa.m_label);
+		nfa = (CNfa) m_spec.m_state_rules[istate].elementAt(i);
+		targets[0].set(nfa.m_label);
 	      }
 	    
-	    bunch.m_accept = null;
-	    bunch.m_anchor = CSpec.NONE;
-	    bunch.m_accept_index = CUtility.INT_MAX;
-	    
-	    e_closure(bunch);
+	    e_closure(targets[0],bunch);
 	    add_to_dstates(bunch);
 	    
 	    m_spec.m_state_dtrans[istate] = m_spec.m_dtrans_vector.size();
@@ -3257,9 +5133,6 @@ class CNfa2Dfa
 	    /* Main loop of CDTrans creation. */
 	    while (null != (dfa = get_unmarked()))
 	      {
-		System.out.print(".");
-		System.out.flush();
-		
 		if (CUtility.DEBUG)
 		  {
 		    CUtility.ASSERT(false == dfa.m_mark);
@@ -3273,42 +5146,35 @@ class CNfa2Dfa
 		dtrans.m_accept = dfa.m_accept;
 		dtrans.m_anchor = dfa.m_anchor;
 		
+		/* Find the moves on every character at once. */
+		move(dfa,targets);
+
 		/* Set CDTrans array for each character transition. */
 		for (i = 0; i < m_spec.m_dtrans_ncols; ++i)
 		  {
-		    if (CUtility.DEBUG)
-		      {
-			CUtility.ASSERT(0 <= i);
-			CUtility.ASSERT(m_spec.m_dtrans_ncols > i);
-		      }
-		    
-		    /* Create new dfa set by attempting character transition. */
-		    move(dfa.m_nfa_set,dfa.m_nfa_bit,i,bunch);
-		    if (null != bunch.m_nfa_set)
-		      {
-			e_closure(bunch);
-		      }
-		    
-		    if (CUtility.DEBUG)
-		      {
-			CUtility.ASSERT((null == bunch.m_nfa_set 
-					 && null == bunch.m_nfa_bit)
-					|| (null != bunch.m_nfa_set 
-					    && null != bunch.m_nfa_bit));
-		      }
-		    
 		    /* Create new state or set state to empty. */
-		    if (null == bunch.m_nfa_set)
+		    if (null == targets[i])
 		      {
 			nextstate = CDTrans.F;
 		      }
 		    else 
 		      {
-			nextstate = in_dstates(bunch);
-			
-			if (NOT_IN_DSTATES == nextstate)
+			known = m_moves.get(targets[i]);
+			if (null != known)
+			  {
+			    nextstate = known.intValue();
+			  }
+			else
 			  {
-			    nextstate = add_to_dstates(bunch);
+			    e_closure(targets[i],bunch);
+			    nextstate = in_dstates(bunch);
+			
+			    if (NOT_IN_DSTATES == nextstate)
+			      {
+				nextstate = add_to_dstates(bunch);
+			      }
+
+			    m_moves.put(targets[i],new Integer(nextstate));
 			  }
 		      }
 		    
@@ -3328,8 +5194,6 @@ class CNfa2Dfa
 		m_spec.m_dtrans_vector.addElement(dtrans);
 	      }
 	  }
-
-	System.out.println();
       }
 
   /***************************************************************
@@ -3360,77 +5224,44 @@ class CNfa2Dfa
 
   /***************************************************************
     Function: e_closure
-    Description: Alters and returns input set.
+    Description: Sets the NFA states of the bunch to the closure of
+    the given set of NFA states, the union of their closures, and
+    its accepting action to that of its first accepting state.
     **************************************************************/
   private void e_closure
     (
+     AdaptiveBitSet nfa_bit,
      CBunch bunch
      )
       {
-	Stack nfa_stack;
-	int size;
-	int i;
-	CNfa state;
+	int label;
 
 	/* Debug checks. */
 	if (CUtility.DEBUG)
 	  {
 	    CUtility.ASSERT(null != bunch);
-	    CUtility.ASSERT(null != bunch.m_nfa_set);
-	    CUtility.ASSERT(null != bunch.m_nfa_bit);
+	    CUtility.ASSERT(null != nfa_bit);
 	  }
 
+	bunch.m_nfa_bit = new AdaptiveBitSet();
 	bunch.m_accept = null;
 	bunch.m_anchor = CSpec.NONE;
 	bunch.m_accept_index = CUtility.INT_MAX;
 	
-	/* Create initial stack. */
-	nfa_stack = new Stack();
-	size = bunch.m_nfa_set.size();
-	for (i = 0; i < size; ++i)
+	for (label = nfa_bit.nextSetBit(0); 0 <= label; label = nfa_bit.nextSetBit(label + 1))
 	  {
-	    state = (CNfa) bunch.m_nfa_set.elementAt(i);
-	    
-	    if (CUtility.DEBUG)
+	    if (null == m_closure[label])
 	      {
-		CUtility.ASSERT(bunch.m_nfa_bit.get(state.m_label));
+		closure(label);
 	      }
 
-	    nfa_stack.push(state);
-	  }
-
-	/* Main loop. */
-	while (false == nfa_stack.empty())
-	  {
-	    state = (CNfa) nfa_stack.pop();
+	    bunch.m_nfa_bit.or(m_closure[label]);
 	    
-	    if (CUtility.OLD_DUMP_DEBUG)
-	      {
-		if (null != state.m_accept)
-		  {
-		    System.out.println("Looking at accepting state " + state.m_label
-				       + " with <"
-				       + (new String(state.m_accept.m_action,0,
-						     state.m_accept.m_action_read))
-				       + ">");
-		  }
-	      }
-
-	    if (null != state.m_accept 
-		&& state.m_label < bunch.m_accept_index)
+	    if (m_closure_accept[label] < bunch.m_accept_index)
 	      {
-		bunch.m_accept_index = state.m_label;
-		bunch.m_accept = state.m_accept;
-		bunch.m_anchor = state.m_anchor;
-
-		if (CUtility.OLD_DUMP_DEBUG)
-		  {
-		    System.out.println("Found accepting state " + state.m_label
-				       + " with <"
-				       + (new String(state.m_accept.m_action,0,
-						     state.m_accept.m_action_read))
-				       + ">");
-		  }
+		bunch.m_accept_index = m_closure_accept[label];
+		bunch.m_accept = m_accept[bunch.m_accept_index];
+		bunch.m_anchor = m_anchor[bunch.m_accept_index];
 
 		if (CUtility.DEBUG)
 		  {
@@ -3440,166 +5271,125 @@ class CNfa2Dfa
 				    || 0 != (bunch.m_anchor & CSpec.START));
 		  }
 	      }
+	  }
+
+	return;
+      }
+
+  /***************************************************************
+    Function: closure
+    Description: Computes the epsilon closure of a single NFA
+    state, and its first accepting state.
+    **************************************************************/
+  private void closure
+    (
+     int label
+     )
+      {
+	AdaptiveBitSet set;
+	int accept_index;
+	int top;
+	int state;
+	int next;
+
+	set = new AdaptiveBitSet();
+	accept_index = CUtility.INT_MAX;
+
+	set.set(label);
+	top = 0;
+	m_stack[top++] = label;
+
+	while (0 < top)
+	  {
+	    state = m_stack[--top];
+
+	    if (null != m_accept[state] && state < accept_index)
+	      {
+		accept_index = state;
+	      }
 
-	    if (CNfa.EPSILON == state.m_edge)
+	    if (CNfa.EPSILON == m_edge[state])
 	      {
-		if (null != state.m_next)
+		next = m_next[state];
+		if (-1 != next && false == set.get(next))
 		  {
-		    if (false == bunch.m_nfa_set.contains(state.m_next))
-		      {
-			if (CUtility.DEBUG)
-			  {
-			    CUtility.ASSERT(false == bunch.m_nfa_bit.get(state.m_next.m_label));
-			  }
-			
-			bunch.m_nfa_bit.set(state.m_next.m_label);
-			bunch.m_nfa_set.addElement(state.m_next);
-			nfa_stack.push(state.m_next);
-		      }
+		    set.set(next);
+		    m_stack[top++] = next;
 		  }
 
-		if (null != state.m_next2)
+		next = m_next2[state];
+		if (-1 != next && false == set.get(next))
 		  {
-		    if (false == bunch.m_nfa_set.contains(state.m_next2))
-		      {
-			if (CUtility.DEBUG)
-			  {
-			    CUtility.ASSERT(false == bunch.m_nfa_bit.get(state.m_next2.m_label));
-			  }
-			
-			bunch.m_nfa_bit.set(state.m_next2.m_label);
-			bunch.m_nfa_set.addElement(state.m_next2);
-			nfa_stack.push(state.m_next2);
-		      }
+		    set.set(next);
+		    m_stack[top++] = next;
 		  }
 	      }
 	  }
 
-	if (null != bunch.m_nfa_set)
-	  {
-	    sortStates(bunch.m_nfa_set);
-	  }
-
-	return;
+	m_closure[label] = set;
+	m_closure_accept[label] = accept_index;
       }
 
   /***************************************************************
     Function: move
-    Description: Returns null if resulting NFA set is empty.
+    Description: Sets each element of targets to the set of NFA
+    states reached from the given DFA state on that column, or to
+    null if there is none.
     **************************************************************/
-  void move
+  private void move
     (
-     Vector nfa_set,
-     SparseBitSet nfa_bit,
-     int b,
-     CBunch bunch
+     CDfa dfa,
+     AdaptiveBitSet targets[]
      )
       {
-	int size;
 	int index;
-	CNfa state;
+	int i;
+	int state;
 	
-	bunch.m_nfa_set = null;
-	bunch.m_nfa_bit = null;
+	for (i = 0; i < targets.length; ++i)
+	  {
+	    targets[i] = null;
+	  }
 
-	size = nfa_set.size();
-	for (index = 0; index < size; ++index)
+	for (index = 0; index < dfa.m_nfa_moves.length; ++index)
 	  {
-	    state = (CNfa) nfa_set.elementAt(index);
+	    state = dfa.m_nfa_moves[index];
 	    
-	    if (b == state.m_edge
-		|| (CNfa.CCL == state.m_edge
-		    && true == state.m_set.contains(b)))
+	    if (0 <= m_edge[state])
+	      {
+		add_move(targets,m_edge[state],m_next[state]);
+	      }
+	    else
 	      {
-		if (null == bunch.m_nfa_set)
+		for (i = 0; i < targets.length; ++i)
 		  {
-		    if (CUtility.DEBUG)
+		    if (m_ccl[state].contains(i))
 		      {
-			CUtility.ASSERT(null == bunch.m_nfa_bit);
+			add_move(targets,i,m_next[state]);
 		      }
-		    
-		    bunch.m_nfa_set = new Vector();
-		    /*bunch.m_nfa_bit 
-			= new SparseBitSet(m_spec.m_nfa_states.size());*/
-		    bunch.m_nfa_bit = new SparseBitSet();
 		  }
-
-		bunch.m_nfa_set.addElement(state.m_next);
-		/*System.out.println("Size of bitset: " + bunch.m_nfa_bit.size());
-		System.out.println("Reference index: " + state.m_next.m_label);
-		System.out.flush();*/
-		bunch.m_nfa_bit.set(state.m_next.m_label);
-	      }
-	  }
-	
-	if (null != bunch.m_nfa_set)
-	  {
-	    if (CUtility.DEBUG)
-	      {
-		CUtility.ASSERT(null != bunch.m_nfa_bit);
 	      }
-	    
-	    sortStates(bunch.m_nfa_set);
 	  }
 
 	return;
       }
 
   /***************************************************************
-    Function: sortStates
+    Function: add_move
     **************************************************************/
-  private void sortStates
+  private void add_move
     (
-     Vector nfa_set
+     AdaptiveBitSet targets[],
+     int i,
+     int next
      )
       {
-	CNfa elem;
-	int begin;
-	int size;
-	int index;
-	int value;
-	int smallest_index;
-	int smallest_value;
-	CNfa begin_elem;
-
-	size = nfa_set.size();
-	for (begin = 0; begin < size; ++begin)
+	if (null == targets[i])
 	  {
-	    elem = (CNfa) nfa_set.elementAt(begin);
-	    smallest_value = elem.m_label;
-	    smallest_index = begin;
-
-	    for (index = begin + 1; index < size; ++index)
-	      {
-		elem = (CNfa) nfa_set.elementAt(index);
-		value = elem.m_label;
-
-		if (value < smallest_value)
-		  {
-		    smallest_index = index;
-		    smallest_value = value;
-		  }
-	      }
-
-	    begin_elem = (CNfa) nfa_set.elementAt(begin);
-	    elem = (CNfa) nfa_set.elementAt(smallest_index);
-	    nfa_set.setElementAt(elem,begin);
-	    nfa_set.setElementAt(begin_elem,smallest_index);
+	    targets[i] = new AdaptiveBitSet();
 	  }
 
-	if (CUtility.OLD_DEBUG)
-	  {
-	    System.out.print("NFA vector indices: ");  
-	    
-	    for (index = 0; index < size; ++index)
-	      {
-		elem = (CNfa) nfa_set.elementAt(index);
-		System.out.print(elem.m_label + " ");
-	      }
-	    System.out.println();
-	  }	
-
-	return;
+	targets[i].set(next);
       }
 
   /***************************************************************
@@ -3632,8 +5422,7 @@ class CNfa2Dfa
 		    System.out.print("working on DFA state " 
 				     + m_unmarked_dfa
 				     + " = NFA states: ");
-		    m_lexGen.print_set(dfa.m_nfa_set);
-		    System.out.println();
+		    System.out.println(dfa.m_nfa_bit);
 		  }
 
 		return dfa;
@@ -3661,10 +5450,11 @@ class CNfa2Dfa
      )
       {
 	CDfa dfa;
+	int label;
+	int count;
 	
 	if (CUtility.DEBUG)
 	  {
-	    CUtility.ASSERT(null != bunch.m_nfa_set);
 	    CUtility.ASSERT(null != bunch.m_nfa_bit);
 	    CUtility.ASSERT(null != bunch.m_accept 
 			    || CSpec.NONE == bunch.m_anchor);
@@ -3674,8 +5464,17 @@ class CNfa2Dfa
 	dfa = CAlloc.newCDfa(m_spec);
 	
 	/* Initialize fields, including the mark field. */
-	dfa.m_nfa_set = (Vector) bunch.m_nfa_set.clone();
-	dfa.m_nfa_bit = (SparseBitSet) bunch.m_nfa_bit.clone();
+	count = 0;
+	for (label = bunch.m_nfa_bit.nextSetBit(0); 0 <= label; label = bunch.m_nfa_bit.nextSetBit(label + 1))
+	  {
+	    if (0 <= m_edge[label] || CNfa.CCL == m_edge[label])
+	      {
+		m_stack[count++] = label;
+	      }
+	  }
+	dfa.m_nfa_moves = new int[count];
+	System.arraycopy(m_stack,0,dfa.m_nfa_moves,0,count);
+	dfa.m_nfa_bit = bunch.m_nfa_bit;
 	dfa.m_accept = bunch.m_accept;
 	dfa.m_anchor = bunch.m_anchor;
 	dfa.m_mark = false;
@@ -3686,9 +5485,7 @@ class CNfa2Dfa
 
 	if (CUtility.OLD_DUMP_DEBUG)
 	  {
-	    System.out.print("Registering set : ");
-	    m_lexGen.print_set(dfa.m_nfa_set);
-	    System.out.println();
+	    System.out.println("Registering set : " + dfa.m_nfa_bit);
 	  }
 
 	return dfa.m_label;
@@ -3706,8 +5503,7 @@ class CNfa2Dfa
 	
 	if (CUtility.OLD_DEBUG)
 	  {
-	    System.out.print("Looking for set : ");
-	    m_lexGen.print_set(bunch.m_nfa_set);
+	    System.out.print("Looking for set : " + bunch.m_nfa_bit);
 	  }
 
 	dfa = (CDfa) m_spec.m_dfa_sets.get(bunch.m_nfa_bit);
@@ -3832,10 +5628,18 @@ public class Main
     throws java.io.IOException
       {
 	CLexGen lg;
+	boolean moore = false;
+	int i = 0;
 
-	if (arg.length < 1)
+	if (1 < arg.length && arg[0].equals("-moore"))
+	  {
+	    /* Minimize with the old algorithm, to check Hopcroft's. */
+	    moore = true;
+	    ++i;
+	  }
+	if (arg.length <= i)
 	  {
-	    System.out.println("Usage: JLex.Main <filename>");
+	    System.out.println("Usage: JLex.Main [-moore] <filename>");
 	    return;
 	  }
 
@@ -3844,7 +5648,11 @@ public class Main
 	   This gives more information. */
 	try 
 	  {	
-	    lg = new CLexGen(arg[0]);
+	    lg = new CLexGen(arg[i]);
+	    if (moore)
+	      {
+		lg.set_moore();
+	      }
 	    lg.generate();
 	  }
 	catch (Error e)
@@ -3900,8 +5708,9 @@ class CDfa
   boolean m_mark;
   CAccept m_accept;
   int m_anchor;
-  Vector m_nfa_set;
-  SparseBitSet m_nfa_bit;
+  int m_nfa_moves[]; /* Labels of the NFA states with a character
+			or CCL edge, the ones move looks at. */
+  AdaptiveBitSet m_nfa_bit;
   int m_label;
 
   /***************************************************************
@@ -3918,7 +5727,7 @@ class CDfa
 	m_accept = null;
 	m_anchor = CSpec.NONE;
 
-	m_nfa_set = null;
+	m_nfa_moves = null;
 	m_nfa_bit = null;
 
 	m_label = label;
@@ -4589,7 +6398,7 @@ class CSet
   /********************************************************
     Member Variables
     *******************************************************/
-  private SparseBitSet m_set;
+  private AdaptiveBitSet m_set;
   private boolean m_complement;
 
   /********************************************************
@@ -4599,7 +6408,7 @@ class CSet
     (
      )
     {
-      m_set = new SparseBitSet();
+      m_set = new AdaptiveBitSet();
       m_complement = false;
     }
 
@@ -4669,15 +6478,15 @@ class CSet
      )
       {
 	m_complement = set.m_complement;
-	m_set = (SparseBitSet) set.m_set.clone();
+	m_set = (AdaptiveBitSet) set.m_set.clone();
       } 
 
   /** Map set using character classes [CSA] */
   void map(CSet set, int[] mapping) {
     m_complement = set.m_complement;
     m_set.clearAll();
-    for (Enumeration e=set.m_set.elements(); e.hasMoreElements(); ) {
-      int old_value =((Integer)e.nextElement()).intValue();
+    for (int old_value=set.m_set.nextSetBit(0); old_value>=0;
+	 old_value=set.m_set.nextSetBit(old_value+1)) {
       if (old_value<mapping.length) // skip unmapped characters
 	m_set.set(mapping[old_value]);
     }
@@ -4713,7 +6522,7 @@ class CNfa
 
   int m_label;
 
-  SparseBitSet m_states;
+  AdaptiveBitSet m_states;
 
   /********************************************************
     Constants
@@ -4780,7 +6589,7 @@ class CNfa
 
 	if (null != nfa.m_states)
 	  {
-	    m_states = (SparseBitSet) nfa.m_states.clone();
+	    m_states = (AdaptiveBitSet) nfa.m_states.clone();
 	  }
 	else
 	  {
@@ -4914,6 +6723,17 @@ class CLexGen
 	m_init_flag = true;
       }
 
+  /***************************************************************
+    Function: set_moore
+    Description: Selects the old minimization algorithm.
+    **************************************************************/
+  void set_moore
+    (
+     )
+      {
+	m_spec.m_moore = true;
+      }
+
   /***************************************************************
     Function: generate
     Description: 
@@ -5217,6 +7037,18 @@ class CLexGen
     'a', 't', 'e',
     '\0'
     };
+
+  private char m_switch_dir[] = { 
+    '%', 's', 'w', 
+    'i', 't', 'c',
+    'h', '\0'
+    };
+
+  private char m_stats_dir[] = { 
+    '%', 's', 't', 
+    'a', 't', 's',
+    '\0'
+    };
   
   private char m_char_dir[] = { 
     '%', 'c', 'h',
@@ -5230,6 +7062,12 @@ class CLexGen
     '\0'
     };
 
+  private char m_lazy_dir[] = { 
+    '%', 'l', 'a',
+    'z', 'y',
+    '\0'
+    };
+
   private char m_cup_dir[] = { 
     '%', 'c', 'u',
     'p', 
@@ -5409,6 +7247,12 @@ class CLexGen
     'b', 'l', 'i', 
     'c', '\0'
     };
+
+  private char m_bytes_dir[] = { 
+    '%', 'b', 'y',
+    't', 'e', 's',
+    '\0'
+    };
   
   /***************************************************************
     Function: userDeclare
@@ -5497,6 +7341,27 @@ class CLexGen
 					 m_input.m_line_number);
 		      break;
 
+		    case 'b':
+		      if (0 == CUtility.charncmp(m_input.m_line,
+						 0,
+						 m_bytes_dir,
+						 0,
+						 m_bytes_dir.length - 1))
+			{
+			  /* Scan UTF-8 bytes instead of chars.  A malformed
+			     sequence, or a character outside the 16-bit 
+			     range, is one 0xFFFD, both to the DFA and in 
+			     yytext. */
+			  m_input.m_line_index = m_bytes_dir.length;
+			  m_spec.m_bytes = true;
+			  break;
+			}
+
+		      /* Bad directive. */
+		      CError.parse_error(CError.E_DIRECT,
+					 m_input.m_line_number);
+		      break;
+
 		    case 'c':
 		      if (0 == CUtility.charncmp(m_input.m_line,
 						 0,
@@ -5705,6 +7570,17 @@ class CLexGen
 			  m_spec.m_count_lines = true;
 			  break;
 			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_lazy_dir,
+						      0,
+						      m_lazy_dir.length - 1))
+			{
+			  /* Build the DFA in the lexer, as it runs. */
+			  m_input.m_line_index = m_lazy_dir.length;
+			  m_spec.m_lazy = true;
+			  break;
+			}
 
 		      /* Bad directive. */
 		      CError.parse_error(CError.E_DIRECT,
@@ -5754,9 +7630,31 @@ class CLexGen
 						 0,
 						 m_state_dir.length - 1))
 			{
-			  /* Recognize state list. */
-			  m_input.m_line_index = m_state_dir.length;
-			  saveStates();
+			  /* Recognize state list. */
+			  m_input.m_line_index = m_state_dir.length;
+			  saveStates();
+			  break;
+			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_switch_dir,
+						      0,
+						      m_switch_dir.length - 1))
+			{
+			  /* Code the transitions instead of tabling them. */
+			  m_input.m_line_index = m_switch_dir.length;
+			  m_spec.m_switch = true;
+			  break;
+			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_stats_dir,
+						      0,
+						      m_stats_dir.length - 1))
+			{
+			  /* Count what the lexer does (see emit_stats). */
+			  m_input.m_line_index = m_stats_dir.length;
+			  m_spec.m_stats = true;
 			  break;
 			}
 
@@ -5898,6 +7796,12 @@ class CLexGen
 	    CUtility.ASSERT(END_OF_INPUT == m_spec.m_current_token);
 	  }
 
+	if (m_spec.m_lazy)
+	  {
+	    /* The NFA is emitted as it is (see CLazy). */
+	    return;
+	  }
+
 	if (m_spec.m_verbose)
 	  {
 	    System.out.println("Creating DFA transition table.");
@@ -6108,15 +8012,15 @@ class CLexGen
     Special Notes: This function treats commas as optional
     and permits states to be spread over multiple lines.
     **************************************************************/
-  private SparseBitSet all_states = null;
-  SparseBitSet getStates
+  private AdaptiveBitSet all_states = null;
+  AdaptiveBitSet getStates
     (
      )
       throws java.io.IOException
       {
 	int start_state;
 	int count_state;
-	SparseBitSet states;
+	AdaptiveBitSet states;
 	String name;
 	Integer index;
 	int i;
@@ -6154,7 +8058,7 @@ class CLexGen
 	  {
 	    ++m_input.m_line_index;
 	   
-	    states = new SparseBitSet();
+	    states = new AdaptiveBitSet();
 
 	    /* Parse states. */
 	    while (true)
@@ -6239,7 +8143,7 @@ class CLexGen
 	
 	if (null == all_states)
 	  {
-	    all_states = new SparseBitSet();
+	    all_states = new AdaptiveBitSet();
 
 	    size = m_spec.m_states.size();
 	    for (i = 0; i < size; ++i)
@@ -6790,6 +8694,7 @@ class CLexGen
 	boolean inslashcomment;
 	boolean escaped;
 	boolean slashed;
+	int line_number;
 
 	action = new char[BUFFER_SIZE];
 	action_index = 0;
@@ -6813,6 +8718,9 @@ class CLexGen
 	      }
 	  }
 	
+	/* The rule is on the line its action begins. */
+	line_number = m_input.m_line_number;
+
 	/* Look for beginning of action. */
 	while (CUtility.isspace(m_input.m_line[m_input.m_line_index]))
 	  {
@@ -6915,7 +8823,7 @@ class CLexGen
 	      }
 	  }
 	    
-	accept = new CAccept(action,action_index,m_input.m_line_number);
+	accept = new CAccept(action,action_index,line_number);
 
 	if (CUtility.DEBUG)
 	  {
@@ -7814,6 +9722,519 @@ final class SparseBitSet implements Cloneable {
     }
 }
 
+/*
+ * AdaptiveBitSet
+ *
+ * The bit set used by the generator.  It keeps the sorted blocks of
+ * SparseBitSet for sets that are sparse over a large range (unicode
+ * character sets), but most sets (of NFA states, of character classes,
+ * of lexical states) are small or dense, and for those a plain array of
+ * words is faster.
+ */
+
+/**
+ * A set of bits. The set automatically grows as more bits are
+ * needed.  It is kept in one of two forms: dense, an array of words
+ * indexed by offset, or sparse, an array of blocks sorted by offset as
+ * in SparseBitSet.  A set is dense while its words in use cover at most
+ * DENSE_WORDS words, or at least one word in DENSITY of the range up to
+ * its last word, and sparse otherwise.  get and set are constant time on
+ * dense sets, and the binary operations on two dense sets are
+ * word-parallel loops.  The hash code is cached until the set changes.
+ */
+final class AdaptiveBitSet implements Cloneable {
+    /** Sorted array of bit-block offsets; null if the set is dense. */
+    private int offs[];
+    /** Array of bit-blocks; indexed by offset if the set is dense. */
+    private long bits[];
+    /** Number of blocks in use (if dense, words beyond are zero). */
+    private int size;
+    /** Cached hash code, if hashed. */
+    private int hash;
+    private boolean hashed;
+    /** log base 2 of BITS, for the identity: x/BITS == x >> LG_BITS */
+    static final private int LG_BITS = 6;
+    /** Number of bits in a block. */
+    static final private int BITS = 1<<LG_BITS;
+    /** BITS-1, using the identity: x % BITS == x & (BITS-1) */
+    static final private int BITS_M1 = BITS-1;
+    /** Sets that fit in this many words are always dense. */
+    static final private int DENSE_WORDS = 16;
+    /** Sets with one word in use in DENSITY (or more) are dense. */
+    static final private int DENSITY = 4;
+    /** Operations of binop. */
+    static final private int AND = 0;
+    static final private int OR = 1;
+    static final private int XOR = 2;
+
+    /**
+     * Creates an empty set.
+     */
+    public AdaptiveBitSet() {
+	bits = new long[4];
+	offs = null;
+	size = 0;
+    }
+
+    private static boolean fits_dense(int nwords, int used) {
+	return nwords <= DENSE_WORDS || nwords <= used * DENSITY;
+    }
+    /** Offset of block idx. */
+    private int off(int idx) {
+	return (null == offs) ? idx : offs[idx];
+    }
+    /** Number of nonzero words (blocks). */
+    private int used() {
+	int n = 0;
+	for (int i=0; i<size; i++)
+	    if (bits[i]!=0) n++;
+	return n;
+    }
+    /** Makes a dense set hold nwords words. */
+    private void grow(int nwords) {
+	if (nwords > bits.length) {
+	    long[] nbits = new long[Math.max(nwords, bits.length*2)];
+	    System.arraycopy(bits, 0, nbits, 0, size);
+	    bits = nbits;
+	}
+	size = nwords;
+    }
+    private void to_dense() {
+	int nwords = (size==0) ? 0 : offs[size-1]+1;
+	long[] nbits = new long[Math.max(nwords, 4)];
+	for (int i=0; i<size; i++)
+	    nbits[offs[i]] = bits[i];
+	bits = nbits;
+	offs = null;
+	size = nwords;
+    }
+    private void to_sparse() {
+	int n = Math.max(used(), 4);
+	long[] nbits = new long[n];
+	int [] noffs = new int [n];
+	int nsize = 0;
+	for (int i=0; i<size; i++)
+	    if (bits[i]!=0) {
+		nbits[nsize] = bits[i];
+		noffs[nsize] = i;
+		nsize++;
+	    }
+	bits = nbits;
+	offs = noffs;
+	size = nsize;
+    }
+    private int bsearch(int bnum) {
+	int l=0, r=size; // search interval is [l, r)
+	while (l<r) {
+	    int p = (l+r)/2;
+	    if (bnum<offs[p]) r=p;
+	    else if (bnum>offs[p]) l=p+1;
+	    else return p;
+	}
+	return l; // index at which the bnum *should* be, if it's not.
+    }
+    private void insert_block(int idx, int bnum) {
+	if (size==bits.length) { // resize
+	    long[] nbits = new long[size*3];
+	    int [] noffs = new int [size*3];
+	    System.arraycopy(bits, 0, nbits, 0, size);
+	    System.arraycopy(offs, 0, noffs, 0, size);
+	    bits = nbits;
+	    offs = noffs;
+	}
+	System.arraycopy(bits, idx, bits, idx+1, size-idx);
+	System.arraycopy(offs, idx, offs, idx+1, size-idx);
+	offs[idx]=bnum;
+	bits[idx]=0;
+	size++;
+    }
+
+    /**
+     * Sets a bit.
+     * @param bit the bit to be set
+     */
+    public void set(int bit) {
+	int bnum = bit >> LG_BITS;
+	long mask = 1L << (bit & BITS_M1);
+	hashed = false;
+	if (null == offs) {
+	    if (bnum < size) {
+		bits[bnum] |= mask;
+		return;
+	    }
+	    if (fits_dense(bnum+1, used()+1)) {
+		grow(bnum+1);
+		bits[bnum] |= mask;
+		return;
+	    }
+	    to_sparse();
+	}
+	int idx = bsearch(bnum);
+	if (idx >= size || offs[idx]!=bnum) {
+	    insert_block(idx, bnum);
+	    bits[idx] = mask;
+	    if (fits_dense(offs[size-1]+1, size))
+		to_dense();
+	    return;
+	}
+	bits[idx] |= mask;
+    }
+
+    /**
+     * Clears a bit.
+     * @param bit the bit to be cleared
+     */
+    public void clear(int bit) {
+	int bnum = bit >> LG_BITS;
+	hashed = false;
+	int idx = (null == offs) ? bnum : bsearch(bnum);
+	if (idx < size && off(idx)==bnum)
+	    bits[idx] &= ~(1L << (bit & BITS_M1));
+    }
+
+    /**
+     * Clears all bits.
+     */
+    public void clearAll() {
+	hashed = false;
+	if (null == offs)
+	    java.util.Arrays.fill(bits, 0, size, 0);
+	else {
+	    bits = new long[4];
+	    offs = null;
+	}
+	size = 0;
+    }
+
+    /**
+     * Gets a bit.
+     * @param bit the bit to be gotten
+     */
+    public boolean get(int bit) {
+	int bnum = bit >> LG_BITS;
+	int idx = (null == offs) ? bnum : bsearch(bnum);
+	if (idx >= size || off(idx)!=bnum)
+	    return false;
+	return 0 != ( bits[idx] & (1L << (bit & BITS_M1) ) );
+    }
+
+    /**
+     * Returns the first set bit at or after from, or -1 if there is
+     * none.
+     * @param from the bit to start from
+     */
+    public int nextSetBit(int from) {
+	int bnum = from >> LG_BITS;
+	int idx = (null == offs) ? bnum : bsearch(bnum);
+	if (idx >= size)
+	    return -1;
+	long word = bits[idx];
+	if (off(idx)==bnum)
+	    word &= -1L << (from & BITS_M1);
+	while (0 == word) {
+	    if (++idx >= size)
+		return -1;
+	    word = bits[idx];
+	}
+	return (off(idx) << LG_BITS) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Returns true if no bit is set.
+     */
+    public boolean isEmpty() {
+	for (int i=0; i<size; i++)
+	    if (bits[i]!=0) return false;
+	return true;
+    }
+
+    /**
+     * Logically ANDs this bit set with the specified set of bits.
+     * @param set the bit set to be ANDed with
+     */
+    public void and(AdaptiveBitSet set) {
+	if (null == offs && null == set.offs) {
+	    hashed = false;
+	    int n = Math.min(size, set.size);
+	    for (int i=0; i<n; i++)
+		bits[i] &= set.bits[i];
+	    java.util.Arrays.fill(bits, n, size, 0);
+	    size = n;
+	    return;
+	}
+	binop(set, AND);
+    }
+
+    /**
+     * Logically ORs this bit set with the specified set of bits.
+     * @param set the bit set to be ORed with
+     */
+    public void or(AdaptiveBitSet set) {
+	if (null == offs && null == set.offs) {
+	    hashed = false;
+	    if (set.size > size)
+		grow(set.size);
+	    for (int i=0; i<set.size; i++)
+		bits[i] |= set.bits[i];
+	    return;
+	}
+	binop(set, OR);
+    }
+
+    /**
+     * Logically XORs this bit set with the specified set of bits.
+     * @param set the bit set to be XORed with
+     */
+    public void xor(AdaptiveBitSet set) {
+	if (null == offs && null == set.offs) {
+	    hashed = false;
+	    if (set.size > size)
+		grow(set.size);
+	    for (int i=0; i<set.size; i++)
+		bits[i] ^= set.bits[i];
+	    return;
+	}
+	binop(set, XOR);
+    }
+
+    /** Merges the blocks of the two sets, for sets of either form. */
+    private void binop(AdaptiveBitSet b, int op) {
+	long[] nbits = new long[Math.max(size + b.size, 4)];
+	int [] noffs = new int [Math.max(size + b.size, 4)];
+	int nsize = 0;
+	for (int i=0, j=0; i<size || j<b.size; ) {
+	    int ao = (i<size) ? off(i) : Integer.MAX_VALUE;
+	    int bo = (j<b.size) ? b.off(j) : Integer.MAX_VALUE;
+	    int no = Math.min(ao, bo);
+	    long x = (ao==no) ? bits[i++] : 0;
+	    long y = (bo==no) ? b.bits[j++] : 0;
+	    long nb = (AND==op) ? (x & y) : (OR==op) ? (x | y) : (x ^ y);
+	    if (nb!=0) {
+		nbits[nsize] = nb;
+		noffs[nsize] = no;
+		nsize++;
+	    }
+	}
+	bits = nbits;
+	offs = noffs;
+	size = nsize;
+	hashed = false;
+	if (size==0 || fits_dense(offs[size-1]+1, size))
+	    to_dense();
+    }
+
+    /**
+     * Gets the hashcode.
+     */
+    public int hashCode() {
+	if (!hashed) {
+	    long h = 1234;
+	    for (int i=0; i<size; i++)
+		if (bits[i]!=0)
+		    h = h * 31 + (bits[i] ^ ((long) off(i) << 32));
+	    hash = (int)((h >> 32) ^ h);
+	    hashed = true;
+	}
+	return hash;
+    }
+
+    /**
+     * Compares this object against the specified object.
+     * @param obj the object to commpare with
+     * @return true if the objects are the same; false otherwise.
+     */
+    public boolean equals(Object obj) {
+	if (!(obj instanceof AdaptiveBitSet))
+	    return false;
+	AdaptiveBitSet b = (AdaptiveBitSet) obj;
+	if (hashed && b.hashed && hash!=b.hash)
+	    return false;
+	for (int i=0, j=0; i<size || j<b.size; ) {
+	    int ao = (i<size) ? off(i) : Integer.MAX_VALUE;
+	    int bo = (j<b.size) ? b.off(j) : Integer.MAX_VALUE;
+	    int no = Math.min(ao, bo);
+	    long x = (ao==no) ? bits[i++] : 0;
+	    long y = (bo==no) ? b.bits[j++] : 0;
+	    if (x!=y) return false;
+	}
+	return true;
+    }
+
+    /**
+     * Clones the AdaptiveBitSet.
+     */
+    public Object clone() {
+	try { 
+	    AdaptiveBitSet set = (AdaptiveBitSet)super.clone();
+	    set.bits = bits.clone();
+	    if (null != offs)
+		set.offs = offs.clone();
+	    return set;
+	} catch (CloneNotSupportedException e) {
+	    // this shouldn't happen, since we are Cloneable
+	    throw new InternalError();
+	}
+    }
+
+    /**
+     * Converts the AdaptiveBitSet to a String.
+     */
+    public String toString() {
+	StringBuffer sb = new StringBuffer();
+	sb.append('{');
+	for (int i=nextSetBit(0); i>=0; i=nextSetBit(i+1)) {
+	    if (sb.length() > 1) sb.append(", ");
+	    sb.append(i);
+	}
+	sb.append('}');
+	return sb.toString();
+    }
+
+    /**
+     * Self-test, then a comparison of the time taken by this class and
+     * by SparseBitSet for the kinds of sets the generator uses.
+     */
+    public static void main(String[] args) {
+	final int ITER = 500;
+	final int RANGE= 65536;
+	AdaptiveBitSet a = new AdaptiveBitSet();
+	CUtility.ASSERT(!a.get(0) && !a.get(1));
+	CUtility.ASSERT(!a.get(123329));
+	a.set(0); CUtility.ASSERT(a.get(0) && !a.get(1));
+	a.set(1); CUtility.ASSERT(a.get(0) && a.get(1));
+	a.clearAll();
+	CUtility.ASSERT(!a.get(0) && !a.get(1));
+	java.util.Random r = new java.util.Random();
+	java.util.Vector<Integer> v = new java.util.Vector<Integer>();
+	for (int n=0; n<ITER; n++) {
+	    int rr = ((r.nextInt()>>>1) % RANGE) << 1;
+	    a.set(rr); v.addElement(new Integer(rr));
+	    // check that all the numbers are there.
+	    CUtility.ASSERT(a.get(rr) && !a.get(rr+1) && !a.get(rr-1));
+	    for (int i=0; i<v.size(); i++)
+		CUtility.ASSERT(a.get(v.elementAt(i).intValue()));
+	}
+	// check that iteration sees the numbers in order.
+	int count = 0;
+	for (int i=a.nextSetBit(0), last=-1; i>=0; last=i, i=a.nextSetBit(i+1)) {
+	    CUtility.ASSERT(i>last && v.contains(new Integer(i)));
+	    count++;
+	}
+	AdaptiveBitSet b = (AdaptiveBitSet) a.clone();
+	CUtility.ASSERT(a.equals(b) && b.equals(a));
+	CUtility.ASSERT(a.hashCode()==b.hashCode());
+	for (int n=0; n<ITER/2; n++) {
+	    int rr = (r.nextInt()>>>1) % v.size();
+	    int m = v.elementAt(rr).intValue();
+	    b.clear(m); v.removeElementAt(rr);
+	    // check that numbers are removed properly.
+	    CUtility.ASSERT(!b.get(m));
+	}
+	CUtility.ASSERT(!a.equals(b));
+	AdaptiveBitSet c = (AdaptiveBitSet) a.clone();
+	AdaptiveBitSet d = (AdaptiveBitSet) a.clone();
+	c.and(a);
+	CUtility.ASSERT(c.equals(a) && a.equals(c));
+	c.xor(a);
+	CUtility.ASSERT(!c.equals(a) && c.isEmpty());
+	d.or(b);
+	CUtility.ASSERT(d.equals(a) && !b.equals(d));
+	d.and(b);
+	CUtility.ASSERT(!d.equals(a) && b.equals(d));
+	d.xor(a);
+	CUtility.ASSERT(!d.equals(a) && !b.equals(d));
+	c.or(d); c.or(b);
+	CUtility.ASSERT(c.equals(a) && a.equals(c));
+	c = (AdaptiveBitSet) d.clone();
+	c.and(b);
+	CUtility.ASSERT(c.isEmpty());
+	// the same set built densely and sparsely.
+	c = new AdaptiveBitSet();
+	d = new AdaptiveBitSet();
+	d.set(RANGE);
+	for (int i=0; i<DENSE_WORDS*BITS; i+=3) {
+	    c.set(i); d.set(i);
+	}
+	d.clear(RANGE);
+	CUtility.ASSERT(null == c.offs && null != d.offs);
+	CUtility.ASSERT(c.equals(d) && d.equals(c) && c.hashCode()==d.hashCode());
+	System.out.println("Success.");
+
+	System.out.println("NFA state sets (dense): SparseBitSet "
+			   + bench_sparse(r, 2000, 40) + " ms, AdaptiveBitSet "
+			   + bench_adaptive(r, 2000, 40) + " ms.");
+	System.out.println("Character sets (sparse): SparseBitSet "
+			   + bench_sparse(r, RANGE, 40) + " ms, AdaptiveBitSet "
+			   + bench_adaptive(r, RANGE, 40) + " ms.");
+    }
+
+    /* The benchmarks do what CNfa2Dfa does with its sets: build them,
+       union them, look them up in a Hashtable and iterate over them.
+       They report the best time of a few runs. */
+    private static final int SETS = 2000;
+    private static final int RUNS = 5;
+
+    private static long bench_sparse(java.util.Random r, int range, int n) {
+	long best = Long.MAX_VALUE;
+	long seed = r.nextLong();
+	for (int run=0; run<RUNS; run++) {
+	    java.util.Random rr = new java.util.Random(seed);
+	    long start = System.nanoTime();
+	    java.util.Hashtable<SparseBitSet,SparseBitSet> h =
+		new java.util.Hashtable<SparseBitSet,SparseBitSet>();
+	    SparseBitSet sets[] = new SparseBitSet[SETS];
+	    long sum = 0;
+	    for (int i=0; i<SETS; i++) {
+		sets[i] = new SparseBitSet();
+		for (int k=0; k<n; k++)
+		    sets[i].set(rr.nextInt(range));
+		if (i > 0 && 0 == i % 3)
+		    sets[i].or(sets[i-1]);
+		h.put(sets[i], sets[i]);
+	    }
+	    for (int i=0; i<SETS; i++) {
+		SparseBitSet s = (SparseBitSet) sets[i].clone();
+		CUtility.ASSERT(h.get(s) != null);
+		for (Enumeration<?> e=s.elements(); e.hasMoreElements(); )
+		    sum += ((Integer)e.nextElement()).intValue();
+	    }
+	    best = Math.min(best, System.nanoTime() - start);
+	    CUtility.ASSERT(sum >= 0);
+	}
+	return best / 1000000;
+    }
+
+    private static long bench_adaptive(java.util.Random r, int range, int n) {
+	long best = Long.MAX_VALUE;
+	long seed = r.nextLong();
+	for (int run=0; run<RUNS; run++) {
+	    java.util.Random rr = new java.util.Random(seed);
+	    long start = System.nanoTime();
+	    java.util.Hashtable<AdaptiveBitSet,AdaptiveBitSet> h =
+		new java.util.Hashtable<AdaptiveBitSet,AdaptiveBitSet>();
+	    AdaptiveBitSet sets[] = new AdaptiveBitSet[SETS];
+	    long sum = 0;
+	    for (int i=0; i<SETS; i++) {
+		sets[i] = new AdaptiveBitSet();
+		for (int k=0; k<n; k++)
+		    sets[i].set(rr.nextInt(range));
+		if (i > 0 && 0 == i % 3)
+		    sets[i].or(sets[i-1]);
+		h.put(sets[i], sets[i]);
+	    }
+	    for (int i=0; i<SETS; i++) {
+		AdaptiveBitSet s = (AdaptiveBitSet) sets[i].clone();
+		CUtility.ASSERT(h.get(s) != null);
+		for (int b=s.nextSetBit(0); b>=0; b=s.nextSetBit(b+1))
+		    sum += b;
+	    }
+	    best = Math.min(best, System.nanoTime() - start);
+	    CUtility.ASSERT(sum >= 0);
+	}
+	return best / 1000000;
+    }
+}
+
 /************************************************************************
   JLEX COPYRIGHT NOTICE, LICENSE AND DISCLAIMER.
   
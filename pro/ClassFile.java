@@ -0,0 +1,510 @@
+import java.io.*;
+import java.util.*;
+
+// **********************************************************************
+// The ClassFile class is a small writer for Java class files, used by the
+// JVM backend (see JvmCodegen and the jvmGen methods in ast.java).
+//
+// It only supports what the backend needs: a constant pool with the
+// usual entry kinds, static fields, and methods with a Code attribute.
+// Class files are written with major version 49, so no StackMapTable
+// attribute is needed and the JVM verifies the code by type inference.
+//
+// The code of a method is built with a Bytecode object, which keeps
+// track of the operand stack depth (for max_stack) and patches the
+// offsets of forward branches once their Label has been placed.
+// **********************************************************************
+
+public class ClassFile {
+    // access flags
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_SUPER  = 0x0020;
+
+    // opcodes used by the backend
+    public static final int ICONST_0 = 0x03;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC = 0x12;
+    public static final int LDC_W = 0x13;
+    public static final int ILOAD = 0x15;
+    public static final int ISTORE = 0x36;
+    public static final int POP = 0x57;
+    public static final int DUP = 0x59;
+    public static final int IADD = 0x60;
+    public static final int ISUB = 0x64;
+    public static final int IMUL = 0x68;
+    public static final int IDIV = 0x6c;
+    public static final int INEG = 0x74;
+    public static final int IXOR = 0x82;
+    public static final int IINC = 0x84;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IF_ICMPEQ = 0x9f;
+    public static final int IF_ICMPNE = 0xa0;
+    public static final int IF_ICMPLT = 0xa1;
+    public static final int IF_ICMPGE = 0xa2;
+    public static final int IF_ICMPGT = 0xa3;
+    public static final int IF_ICMPLE = 0xa4;
+    public static final int GOTO = 0xa7;
+    public static final int IRETURN = 0xac;
+    public static final int RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2;
+    public static final int PUTSTATIC = 0xb3;
+    public static final int INVOKESTATIC = 0xb8;
+
+    // constant pool tags
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Integer = 3;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_String = 8;
+    private static final int CONSTANT_Fieldref = 9;
+    private static final int CONSTANT_Methodref = 10;
+    private static final int CONSTANT_NameAndType = 12;
+
+    private String myName;
+    private int myThisClass;
+    private int mySuperClass;
+
+    // constant pool: serialized entries and index of each distinct entry
+    private ByteArrayOutputStream myPoolBytes = new ByteArrayOutputStream();
+    private DataOutputStream myPool = new DataOutputStream(myPoolBytes);
+    private Map<String,Integer> myPoolIndex = new HashMap<String,Integer>();
+    private int myPoolCount = 1;
+
+    private ByteArrayOutputStream myFieldBytes = new ByteArrayOutputStream();
+    private DataOutputStream myFields = new DataOutputStream(myFieldBytes);
+    private int myFieldCount = 0;
+
+    private List<Bytecode> myMethods = new ArrayList<Bytecode>();
+
+    public ClassFile(String name, String superName) {
+        myName = name;
+        myThisClass = classRef(name);
+        mySuperClass = classRef(superName);
+    }
+
+    public String name() {
+        return myName;
+    }
+
+    // **********************************************************************
+    // utf8Length
+    //    return the length in bytes of the modified UTF-8 form of s, in
+    //    which a string constant is kept; it can be at most 65535
+    // **********************************************************************
+    public static int utf8Length(String s) {
+        int len = 0;
+        for (int k = 0; k < s.length(); k++) {
+            char ch = s.charAt(k);
+            len += (ch >= 1 && ch <= 0x7f) ? 1 : (ch <= 0x7ff) ? 2 : 3;
+        }
+        return len;
+    }
+
+    // **********************************************************************
+    // constant pool entries
+    //    each method returns the index of the entry, adding it first if
+    //    an equal entry is not in the pool yet
+    // **********************************************************************
+    public int utf8(String s) {
+        Integer index = myPoolIndex.get("U" + s);
+        if (index != null) {
+            return index;
+        }
+        try {
+            myPool.writeByte(CONSTANT_Utf8);
+            myPool.writeUTF(s);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return newEntry("U" + s);
+    }
+
+    public int intConst(int val) {
+        Integer index = myPoolIndex.get("I" + val);
+        if (index != null) {
+            return index;
+        }
+        write(CONSTANT_Integer, val >>> 16, val & 0xffff);
+        return newEntry("I" + val);
+    }
+
+    public int classRef(String name) {
+        Integer index = myPoolIndex.get("C" + name);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = utf8(name);
+        write(CONSTANT_Class, nameIndex);
+        return newEntry("C" + name);
+    }
+
+    public int string(String s) {
+        Integer index = myPoolIndex.get("S" + s);
+        if (index != null) {
+            return index;
+        }
+        int utfIndex = utf8(s);
+        write(CONSTANT_String, utfIndex);
+        return newEntry("S" + s);
+    }
+
+    public int fieldRef(String owner, String name, String desc) {
+        return memberRef(CONSTANT_Fieldref, owner, name, desc);
+    }
+
+    public int methodRef(String owner, String name, String desc) {
+        return memberRef(CONSTANT_Methodref, owner, name, desc);
+    }
+
+    private int memberRef(int tag, String owner, String name, String desc) {
+        String key = tag + owner + "." + name + ":" + desc;
+        Integer index = myPoolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        int classIndex = classRef(owner);
+        int ntIndex = nameAndType(name, desc);
+        write(tag, classIndex, ntIndex);
+        return newEntry(key);
+    }
+
+    private int nameAndType(String name, String desc) {
+        String key = "N" + name + ":" + desc;
+        Integer index = myPoolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = utf8(name);
+        int descIndex = utf8(desc);
+        write(CONSTANT_NameAndType, nameIndex, descIndex);
+        return newEntry(key);
+    }
+
+    private void write(int tag, int u2a) {
+        try {
+            myPool.writeByte(tag);
+            myPool.writeShort(u2a);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void write(int tag, int u2a, int u2b) {
+        write(tag, u2a);
+        try {
+            myPool.writeShort(u2b);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int newEntry(String key) {
+        if (myPoolCount == 0xffff) {
+            throw new IllegalStateException("constant pool overflow");
+        }
+        myPoolIndex.put(key, myPoolCount);
+        return myPoolCount++;
+    }
+
+    // **********************************************************************
+    // addField
+    //    add a field without attributes
+    // **********************************************************************
+    public void addField(int access, String name, String desc) {
+        try {
+            myFields.writeShort(access);
+            myFields.writeShort(utf8(name));
+            myFields.writeShort(utf8(desc));
+            myFields.writeShort(0);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        myFieldCount++;
+    }
+
+    // **********************************************************************
+    // addMethod
+    //    add a method and return the Bytecode object used to write its code
+    // **********************************************************************
+    public Bytecode addMethod(int access, String name, String desc,
+                              int numLocals) {
+        Bytecode code = new Bytecode(this, access, utf8(name), utf8(desc),
+                                     numLocals);
+        myMethods.add(code);
+        return code;
+    }
+
+    // **********************************************************************
+    // toBytes
+    //    return the contents of the class file
+    // **********************************************************************
+    public byte[] toBytes() {
+        int codeIndex = utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);      // minor version
+            out.writeShort(49);     // major version
+            out.writeShort(myPoolCount);
+            myPoolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(myThisClass);
+            out.writeShort(mySuperClass);
+            out.writeShort(0);      // interfaces
+            out.writeShort(myFieldCount);
+            myFieldBytes.writeTo(out);
+            out.writeShort(myMethods.size());
+            for (Bytecode code : myMethods) {
+                code.write(out, codeIndex);
+            }
+            out.writeShort(0);      // attributes
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+}
+
+// **********************************************************************
+// Label
+//    a position in the code of a method; branches to a label that is not
+//    placed yet are patched when it is placed
+// **********************************************************************
+class Label {
+    int pc = -1;                // position, -1 until placed
+    int depth = -1;             // stack depth at the label, -1 if unknown
+    List<int[]> refs = new ArrayList<int[]>();  // {branch pc, offset pc}
+}
+
+// **********************************************************************
+// Bytecode
+//    the code of one method
+// **********************************************************************
+class Bytecode {
+    private ClassFile myClass;
+    private int myAccess;
+    private int myName;
+    private int myDesc;
+    private int myMaxLocals;
+
+    private byte[] myCode = new byte[64];
+    private int myLength = 0;
+    private int myDepth = 0;        // current stack depth, -1 if unreachable
+    private int myMaxStack = 0;
+    private boolean myTooLarge = false;  // a branch offset is out of range
+
+    Bytecode(ClassFile cf, int access, int name, int desc, int numLocals) {
+        myClass = cf;
+        myAccess = access;
+        myName = name;
+        myDesc = desc;
+        myMaxLocals = numLocals;
+    }
+
+    public ClassFile classFile() {
+        return myClass;
+    }
+
+    // **********************************************************************
+    // op
+    //    given:  opcode and its effect on the stack depth
+    //    do:     append the opcode
+    // **********************************************************************
+    public void op(int opcode, int delta) {
+        u1(opcode);
+        adjust(delta);
+    }
+
+    public void iconst(int val) {
+        if (val >= -1 && val <= 5) {
+            op(ClassFile.ICONST_0 + val, 1);
+        } else if (val >= Byte.MIN_VALUE && val <= Byte.MAX_VALUE) {
+            op(ClassFile.BIPUSH, 1);
+            u1(val);
+        } else if (val >= Short.MIN_VALUE && val <= Short.MAX_VALUE) {
+            op(ClassFile.SIPUSH, 1);
+            u2(val);
+        } else {
+            ldc(myClass.intConst(val));
+        }
+    }
+
+    public void ldcString(String s) {
+        ldc(myClass.string(s));
+    }
+
+    private void ldc(int index) {
+        if (index < 256) {
+            op(ClassFile.LDC, 1);
+            u1(index);
+        } else {
+            op(ClassFile.LDC_W, 1);
+            u2(index);
+        }
+    }
+
+    public void iload(int slot) {
+        local(ClassFile.ILOAD, slot);
+        adjust(1);
+    }
+
+    public void istore(int slot) {
+        local(ClassFile.ISTORE, slot);
+        adjust(-1);
+    }
+
+    public void iinc(int slot, int val) {
+        if (slot < 256 && val >= Byte.MIN_VALUE && val <= Byte.MAX_VALUE) {
+            u1(ClassFile.IINC);
+            u1(slot);
+            u1(val);
+        } else {
+            iload(slot);
+            iconst(val);
+            op(ClassFile.IADD, -1);
+            istore(slot);
+        }
+    }
+
+    private void local(int opcode, int slot) {
+        if (slot < 4) {
+            // iload_<n> and istore_<n> follow iload and istore
+            int base = (opcode == ClassFile.ILOAD) ? 0x1a : 0x3b;
+            u1(base + slot);
+        } else if (slot < 256) {
+            u1(opcode);
+            u1(slot);
+        } else {
+            u1(0xc4);       // wide
+            u1(opcode);
+            u2(slot);
+        }
+        if (slot >= myMaxLocals) {
+            myMaxLocals = slot + 1;
+        }
+    }
+
+    public void getstatic(String owner, String name) {
+        op(ClassFile.GETSTATIC, 1);
+        u2(myClass.fieldRef(owner, name, "I"));
+    }
+
+    public void putstatic(String owner, String name) {
+        op(ClassFile.PUTSTATIC, -1);
+        u2(myClass.fieldRef(owner, name, "I"));
+    }
+
+    // **********************************************************************
+    // invokestatic
+    //    given:  method, number of int args and whether it returns an int
+    // **********************************************************************
+    public void invokestatic(String owner, String name, String desc,
+                             int numArgs, boolean returnsValue) {
+        op(ClassFile.INVOKESTATIC, (returnsValue ? 1 : 0) - numArgs);
+        u2(myClass.methodRef(owner, name, desc));
+    }
+
+    // **********************************************************************
+    // branch
+    //    given:  branch opcode (if<cond>, if_icmp<cond> or goto) and target
+    // **********************************************************************
+    public void branch(int opcode, Label target) {
+        int pc = myLength;
+        int pops = (opcode == ClassFile.GOTO) ? 0
+                 : (opcode >= ClassFile.IF_ICMPEQ) ? 2 : 1;
+        u1(opcode);
+        adjust(-pops);
+        if (target.depth < 0) {
+            target.depth = myDepth;
+        }
+        if (target.pc >= 0) {
+            int offset = target.pc - pc;
+            if (offset < Short.MIN_VALUE) {
+                myTooLarge = true;
+            }
+            u2(offset);
+        } else {
+            target.refs.add(new int[] { pc, myLength });
+            u2(0);
+        }
+        if (opcode == ClassFile.GOTO) {
+            myDepth = -1;       // following code is only reached by a jump
+        }
+    }
+
+    public void placeLabel(Label label) {
+        label.pc = myLength;
+        for (int[] ref : label.refs) {
+            int offset = label.pc - ref[0];
+            if (offset > Short.MAX_VALUE) {
+                myTooLarge = true;
+            }
+            myCode[ref[1]] = (byte)(offset >> 8);
+            myCode[ref[1] + 1] = (byte)offset;
+        }
+        label.refs.clear();
+        if (myDepth < 0) {
+            myDepth = Math.max(label.depth, 0);
+        }
+    }
+
+    /**
+     * Mark the end of a path (after a return instruction).
+     */
+    public void endPath() {
+        myDepth = -1;
+    }
+
+    public boolean reachable() {
+        return myDepth >= 0;
+    }
+
+    /**
+     * Return whether the code is too large for a method: the class file
+     * limits it to 65535 bytes, and a branch to 32767 bytes either way.
+     * Such a method must not be written.
+     */
+    public boolean tooLarge() {
+        return myTooLarge || myLength > 65535;
+    }
+
+    private void adjust(int delta) {
+        if (myDepth < 0) {
+            myDepth = 0;
+        }
+        myDepth += delta;
+        if (myDepth > myMaxStack) {
+            myMaxStack = myDepth;
+        }
+    }
+
+    private void u1(int b) {
+        if (myLength == myCode.length) {
+            myCode = Arrays.copyOf(myCode, 2 * myCode.length);
+        }
+        myCode[myLength++] = (byte)b;
+    }
+
+    private void u2(int s) {
+        u1(s >> 8);
+        u1(s);
+    }
+
+    void write(DataOutputStream out, int codeIndex) throws IOException {
+        out.writeShort(myAccess);
+        out.writeShort(myName);
+        out.writeShort(myDesc);
+        out.writeShort(1);              // one attribute: Code
+        out.writeShort(codeIndex);
+        out.writeInt(12 + myLength);
+        out.writeShort(myMaxStack);
+        out.writeShort(myMaxLocals);
+        out.writeInt(myLength);
+        out.write(myCode, 0, myLength);
+        out.writeShort(0);              // exception table
+        out.writeShort(0);              // attributes
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.*;
+
+// **********************************************************************
+// The CmmRuntime class is the run-time library of C-- programs compiled
+// by the JVM backend.  Generated classes call its static methods for
+// cin and cout; both go through buffered streams, and the output is
+// flushed when main returns.
+// **********************************************************************
+
+public class CmmRuntime {
+    private static InputStream in =
+        new BufferedInputStream(System.in, 1 << 16);
+    private static PrintStream out =
+        new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+
+    public static void print(int val) {
+        out.print(val);
+    }
+
+    public static void print(String s) {
+        out.print(s);
+    }
+
+    public static void flush() {
+        out.flush();
+    }
+
+    public static int readInt() {
+        return readInt(in);
+    }
+
+    // **********************************************************************
+    // readInt
+    //    read the next integer from the given stream, skipping white space
+    //    (the same behaviour as syscall 5 for a well-formed input); the
+    //    interpreter reads cin with it too
+    // **********************************************************************
+    public static int readInt(InputStream in) {
+        try {
+            int c = in.read();
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                c = in.read();
+            }
+            if (c < 0) {
+                throw new InterpreterException("unexpected end of input");
+            }
+            boolean neg = false;
+            if (c == '-' || c == '+') {
+                neg = (c == '-');
+                c = in.read();
+            }
+            if (c < '0' || c > '9') {
+                throw new InterpreterException("integer expected in input");
+            }
+            int val = 0;
+            while (c >= '0' && c <= '9') {
+                val = val * 10 + (c - '0');
+                c = in.read();
+            }
+            return neg ? -val : val;
+        } catch (IOException ex) {
+            throw new InterpreterException("error while reading input");
+        }
+    }
+}
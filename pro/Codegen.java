@@ -1,11 +1,13 @@
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 // **********************************************************************
 // The Codegen class provides constants and operations useful for code
 // generation.
 //
 // The constants are:
-//     Registers: FP, SP, RA, V0, V1, A0, T0, T1
+//     Registers: FP, SP, RA, V0, V1, A0, A1, A2, T0 - T6, ZERO
 //     Values: TRUE, FALSE
 //
 // The operations are include various "generate" methods to print nicely
@@ -19,12 +21,39 @@ import java.io.*;
 //     genLabel
 // and a method nextLabel to create and return a new label.
 //
+// The top-level declarations are generated by genDecls.  Each one is
+// generated into its own buffer, with its own label namespace (labels of
+// function f are .L0_f, .L1_f, ...) and its own table of string
+// literals, so functions can be generated in parallel on a fork-join
+// pool.  The buffers are written to p in source order, so the output is
+// the same for any number of threads.
+//
+// When bufferedIO is set (the default), cout and cin do not issue a
+// syscall per value.  They call the run-time routines that genRuntime
+// emits once per program:
+//     .Lrt_print_int    format $a0 in decimal into the output buffer
+//     .Lrt_print_str    copy the string at $a0 into the output buffer
+//     .Lrt_flush        write the output buffer (syscall 15); called when
+//                       the buffer is full, before input is read, and
+//                       when main exits
+//     .Lrt_read_int     parse an int into $v0 from the input buffer,
+//                       which is refilled a block at a time (syscall 14)
+// The routines only use $t0 - $t6, $a0 - $a2, $v0 and $v1, which hold no
+// values between statements.
+//
 // **********************************************************************
 
 public class Codegen {
     // file into which generated code is written
     public static PrintWriter p = null;    
 
+    // number of threads used by genDecls (1 = generate sequentially)
+    public static int threads = Runtime.getRuntime().availableProcessors();
+
+    // buffer of the declaration being generated by the current thread
+    private static final ThreadLocal<DeclBuffer> current =
+        new ThreadLocal<DeclBuffer>();
+
     // values of true and false
     public static final String TRUE = "1";
     public static final String FALSE = "0";
@@ -36,8 +65,16 @@ public class Codegen {
     public static final String V0 = "$v0";
     public static final String V1 = "$v1";
     public static final String A0 = "$a0";
+    public static final String A1 = "$a1";
+    public static final String A2 = "$a2";
     public static final String T0 = "$t0";
     public static final String T1 = "$t1";
+    public static final String T2 = "$t2";
+    public static final String T3 = "$t3";
+    public static final String T4 = "$t4";
+    public static final String T5 = "$t5";
+    public static final String T6 = "$t6";
+    public static final String ZERO = "$zero";
 
 
     // for pretty printing generated code
@@ -47,6 +84,12 @@ public class Codegen {
     // for generating labels
     private static int currLabel = 0;
 
+    // use the buffered I/O run-time routines instead of direct syscalls
+    public static boolean bufferedIO = true;
+
+    // size in bytes of the run-time input and output buffers
+    private static final int BUFSIZE = 4096;
+
 
     // **********************************************************************
     // **********************************************************************
@@ -61,6 +104,7 @@ public class Codegen {
     // **********************************************************************
     public static void generateWithComment(String opcode, String comment,
                                         String arg1, String arg2, String arg3) {
+        PrintWriter p = out();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -100,6 +144,7 @@ public class Codegen {
     // **********************************************************************
     public static void generate(String opcode, String arg1, String arg2,
                                 String arg3) {
+        PrintWriter p = out();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -135,6 +180,7 @@ public class Codegen {
     // **********************************************************************
     public static void generate(String opcode, String arg1, String arg2,
                                 int arg3) {
+        PrintWriter p = out();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -149,6 +195,7 @@ public class Codegen {
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
     public static void generate(String opcode, String arg1, int arg2) {
+        PrintWriter p = out();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -166,6 +213,7 @@ public class Codegen {
     // **********************************************************************
     public static void generateIndexed(String opcode, String arg1, String arg2,
                                        int arg3, String comment) {
+        PrintWriter p = out();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -189,6 +237,7 @@ public class Codegen {
     // **********************************************************************
     public static void generateLabeled(String label, String opcode,
                                        String comment, String arg1) {
+        PrintWriter p = out();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print(label + ":");
@@ -232,6 +281,7 @@ public class Codegen {
     //   generate: L:    # comment
     // **********************************************************************
     public static void genLabel(String label, String comment) {
+        PrintWriter p = out();
         p.print(label + ":");
         if (comment != "") 
             p.print("\t\t" + "# " + comment);
@@ -242,13 +292,300 @@ public class Codegen {
         genLabel(label, "");
     }
     
+    // **********************************************************************
+    // genRuntime
+    //    generate the buffered I/O run-time routines and their data
+    // **********************************************************************
+    public static void genRuntime() {
+        generate(".data");
+        generate(".align 2");
+        generateLabeled(".Lrt_outpos", ".word 0", "");
+        generateLabeled(".Lrt_inpos", ".word 0", "");
+        generateLabeled(".Lrt_inlen", ".word 0", "");
+        generateLabeled(".Lrt_outbuf", ".space " + BUFSIZE, "");
+        generateLabeled(".Lrt_inbuf", ".space " + BUFSIZE, "");
+        generateLabeled(".Lrt_digits", ".space 12", "");
+        generate(".text");
+
+        // .Lrt_flush: write the pending output to stdout
+        genLabel(".Lrt_flush", "flush output buffer");
+        generate("lw", A2, ".Lrt_outpos");
+        generate("beqz", A2, ".Lrt_flush_done");
+        generate("li", A0, 1);
+        generate("la", A1, ".Lrt_outbuf");
+        generate("li", V0, 15);
+        generate("syscall");
+        generate("sw", ZERO, ".Lrt_outpos");
+        genLabel(".Lrt_flush_done");
+        generate("jr", RA);
+
+        // .Lrt_print_str: append the string at $a0
+        genLabel(".Lrt_print_str", "buffered string output");
+        genPush(RA);
+        generate("move", T0, A0);
+        generate("lw", T1, ".Lrt_outpos");
+        genLabel(".Lrt_ps_loop");
+        generateIndexed("lb", T2, T0, 0);
+        generate("beqz", T2, ".Lrt_ps_done");
+        generate("sb", T2, ".Lrt_outbuf(" + T1 + ")");
+        generate("addu", T0, T0, 1);
+        generate("addu", T1, T1, 1);
+        generate("blt", T1, "" + BUFSIZE, ".Lrt_ps_loop");
+        generate("sw", T1, ".Lrt_outpos");
+        generate("jal", ".Lrt_flush");
+        generate("li", T1, 0);
+        generate("b", ".Lrt_ps_loop");
+        genLabel(".Lrt_ps_done");
+        generate("sw", T1, ".Lrt_outpos");
+        genPop(RA);
+        generate("jr", RA);
+
+        // .Lrt_print_int: format $a0 right to left into .Lrt_digits, working
+        // on the non-positive value so that the smallest int is handled,
+        // then append the digits
+        genLabel(".Lrt_print_int", "buffered int output");
+        genPush(RA);
+        generate("move", T0, A0);
+        generate("slt", T5, T0, ZERO);
+        generate("bnez", T5, ".Lrt_pi_neg");
+        generate("subu", T0, ZERO, T0);
+        genLabel(".Lrt_pi_neg");
+        generate("la", T4, ".Lrt_digits");
+        generate("addu", T4, T4, 12);
+        generate("move", T3, T4);
+        generate("li", T6, 10);
+        genLabel(".Lrt_pi_digit");
+        generate("div", T0, T6);
+        generate("mflo", T0);
+        generate("mfhi", T2);
+        generate("subu", T2, ZERO, T2);
+        generate("addu", T2, T2, 48);
+        generate("subu", T3, T3, 1);
+        generateIndexed("sb", T2, T3, 0);
+        generate("bnez", T0, ".Lrt_pi_digit");
+        generate("beqz", T5, ".Lrt_pi_copy");
+        generate("li", T2, 45);
+        generate("subu", T3, T3, 1);
+        generateIndexed("sb", T2, T3, 0);
+        genLabel(".Lrt_pi_copy");
+        generate("lw", T1, ".Lrt_outpos");
+        genLabel(".Lrt_pi_loop");
+        generateIndexed("lb", T2, T3, 0);
+        generate("sb", T2, ".Lrt_outbuf(" + T1 + ")");
+        generate("addu", T3, T3, 1);
+        generate("addu", T1, T1, 1);
+        generate("blt", T1, "" + BUFSIZE, ".Lrt_pi_next");
+        generate("sw", T1, ".Lrt_outpos");
+        generate("jal", ".Lrt_flush");
+        generate("li", T1, 0);
+        genLabel(".Lrt_pi_next");
+        generate("bne", T3, T4, ".Lrt_pi_loop");
+        generate("sw", T1, ".Lrt_outpos");
+        genPop(RA);
+        generate("jr", RA);
+
+        // .Lrt_getc: next input char in $v1 (-1 at end of input); refills
+        // the input buffer a block at a time
+        genLabel(".Lrt_getc", "buffered char input");
+        generate("lw", T1, ".Lrt_inpos");
+        generate("lw", T2, ".Lrt_inlen");
+        generate("blt", T1, T2, ".Lrt_gc_have");
+        genPush(RA);
+        generate("jal", ".Lrt_flush");
+        generate("li", A0, 0);
+        generate("la", A1, ".Lrt_inbuf");
+        generate("li", A2, BUFSIZE);
+        generate("li", V0, 14);
+        generate("syscall");
+        genPop(RA);
+        generate("li", T1, 0);
+        generate("sw", ZERO, ".Lrt_inpos");
+        generate("sw", V0, ".Lrt_inlen");
+        generate("bgtz", V0, ".Lrt_gc_have");
+        generate("sw", ZERO, ".Lrt_inlen");
+        generate("li", V1, -1);
+        generate("jr", RA);
+        genLabel(".Lrt_gc_have");
+        generate("lbu", V1, ".Lrt_inbuf(" + T1 + ")");
+        generate("addu", T1, T1, 1);
+        generate("sw", T1, ".Lrt_inpos");
+        generate("jr", RA);
+
+        // .Lrt_read_int: skip white space, read an optional '-' and digits
+        genLabel(".Lrt_read_int", "buffered int input");
+        genPush(RA);
+        generate("li", T0, 0);
+        generate("li", T5, 0);
+        genLabel(".Lrt_ri_skip");
+        generate("jal", ".Lrt_getc");
+        generate("bltz", V1, ".Lrt_ri_done");
+        generate("beq", V1, "32", ".Lrt_ri_skip");
+        generate("beq", V1, "9", ".Lrt_ri_skip");
+        generate("beq", V1, "10", ".Lrt_ri_skip");
+        generate("beq", V1, "13", ".Lrt_ri_skip");
+        generate("bne", V1, "45", ".Lrt_ri_digit");
+        generate("li", T5, 1);
+        generate("jal", ".Lrt_getc");
+        genLabel(".Lrt_ri_digit");
+        generate("blt", V1, "48", ".Lrt_ri_end");
+        generate("bgt", V1, "57", ".Lrt_ri_end");
+        generate("mul", T0, T0, 10);
+        generate("addu", T0, T0, V1);
+        generate("subu", T0, T0, 48);
+        generate("jal", ".Lrt_getc");
+        generate("b", ".Lrt_ri_digit");
+        genLabel(".Lrt_ri_end");
+        generate("bltz", V1, ".Lrt_ri_sign");
+        generate("lw", T1, ".Lrt_inpos");     // unread the char after the int
+        generate("subu", T1, T1, 1);
+        generate("sw", T1, ".Lrt_inpos");
+        genLabel(".Lrt_ri_sign");
+        generate("beqz", T5, ".Lrt_ri_done");
+        generate("subu", T0, ZERO, T0);
+        genLabel(".Lrt_ri_done");
+        generate("move", V0, T0);
+        genPop(RA);
+        generate("jr", RA);
+    }
+
+    // **********************************************************************
+    // out
+    //    return the writer for generated code: the buffer of the current
+    //    declaration, if any, else p
+    // **********************************************************************
+    public static PrintWriter out() {
+        DeclBuffer buf = current.get();
+        return (buf == null) ? p : buf.p;
+    }
+
+    // **********************************************************************
+    // setLabelScope
+    //    labels created after this call (in the current declaration) are
+    //    in the namespace of function name
+    // **********************************************************************
+    public static void setLabelScope(String name) {
+        DeclBuffer buf = current.get();
+        if (buf != null) {
+            buf.scope = "_" + name;
+            buf.currLabel = 0;
+        }
+    }
+
+    // **********************************************************************
+    // stringLabel
+    //    return the label of the string literal lit in the current
+    //    declaration, or null if it has not been generated yet
+    // **********************************************************************
+    public static String stringLabel(String lit) {
+        DeclBuffer buf = current.get();
+        return (buf == null) ? null : buf.strings.get(lit);
+    }
+
+    public static void addStringLabel(String lit, String label) {
+        DeclBuffer buf = current.get();
+        if (buf != null) {
+            buf.strings.put(lit, label);
+        }
+    }
+
+    // **********************************************************************
+    // genDecls
+    //    generate the given top-level declarations and write their code to
+    //    p in source order
+    // **********************************************************************
+    public static void genDecls(List<DeclNode> decls) {
+        List<DeclNode> list = new ArrayList<DeclNode>(decls);
+        String[] text = new String[list.size()];
+        if (threads > 1 && list.size() > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new DeclCodegenTask(list, text, 0, list.size()));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for (int k = 0; k < list.size(); k++) {
+                text[k] = genDecl(list.get(k));
+            }
+        }
+        for (String s : text) {
+            p.print(s);
+        }
+    }
+
+    // **********************************************************************
+    // genDecl
+    //    generate one declaration into a new buffer and return its code
+    // **********************************************************************
+    static String genDecl(DeclNode node) {
+        DeclBuffer buf = new DeclBuffer();
+        current.set(buf);
+        try {
+            node.codeGen();
+        } finally {
+            current.remove();
+        }
+        buf.p.flush();
+        return buf.text.toString();
+    }
+
     // **********************************************************************
     // Return a different label each time:
     //        L0 L1 L2, etc.
+    // (with the suffix _f when generating function f)
     // **********************************************************************
     public static String nextLabel() {
-        Integer k = new Integer(currLabel++);
-        String tmp = ".L" + k;
-        return(tmp);
+        DeclBuffer buf = current.get();
+        if (buf != null) {
+            return ".L" + (buf.currLabel++) + buf.scope;
+        }
+        return ".L" + (currLabel++);
+    }
+}
+
+// **********************************************************************
+// DeclBuffer
+//    generated code, label counter and string literals of one top-level
+//    declaration
+// **********************************************************************
+class DeclBuffer {
+    StringWriter text = new StringWriter();
+    PrintWriter p = new PrintWriter(text);
+    String scope = "";
+    int currLabel = 0;
+    Map<String,String> strings = new HashMap<String,String>();
+}
+
+// **********************************************************************
+// DeclCodegenTask
+//    fork-join task generating the declarations list[lo..hi) into
+//    text[lo..hi)
+// **********************************************************************
+class DeclCodegenTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int CUTOFF = 4;
+
+    private List<DeclNode> list;
+    private String[] text;
+    private int lo;
+    private int hi;
+
+    DeclCodegenTask(List<DeclNode> list, String[] text, int lo, int hi) {
+        this.list = list;
+        this.text = text;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    protected void compute() {
+        if (hi - lo <= CUTOFF) {
+            for (int k = lo; k < hi; k++) {
+                text[k] = Codegen.genDecl(list.get(k));
+            }
+        } else {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new DeclCodegenTask(list, text, lo, mid),
+                      new DeclCodegenTask(list, text, mid, hi));
+        }
     }
 }
@@ -0,0 +1,166 @@
+/**
+ * A persistent (immutable) symbol environment.
+ *
+ * An Env has the semantics of a SymTable, but addDecl, addScope and
+ * removeScope return a new Env and leave the old one unchanged, so an
+ * Env is a snapshot that can be kept (e.g. on a FnBodyNode) and shared
+ * between threads.
+ *
+ * Like SymTable, it maps each name (an id, see Names) to the chain of its
+ * bindings, innermost first; the map is a hash array mapped trie on the
+ * ids, so addDecl copies one path of at most 7 nodes and the new Env
+ * shares everything else with the old one.  addScope and removeScope
+ * take constant time.
+ */
+public class Env {
+    private static final Env NONE = new Env(null, 0, null);
+
+    private final Node root;    // bindings, null if there are none
+    private final int depth;    // number of scopes
+    private final Env outer;    // this Env without its inner scope
+
+    /**
+     * Create an Env with one empty scope
+     */
+    public Env() {
+        this(null, 1, NONE);
+    }
+
+    private Env(Node root, int depth, Env outer) {
+        this.root = root;
+        this.depth = depth;
+        this.outer = outer;
+    }
+
+    /**
+     * Return this Env with a declaration (i.e. a pair [id,info]) added
+     * in the inner scope
+     */
+    public Env addDecl(int id, SymInfo info) {
+        if ( info == null )
+            throw new NullPointerException();
+        if ( depth == 0 )
+            throw new EmptySymTableException();
+        Binding b = find(id);
+        if ( b != null && b.depth == depth )
+            throw new DuplicateSymException();
+        return new Env(insert(root, new Binding(id, info, depth, b), 0),
+                       depth, outer);
+    }
+
+    /**
+     * Return this Env with a new inner scope
+     */
+    public Env addScope() {
+        return new Env(root, depth + 1, this);
+    }
+
+    /**
+     * Return this Env without its inner scope
+     */
+    public Env removeScope() {
+        if ( depth == 0 )
+            throw new EmptySymTableException();
+        return outer;
+    }
+
+    /**
+     * Lookup for 'id' in the inner scope
+     */
+    public SymInfo lookupLocal(int id) {
+        if ( depth == 0 )
+            throw new EmptySymTableException();
+        Binding b = find(id);
+        return b != null && b.depth == depth ? b.info : null;
+    }
+
+    /**
+     * Lookup for 'id' in all scopes from inner to outer
+     */
+    public SymInfo lookupGlobal(int id) {
+        if ( depth == 0 )
+            throw new EmptySymTableException();
+        Binding b = find(id);
+        return b == null ? null : b.info;
+    }
+
+    public int size() {
+        return depth;
+    }
+
+    private Binding find(int id) {
+        Node node = root;
+        for ( int shift = 0; node != null; shift += 5 ) {
+            int bit = 1 << ((id >>> shift) & 31);
+            if ( (node.bitmap & bit) == 0 )
+                return null;
+            Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            if ( slot instanceof Binding ) {
+                Binding b = (Binding)slot;
+                return b.id == id ? b : null;
+            }
+            node = (Node)slot;
+        }
+        return null;
+    }
+
+    /**
+     * Return a copy of node in which b replaces the binding of b.id
+     */
+    private static Node insert(Node node, Binding b, int shift) {
+        int bit = 1 << ((b.id >>> shift) & 31);
+        if ( node == null )
+            return new Node(bit, new Object[] { b });
+        int k = Integer.bitCount(node.bitmap & (bit - 1));
+        if ( (node.bitmap & bit) == 0 ) {
+            Object[] slots = new Object[node.slots.length + 1];
+            System.arraycopy(node.slots, 0, slots, 0, k);
+            slots[k] = b;
+            System.arraycopy(node.slots, k, slots, k + 1, node.slots.length - k);
+            return new Node(node.bitmap | bit, slots);
+        }
+        Object slot = node.slots[k];
+        Object newSlot;
+        if ( slot instanceof Node ) {
+            newSlot = insert((Node)slot, b, shift + 5);
+        } else if ( ((Binding)slot).id == b.id ) {
+            newSlot = b;
+        } else {
+            newSlot = insert(insert(null, (Binding)slot, shift + 5), b, shift + 5);
+        }
+        Object[] slots = node.slots.clone();
+        slots[k] = newSlot;
+        return new Node(node.bitmap, slots);
+    }
+
+    /**
+     * A node of the trie: slots holds a Node or a Binding for each bit
+     * set in bitmap
+     */
+    private static class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * A binding of a name, linked to the binding it hides
+     */
+    private static class Binding {
+        final int id;
+        final SymInfo info;
+        final int depth;     // depth of the scope of the declaration
+        final Binding next;  // binding of the same name in an outer scope
+
+        Binding(int id, SymInfo info, int depth, Binding next) {
+            this.id = id;
+            this.info = info;
+            this.depth = depth;
+            this.next = next;
+        }
+    }
+}
@@ -1,11 +1,49 @@
+import java.util.*;
+
 /**
  * ErrMsg
  *
  * This class is used to generate warning and fatal error messages.
+ *
+ * Messages are printed right away, unless the current thread is
+ * collecting them: the analysis of a function body may run on any thread,
+ * so its messages go to a collector of its own (an ErrMsg object), and
+ * the collectors are printed in source order afterwards.
+ *
+ * A collector can also keep the messages of type checking apart from the
+ * others (see typeError), for an analysis that does name analysis and
+ * type checking at the same time but must print all the name analysis
+ * messages first.
  */
 class ErrMsg {
-	private static boolean err = false;
-	
+	private static volatile boolean err = false;
+
+	// collector of the current thread (null: print messages right away)
+	private static final ThreadLocal<ErrMsg> current = new ThreadLocal<ErrMsg>();
+
+	private List<String> msgs = new ArrayList<String>();
+	private boolean aborted = false;
+
+	// type checking messages, if they are kept apart (else null)
+	private List<String> typeMsgs = null;
+	private boolean typeAborted = false;
+
+	/**
+	 * Creates a collector.
+	 */
+	ErrMsg() {
+	}
+
+	/**
+	 * Creates a collector; if split is set, the type checking messages
+	 * are kept apart and printed by printTypeErrors.
+	 */
+	ErrMsg(boolean split) {
+		if (split) {
+			typeMsgs = new ArrayList<String>();
+		}
+	}
+
     /**
      * Generates a fatal error message.
      * @param lineNum line number for error location
@@ -14,7 +52,7 @@ class ErrMsg {
      */
     static void fatal(int lineNum, int charNum, String msg) {
 		err = true;
-        System.err.println(lineNum + ":" + charNum + " ***ERROR*** " + msg);
+        report(lineNum + ":" + charNum + " ***ERROR*** " + msg);
     }
 
     /**
@@ -24,13 +62,135 @@ class ErrMsg {
      * @param msg associated message for warning
      */
     static void warn(int lineNum, int charNum, String msg) {
-        System.err.println(lineNum + ":" + charNum + " ***WARNING*** " + msg);
+        report(lineNum + ":" + charNum + " ***WARNING*** " + msg);
     }
-	
+
+	/**
+	 * Generates a fatal error message found by type checking.
+	 * @param lineNum line number for error location
+	 * @param charNum character number (i.e., column) for error location
+	 * @param msg associated message for error
+	 */
+	static void typeError(int lineNum, int charNum, String msg) {
+		err = true;
+		ErrMsg collector = current.get();
+		if (collector != null && collector.typeMsgs != null) {
+			if (!collector.typeAborted) {
+				collector.typeMsgs.add(lineNum + ":" + charNum + " ***ERROR*** " + msg);
+			}
+		} else {
+			report(lineNum + ":" + charNum + " ***ERROR*** " + msg);
+		}
+	}
+
+	/**
+	 * Generates a message for an internal error found by type checking.
+	 * It is the same as internal, except when the type checking messages
+	 * are kept apart: then the message is recorded, the later type
+	 * checking messages of the function are dropped, and the caller goes
+	 * on (the name analysis messages that follow are still needed); the
+	 * compiler stops when printTypeErrors is called.
+	 * @param msg associated message for error
+	 */
+	static void typeInternal(String msg) {
+		ErrMsg collector = current.get();
+		if (collector == null || collector.typeMsgs == null) {
+			internal(msg);
+		} else if (!collector.typeAborted) {
+			collector.typeMsgs.add(msg);
+			collector.typeAborted = true;
+		}
+	}
+
+	/**
+	 * Generates a message for an internal error and stops the compiler.
+	 * When messages are collected, the analysis of the current function
+	 * is abandoned (with an ErrMsg.Abort exception) and the compiler
+	 * stops when the collector is printed.
+	 * @param msg associated message for error
+	 */
+	static void internal(String msg) {
+		ErrMsg collector = current.get();
+		if (collector == null) {
+			System.err.println(msg);
+			System.exit(-1);
+		}
+		collector.msgs.add(msg);
+		collector.aborted = true;
+		throw new Abort();
+	}
+
 	/**
 	 * Returns the err flag.
 	 */
 	static boolean getErr() {
 		return err;
 	}
+
+	/**
+	 * Makes the given collector the one of the current thread; with null,
+	 * messages of the current thread are printed right away again.
+	 */
+	static void collect(ErrMsg collector) {
+		if (collector == null) {
+			current.remove();
+		} else {
+			current.set(collector);
+		}
+	}
+
+	/**
+	 * Returns true if no message was collected.
+	 */
+	boolean isEmpty() {
+		return msgs.isEmpty();
+	}
+
+	/**
+	 * Prints the collected messages in the order they were generated,
+	 * and stops the compiler if one of them was an internal error.
+	 */
+	void print() {
+		for (String msg : msgs) {
+			System.err.println(msg);
+		}
+		msgs.clear();
+		if (aborted) {
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Prints the type checking messages kept apart, in the order they
+	 * were generated, and stops the compiler if one of them was an
+	 * internal error.
+	 */
+	void printTypeErrors() {
+		if (typeMsgs == null) {
+			return;
+		}
+		for (String msg : typeMsgs) {
+			System.err.println(msg);
+		}
+		typeMsgs.clear();
+		if (typeAborted) {
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Thrown by internal to abandon the analysis of a function.
+	 */
+	static class Abort extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static void report(String msg) {
+		ErrMsg collector = current.get();
+		if (collector != null) {
+			collector.msgs.add(msg);
+		} else {
+			System.err.println(msg);
+		}
+	}
 }
@@ -0,0 +1,484 @@
+import java.util.*;
+
+/**
+ * A flat (struct-of-arrays) form of an AST, for keeping large programs
+ * in little memory.
+ *
+ * The nodes are numbered in post-order, which is the order in which the
+ * parser builds them: the kids of a node come before it, and the nodes
+ * of a subtree are the ones from its first leaf up to its root.  Each
+ * node has, in int arrays:
+ *     kind         one of the constants below (one per concrete class of
+ *                  ASTnode)
+ *     line, char   for the nodes that have them (literals, ids, return)
+ *     value        for VAR_DECL: its size (see VarDeclNode)
+ *                  for INT_LIT: its value
+ *                  for STRING_LIT: its index in the table of string
+ *                  literals, in which each literal appears once
+ *                  for ID: its id (see Names)
+ *     kids         the kids of node n are kids[kidStart[n]] ..
+ *                  kids[kidStart[n+1] - 1], in the order of the fields
+ *                  of its class (one kid per element for a list node)
+ *
+ * A program is flattened with of (see ASTnode.flatten), or one top-level
+ * decl at a time as it is parsed, with a Collector.  A Cursor reads
+ * the nodes, walk visits them with an explicit stack, and toAST builds
+ * ASTnode objects again for a node and its subtree, so that the passes of
+ * ast.java can be run over any part of the program.
+ */
+public class FlatAst {
+    public static final int PROGRAM = 0;
+    public static final int DECL_LIST = 1;
+    public static final int FORMALS_LIST = 2;
+    public static final int FN_BODY = 3;
+    public static final int STMT_LIST = 4;
+    public static final int EXP_LIST = 5;
+    public static final int VAR_DECL = 6;
+    public static final int FN_DECL = 7;
+    public static final int FORMAL_DECL = 8;
+    public static final int STRUCT_DECL = 9;
+    public static final int INT = 10;
+    public static final int BOOL = 11;
+    public static final int VOID = 12;
+    public static final int STRUCT = 13;
+    public static final int ASSIGN_STMT = 14;
+    public static final int POST_INC = 15;
+    public static final int POST_DEC = 16;
+    public static final int READ = 17;
+    public static final int WRITE = 18;
+    public static final int IF = 19;
+    public static final int IF_ELSE = 20;
+    public static final int WHILE = 21;
+    public static final int CALL_STMT = 22;
+    public static final int RETURN = 23;
+    public static final int INT_LIT = 24;
+    public static final int STRING_LIT = 25;
+    public static final int TRUE = 26;
+    public static final int FALSE = 27;
+    public static final int ID = 28;
+    public static final int DOT_ACCESS = 29;
+    public static final int ASSIGN = 30;
+    public static final int CALL = 31;
+    public static final int UNARY_MINUS = 32;
+    public static final int NOT = 33;
+    public static final int PLUS = 34;
+    public static final int MINUS = 35;
+    public static final int TIMES = 36;
+    public static final int DIVIDE = 37;
+    public static final int AND = 38;
+    public static final int OR = 39;
+    public static final int EQUALS = 40;
+    public static final int NOT_EQUALS = 41;
+    public static final int LESS = 42;
+    public static final int GREATER = 43;
+    public static final int LESS_EQ = 44;
+    public static final int GREATER_EQ = 45;
+
+    // the nodes
+    private int size = 0;
+    private int[] kind = new int[64];
+    private int[] line = new int[64];
+    private int[] charNum = new int[64];
+    private int[] value = new int[64];
+    private int[] kidStart = new int[65];
+
+    // the kids of all the nodes
+    private int numKids = 0;
+    private int[] kids = new int[64];
+
+    // the string literals, and the index of each one
+    private List<String> strings = new ArrayList<String>();
+    private Map<String,Integer> stringIds = new HashMap<String,Integer>();
+
+    // the top-level decls added so far (see addDecl)
+    private List<Integer> decls = new ArrayList<Integer>();
+
+    /**
+     * Return the flat form of the given program; its root is the last
+     * node
+     */
+    public static FlatAst of(ProgramNode program) {
+        FlatAst ast = new FlatAst();
+        program.flatten(ast);
+        ast.trim();
+        return ast;
+    }
+
+    /**
+     * Add the given top-level decl; endProgram adds the root above the
+     * decls added so far
+     */
+    public void addDecl(DeclNode node) {
+        decls.add(node.flatten(this));
+    }
+
+    public void endProgram() {
+        add(PROGRAM, 0, 0, 0, add(DECL_LIST, 0, 0, 0, decls));
+        decls = null;
+        trim();
+    }
+
+    /**
+     * Add a node with the given kids and return its number
+     */
+    int add(int k, int lineNum, int charNum, int val, int... nodes) {
+        int n = newNode(k, lineNum, charNum, val);
+        for (int kid : nodes) {
+            addKid(kid);
+        }
+        kidStart[n + 1] = numKids;
+        return n;
+    }
+
+    int add(int k, int lineNum, int charNum, int val, List<Integer> nodes) {
+        int n = newNode(k, lineNum, charNum, val);
+        for (int kid : nodes) {
+            addKid(kid);
+        }
+        kidStart[n + 1] = numKids;
+        return n;
+    }
+
+    /**
+     * Return the index of the given string literal, adding it to the
+     * table if it is not there
+     */
+    int string(String lit) {
+        Integer id = stringIds.get(lit);
+        if (id == null) {
+            id = strings.size();
+            strings.add(lit);
+            stringIds.put(lit, id);
+        }
+        return id;
+    }
+
+    private int newNode(int k, int lineNum, int chr, int val) {
+        if (size == kind.length) {
+            int cap = 2 * size;
+            kind = Arrays.copyOf(kind, cap);
+            line = Arrays.copyOf(line, cap);
+            charNum = Arrays.copyOf(charNum, cap);
+            value = Arrays.copyOf(value, cap);
+            kidStart = Arrays.copyOf(kidStart, cap + 1);
+        }
+        int n = size++;
+        kind[n] = k;
+        line[n] = lineNum;
+        charNum[n] = chr;
+        value[n] = val;
+        kidStart[n] = numKids;
+        return n;
+    }
+
+    private void addKid(int kid) {
+        if (numKids == kids.length) {
+            kids = Arrays.copyOf(kids, 2 * numKids);
+        }
+        kids[numKids++] = kid;
+    }
+
+    /**
+     * Drop the unused ends of the arrays
+     */
+    private void trim() {
+        kind = Arrays.copyOf(kind, size);
+        line = Arrays.copyOf(line, size);
+        charNum = Arrays.copyOf(charNum, size);
+        value = Arrays.copyOf(value, size);
+        kidStart = Arrays.copyOf(kidStart, size + 1);
+        kids = Arrays.copyOf(kids, numKids);
+        stringIds = null;
+    }
+
+    /**
+     * Return the number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the root, i.e. the last node
+     */
+    public int root() {
+        return size - 1;
+    }
+
+    /**
+     * Return the size in bytes of the arrays
+     */
+    public long footprint() {
+        return 4L * (kind.length + line.length + charNum.length +
+                     value.length + kidStart.length + kids.length);
+    }
+
+    /**
+     * Return a cursor on the given node
+     */
+    public Cursor cursor(int node) {
+        return new Cursor().moveTo(node);
+    }
+
+    /**
+     * A position on a node, which can be moved
+     */
+    public class Cursor {
+        private int node;
+
+        public Cursor moveTo(int n) {
+            if (n < 0 || n >= size)
+                throw new IndexOutOfBoundsException("node " + n);
+            node = n;
+            return this;
+        }
+
+        public int node() {
+            return node;
+        }
+
+        public int kind() {
+            return kind[node];
+        }
+
+        public int lineNum() {
+            return line[node];
+        }
+
+        public int charNum() {
+            return charNum[node];
+        }
+
+        public int value() {
+            return value[node];
+        }
+
+        // the name of an ID
+        public String name() {
+            return Names.name(value[node]);
+        }
+
+        // the text of a STRING_LIT
+        public String string() {
+            return strings.get(value[node]);
+        }
+
+        public int numKids() {
+            return kidStart[node + 1] - kidStart[node];
+        }
+
+        // the node of kid k
+        public int kid(int k) {
+            if (k < 0 || k >= numKids())
+                throw new IndexOutOfBoundsException("kid " + k);
+            return kids[kidStart[node] + k];
+        }
+    }
+
+    /**
+     * What a walk does at each node
+     */
+    public interface Visitor {
+        // called before the kids of the node; they are not visited if
+        // it returns false
+        boolean enter(Cursor c);
+
+        // called after the kids of the node
+        void leave(Cursor c);
+    }
+
+    /**
+     * Visit the given node and its subtree, in pre-order; the nesting of
+     * the tree is kept on an explicit stack
+     */
+    public void walk(int node, Visitor v) {
+        Cursor c = new Cursor();
+        int[] nodes = new int[16];   // path from node to the current one
+        int[] next = new int[16];    // kid to visit next on the path
+        int depth = 0;
+        nodes[0] = node;
+        next[0] = v.enter(c.moveTo(node)) ? 0 : -1;
+        while (depth >= 0) {
+            c.moveTo(nodes[depth]);
+            int k = next[depth];
+            if (k >= 0 && k < c.numKids()) {
+                next[depth]++;
+                int kid = c.kid(k);
+                if (++depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, 2 * depth);
+                    next = Arrays.copyOf(next, 2 * depth);
+                }
+                nodes[depth] = kid;
+                next[depth] = v.enter(c.moveTo(kid)) ? 0 : -1;
+            } else {
+                v.leave(c);
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Return the AST of the given node and its subtree.  The nodes are
+     * built in order from the first leaf of the subtree, so that the kids
+     * of each one are built before it.
+     */
+    public ASTnode toAST(int node) {
+        Cursor c = cursor(node);
+        while (c.numKids() > 0) {
+            c.moveTo(c.kid(0));
+        }
+        int first = c.node();
+        ASTnode[] built = new ASTnode[node - first + 1];
+        for (int n = first; n <= node; n++) {
+            built[n - first] = build(c.moveTo(n), built, first);
+        }
+        return built[node - first];
+    }
+
+    /**
+     * Return the ProgramNode of the root
+     */
+    public ProgramNode toProgram() {
+        return (ProgramNode)toAST(root());
+    }
+
+    /**
+     * Build the node at c, whose kids are in built (node n at n - first)
+     */
+    @SuppressWarnings("unchecked")
+    private static ASTnode build(Cursor c, ASTnode[] built, int first) {
+        ASTnode[] k = new ASTnode[c.numKids()];
+        for (int j = 0; j < k.length; j++) {
+            k[j] = built[c.kid(j) - first];
+            built[c.kid(j) - first] = null;  // not needed any more
+        }
+        switch (c.kind()) {
+        case PROGRAM:
+            return new ProgramNode((DeclListNode)k[0]);
+        case DECL_LIST:
+            return new DeclListNode((List<DeclNode>)list(k));
+        case FORMALS_LIST:
+            return new FormalsListNode((List<FormalDeclNode>)list(k));
+        case FN_BODY:
+            return new FnBodyNode((DeclListNode)k[0], (StmtListNode)k[1]);
+        case STMT_LIST:
+            return new StmtListNode((List<StmtNode>)list(k));
+        case EXP_LIST:
+            return new ExpListNode((List<ExpNode>)list(k));
+        case VAR_DECL:
+            return new VarDeclNode((TypeNode)k[0], (IdNode)k[1], c.value());
+        case FN_DECL:
+            return new FnDeclNode((TypeNode)k[0], (IdNode)k[1],
+                                  (FormalsListNode)k[2], (FnBodyNode)k[3]);
+        case FORMAL_DECL:
+            return new FormalDeclNode((TypeNode)k[0], (IdNode)k[1]);
+        case STRUCT_DECL:
+            return new StructDeclNode((IdNode)k[0], (DeclListNode)k[1]);
+        case INT:
+            return new IntNode();
+        case BOOL:
+            return new BoolNode();
+        case VOID:
+            return new VoidNode();
+        case STRUCT:
+            return new StructNode((IdNode)k[0]);
+        case ASSIGN_STMT:
+            return new AssignStmtNode((AssignNode)k[0]);
+        case POST_INC:
+            return new PostIncStmtNode((ExpNode)k[0]);
+        case POST_DEC:
+            return new PostDecStmtNode((ExpNode)k[0]);
+        case READ:
+            return new ReadStmtNode((ExpNode)k[0]);
+        case WRITE:
+            return new WriteStmtNode((ExpNode)k[0]);
+        case IF:
+            return new IfStmtNode((ExpNode)k[0], (DeclListNode)k[1],
+                                  (StmtListNode)k[2]);
+        case IF_ELSE:
+            return new IfElseStmtNode((ExpNode)k[0], (DeclListNode)k[1],
+                                      (StmtListNode)k[2], (DeclListNode)k[3],
+                                      (StmtListNode)k[4]);
+        case WHILE:
+            return new WhileStmtNode((ExpNode)k[0], (DeclListNode)k[1],
+                                     (StmtListNode)k[2]);
+        case CALL_STMT:
+            return new CallStmtNode((CallExpNode)k[0]);
+        case RETURN:
+            return new ReturnStmtNode(k.length == 0 ? null : (ExpNode)k[0],
+                                      c.charNum(), c.lineNum());
+        case INT_LIT:
+            return new IntLitNode(c.lineNum(), c.charNum(), c.value());
+        case STRING_LIT:
+            return new StringLitNode(c.lineNum(), c.charNum(), c.string());
+        case TRUE:
+            return new TrueNode(c.lineNum(), c.charNum());
+        case FALSE:
+            return new FalseNode(c.lineNum(), c.charNum());
+        case ID:
+            return new IdNode(c.lineNum(), c.charNum(), c.value());
+        case DOT_ACCESS:
+            return new DotAccessExpNode((ExpNode)k[0], (IdNode)k[1]);
+        case ASSIGN:
+            return new AssignNode((ExpNode)k[0], (ExpNode)k[1]);
+        case CALL:
+            return new CallExpNode((IdNode)k[0], (ExpListNode)k[1]);
+        case UNARY_MINUS:
+            return new UnaryMinusNode((ExpNode)k[0]);
+        case NOT:
+            return new NotNode((ExpNode)k[0]);
+        case PLUS:
+            return new PlusNode((ExpNode)k[0], (ExpNode)k[1]);
+        case MINUS:
+            return new MinusNode((ExpNode)k[0], (ExpNode)k[1]);
+        case TIMES:
+            return new TimesNode((ExpNode)k[0], (ExpNode)k[1]);
+        case DIVIDE:
+            return new DivideNode((ExpNode)k[0], (ExpNode)k[1]);
+        case AND:
+            return new AndNode((ExpNode)k[0], (ExpNode)k[1]);
+        case OR:
+            return new OrNode((ExpNode)k[0], (ExpNode)k[1]);
+        case EQUALS:
+            return new EqualsNode((ExpNode)k[0], (ExpNode)k[1]);
+        case NOT_EQUALS:
+            return new NotEqualsNode((ExpNode)k[0], (ExpNode)k[1]);
+        case LESS:
+            return new LessNode((ExpNode)k[0], (ExpNode)k[1]);
+        case GREATER:
+            return new GreaterNode((ExpNode)k[0], (ExpNode)k[1]);
+        case LESS_EQ:
+            return new LessEqNode((ExpNode)k[0], (ExpNode)k[1]);
+        case GREATER_EQ:
+            return new GreaterEqNode((ExpNode)k[0], (ExpNode)k[1]);
+        default:
+            throw new IllegalStateException("bad node kind " + c.kind());
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static List list(ASTnode[] kids) {
+        return new LinkedList<ASTnode>(Arrays.asList(kids));
+    }
+
+    /**
+     * Takes the top-level decls from the parser (see ProgramStream) and
+     * only flattens them, so that the AST of the whole program is never
+     * built
+     */
+    static class Collector extends ProgramStream {
+        private FlatAst flat;
+
+        Collector(FlatAst flat) {
+            this.flat = flat;
+        }
+
+        public void add(DeclNode node) {
+            flat.addDecl(node);
+        }
+
+        public void finish() {
+            flat.endProgram();
+        }
+    }
+}
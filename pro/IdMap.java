@@ -0,0 +1,103 @@
+/**
+ * A map from identifier ids (see Names) to values, using open addressing
+ * with linear probing over parallel arrays.
+ */
+public class IdMap<V> {
+    private int[] keys;       // id + 1 (0 = empty slot)
+    private Object[] values;
+    private int size = 0;
+
+    public IdMap() {
+        keys = new int[8];
+        values = new Object[8];
+    }
+
+    /**
+     * Return the value of the given id, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int id) {
+        int mask = keys.length - 1;
+        for (int k = hash(id) & mask; keys[k] != 0; k = (k + 1) & mask) {
+            if (keys[k] == id + 1) {
+                return (V)values[k];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set the value of the given id (value must not be null)
+     */
+    public void put(int id, V value) {
+        int mask = keys.length - 1;
+        int k = hash(id) & mask;
+        while (keys[k] != 0) {
+            if (keys[k] == id + 1) {
+                values[k] = value;
+                return;
+            }
+            k = (k + 1) & mask;
+        }
+        keys[k] = id + 1;
+        values[k] = value;
+        size++;
+        if (2 * size > keys.length) {
+            resize();
+        }
+    }
+
+    /**
+     * Remove the given id from the map, if it is there
+     */
+    public void remove(int id) {
+        int mask = keys.length - 1;
+        int k = hash(id) & mask;
+        while (keys[k] != id + 1) {
+            if (keys[k] == 0) {
+                return;
+            }
+            k = (k + 1) & mask;
+        }
+        // shift back the entries of the same probe sequence
+        int hole = k;
+        for (k = (k + 1) & mask; keys[k] != 0; k = (k + 1) & mask) {
+            int home = hash(keys[k] - 1) & mask;
+            if (((k - home) & mask) >= ((k - hole) & mask)) {
+                keys[hole] = keys[k];
+                values[hole] = values[k];
+                hole = k;
+            }
+        }
+        keys[hole] = 0;
+        values[hole] = null;
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[2 * oldKeys.length];
+        values = new Object[2 * oldKeys.length];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int k = hash(oldKeys[j] - 1) & mask;
+                while (keys[k] != 0) {
+                    k = (k + 1) & mask;
+                }
+                keys[k] = oldKeys[j];
+                values[k] = oldValues[j];
+            }
+        }
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.*;
+
+// **********************************************************************
+// The Interpreter class holds the run-time state used when a checked
+// C-- program is executed directly from its AST (see the eval/exec
+// methods in ast.java) instead of being translated to MIPS.
+//
+// Frames are flat int arrays.  The slot of a parameter or local is its
+// offset from name analysis (SymInfo.getOffset()) divided by 4, so the
+// layout is the same one the MIPS code generator uses:
+//     slots 0 .. n-1     parameters
+//     slot  n            (return address in MIPS, unused here)
+//     slot  n+1          (saved frame pointer in MIPS, unused here)
+//     slots n+2 ..       locals, including those of nested blocks
+// Globals live in their own array and are given slots by
+// ProgramNode.interpret before execution starts.
+//
+// Input (cin) and output (cout) go through buffered streams.
+// Execution statistics are kept in the counters below and printed by
+// printStats.
+// **********************************************************************
+
+public class Interpreter {
+    // status returned by StmtNode.exec
+    public static final int NORMAL = 0;
+    public static final int RETURN = 1;
+
+    // storage for global variables
+    static int[] globals = new int[0];
+
+    // value of the last executed return statement
+    static int retVal = 0;
+
+    // buffered program input and output
+    static InputStream in = null;
+    static PrintWriter out = null;
+
+    // execution statistics
+    static long numStmts = 0;
+    static long numCalls = 0;
+    static int depth = 0;
+    static int maxDepth = 0;
+    static long startTime = 0;
+    static long endTime = 0;
+
+    // **********************************************************************
+    // start
+    //    reset the run-time state before executing a program
+    // **********************************************************************
+    public static void start(int numGlobals, InputStream input,
+                             OutputStream output) {
+        globals = new int[numGlobals];
+        retVal = 0;
+        in = new BufferedInputStream(input, 1 << 16);
+        out = new PrintWriter(new BufferedWriter(
+                                  new OutputStreamWriter(output), 1 << 16));
+        numStmts = 0;
+        numCalls = 0;
+        depth = 0;
+        maxDepth = 0;
+        startTime = System.nanoTime();
+    }
+
+    // **********************************************************************
+    // finish
+    //    flush the program output and stop the clock
+    // **********************************************************************
+    public static void finish() {
+        out.flush();
+        endTime = System.nanoTime();
+    }
+
+    // **********************************************************************
+    // enter / leave
+    //    bookkeeping for a function call
+    // **********************************************************************
+    static void enter() {
+        numCalls++;
+        if (++depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    static void leave() {
+        depth--;
+    }
+
+    // **********************************************************************
+    // readInt
+    //    read the next integer from the input (see CmmRuntime.readInt)
+    // **********************************************************************
+    static int readInt() {
+        return CmmRuntime.readInt(in);
+    }
+
+    // **********************************************************************
+    // decode
+    //    given:  a string literal as it appears in the source (with quotes
+    //            and escapes)
+    //    return: the characters it denotes
+    // **********************************************************************
+    static String decode(String lit) {
+        StringBuilder sb = new StringBuilder(lit.length());
+        for (int k = 1; k < lit.length() - 1; k++) {
+            char ch = lit.charAt(k);
+            if (ch == '\\') {
+                ch = lit.charAt(++k);
+                switch (ch) {
+                    case 'n': ch = '\n'; break;
+                    case 't': ch = '\t'; break;
+                    default:  break;   // ' " ? and \ stand for themselves
+                }
+            }
+            sb.append(ch);
+        }
+        return sb.toString();
+    }
+
+    // **********************************************************************
+    // printStats
+    //    write the execution statistics of the last run
+    // **********************************************************************
+    public static void printStats(PrintStream p) {
+        double ms = (endTime - startTime) / 1e6;
+        p.println("--- execution statistics ---");
+        p.println("statements executed: " + numStmts);
+        p.println("function calls:      " + numCalls);
+        p.println("max call depth:      " + maxDepth);
+        p.println("globals:             " + globals.length);
+        p.printf ("execution time:      %.3f ms%n", ms);
+    }
+}
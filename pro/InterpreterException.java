@@ -0,0 +1,12 @@
+/**
+ * An exception class for run-time errors detected while a C-- program is
+ * being executed by the interpreter (e.g. division by zero or bad input).
+ * Bad input is reported with it by CmmRuntime too.
+ */
+public class InterpreterException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public InterpreterException(String msg) {
+        super(msg);
+    }
+}
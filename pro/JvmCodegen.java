@@ -0,0 +1,101 @@
+// **********************************************************************
+// The JvmCodegen class holds the state and helpers of the JVM backend,
+// the counterpart of Codegen for the jvmGen methods in ast.java.
+//
+// A C-- program becomes one public class:
+//     globals       public static int fields  _<name>
+//     functions     public static methods     _<name>, all params int,
+//                   returning int (int/bool functions) or void
+//     main(String[]) calls _main and flushes the output
+// Ints and bools are both JVM ints (bools are 0 or 1).  A parameter or
+// local uses the JVM local slot SymInfo.getOffset() / 4, the same slot
+// the interpreter uses.  cin and cout call the static methods of
+// CmmRuntime.
+// **********************************************************************
+
+public class JvmCodegen {
+    public static final String RUNTIME = "CmmRuntime";
+
+    // class being generated and code of the current method
+    public static ClassFile cf = null;
+    public static Bytecode code = null;
+
+    // **********************************************************************
+    // start
+    //    begin a new class with the given name
+    // **********************************************************************
+    public static void start(String className) {
+        cf = new ClassFile(className, "java/lang/Object");
+        code = null;
+    }
+
+    // **********************************************************************
+    // finish
+    //    add the Java entry point and return the class-file contents
+    // **********************************************************************
+    public static byte[] finish(FnInfo mainInfo) {
+        code = cf.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC,
+                            "main", "([Ljava/lang/String;)V", 1);
+        boolean returnsValue = !mainInfo.getReturnType().isVoidType();
+        code.invokestatic(cf.name(), "_main", descriptor(mainInfo), 0,
+                          returnsValue);
+        if (returnsValue) {
+            code.op(ClassFile.POP, -1);
+        }
+        code.invokestatic(RUNTIME, "flush", "()V", 0, false);
+        code.op(ClassFile.RETURN, 0);
+        code = null;
+        return cf.toBytes();
+    }
+
+    // **********************************************************************
+    // descriptor
+    //    return the method descriptor of a C-- function
+    // **********************************************************************
+    public static String descriptor(FnInfo info) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int k = 0; k < info.getNumParams(); k++) {
+            sb.append('I');
+        }
+        sb.append(')');
+        sb.append(info.getReturnType().isVoidType() ? 'V' : 'I');
+        return sb.toString();
+    }
+
+    // **********************************************************************
+    // genCompare
+    //    given:  an if_icmp<cond> opcode, with both operands on the stack
+    //    do:     leave 1 on the stack if <cond> holds, 0 otherwise
+    // **********************************************************************
+    public static void genCompare(int opcode) {
+        Label trueLab = new Label();
+        Label exitLab = new Label();
+        code.branch(opcode, trueLab);
+        code.iconst(0);
+        code.branch(ClassFile.GOTO, exitLab);
+        code.placeLabel(trueLab);
+        code.iconst(1);
+        code.placeLabel(exitLab);
+    }
+
+    // **********************************************************************
+    // className
+    //    return a valid class name derived from a file name
+    // **********************************************************************
+    public static String className(String fileName) {
+        String base = new java.io.File(fileName).getName();
+        int dot = base.indexOf('.');
+        if (dot > 0) {
+            base = base.substring(0, dot);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < base.length(); k++) {
+            char ch = base.charAt(k);
+            sb.append(Character.isJavaIdentifierPart(ch) ? ch : '_');
+        }
+        if (sb.length() == 0 || !Character.isJavaIdentifierStart(sb.charAt(0))) {
+            sb.insert(0, '_');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.*;
+import java.lang.reflect.*;
+
+/**
+ * JvmLauncher loads a class produced by the JVM backend and runs its main
+ * method.  It can be used from Main (-jvmrun) or on its own:
+ *
+ *     java JvmLauncher prog.class
+ */
+public class JvmLauncher extends ClassLoader {
+
+    public JvmLauncher() {
+        super(JvmLauncher.class.getClassLoader());
+    }
+
+    /**
+     * Define the class given by its name and class-file contents, and run
+     * its main method.
+     */
+    public static void run(String name, byte[] bytes) {
+        JvmLauncher loader = new JvmLauncher();
+        try {
+            Class<?> c = loader.defineClass(name, bytes, 0, bytes.length);
+            Method main = c.getMethod("main", String[].class);
+            main.invoke(null, (Object)new String[0]);
+        } catch (InvocationTargetException ex) {
+            CmmRuntime.flush();
+            Throwable cause = ex.getCause();
+            if (cause instanceof ArithmeticException) {
+                System.err.println("***RUNTIME ERROR*** division by zero");
+            } else if (cause instanceof StackOverflowError) {
+                System.err.println("***RUNTIME ERROR*** stack overflow");
+            } else if (cause instanceof InterpreterException) {
+                System.err.println("***RUNTIME ERROR*** " + cause.getMessage());
+            } else {
+                System.err.println("***RUNTIME ERROR*** " + cause);
+            }
+        } catch (ReflectiveOperationException ex) {
+            System.err.println("Cannot run class " + name + ": " + ex);
+        } catch (LinkageError ex) {
+            // the class is rejected when it is defined or verified
+            System.err.println("Cannot run class " + name + ": " + ex);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 || !args[0].endsWith(".class")) {
+            System.err.println("usage: java JvmLauncher file.class");
+            System.exit(-1);
+        }
+        File file = new File(args[0]);
+        byte[] bytes = new byte[(int)file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(bytes);
+        in.close();
+        String name = file.getName();
+        run(name.substring(0, name.length() - ".class".length()), bytes);
+    }
+}
@@ -1,4 +1,5 @@
 import java.io.*;
+import java.util.*;
 import java_cup.runtime.*;
 
 /**
@@ -7,17 +8,89 @@ import java_cup.runtime.*;
  * The program reads a in-file, creates a scanner and a parser, and
  * calls the parser.  If the parse is successful, the AST is unparsed
  * in a corresponding out-file
+ *
+ * Usage: java Main [options] [file.cmm ...]
+ * If no file is given, file names are read from the console until "stop".
+ * Options:
+ *     -run     execute the program with the AST interpreter instead of
+ *              generating MIPS code (cin/cout use stdin/stdout)
+ *     -stats   print execution statistics after -run
+ *     -jvm     generate a Java class file (name.class) instead of MIPS code
+ *     -jvmrun  generate a Java class and run it right away
+ *     -syscallio  generated MIPS code does a syscall for every cin/cout
+ *              instead of using the buffered I/O run-time routines
+ *     -j N     analyze functions and generate their MIPS code on N threads
+ *              (default: number of processors; the output is the same)
+ *     -onepass  do the name analysis and the type checking of a function
+ *              in one walk over its body (the messages are the same)
+ *     -flat    keep the parsed program in the flat form of FlatAst, into
+ *              which each top-level declaration is put as soon as it is
+ *              parsed; the MIPS code is then generated from the AST of one
+ *              declaration at a time, while -run and -jvm rebuild the AST
+ *              of the whole program (the output is the same)
+ *     -stream  analyze each top-level declaration and write its MIPS code
+ *              as soon as it is parsed, and then drop it, so that memory
+ *              does not grow with the size of the program (ignored with
+ *              -run and -jvm; the output is the same, except that the
+ *              messages before a syntax error are printed)
+ *     -pipe    scan the program on a thread of its own, ahead of the
+ *              parser (see TokenPipe; the output is the same)
  */
 
 public class Main {
+    private static boolean interpret = false;
+    private static boolean stats = false;
+    private static boolean jvm = false;
+    private static boolean jvmRun = false;
+    private static boolean onePass = false;
+    private static boolean flat = false;
+    private static boolean stream = false;
+    private static boolean pipe = false;
+
     public static void main(String[] args) throws IOException { // may be thrown by the scanner
-        java.util.Scanner console = new java.util.Scanner(System.in);
+        List<String> files = new ArrayList<String>();
+        for (int k = 0; k < args.length; k++) {
+            String arg = args[k];
+            if (arg.equals("-run")) {
+                interpret = true;
+            } else if (arg.equals("-stats")) {
+                stats = true;
+            } else if (arg.equals("-jvm")) {
+                jvm = true;
+            } else if (arg.equals("-j") && k + 1 < args.length) {
+                Codegen.threads = Math.max(1, Integer.parseInt(args[++k]));
+            } else if (arg.equals("-onepass")) {
+                onePass = true;
+            } else if (arg.equals("-flat")) {
+                flat = true;
+            } else if (arg.equals("-stream")) {
+                stream = true;
+            } else if (arg.equals("-pipe")) {
+                pipe = true;
+            } else if (arg.equals("-syscallio")) {
+                Codegen.bufferedIO = false;
+            } else if (arg.equals("-jvmrun")) {
+                jvm = true;
+                jvmRun = true;
+            } else {
+                files.add(arg);
+            }
+        }
+
+        java.util.Scanner console = null;
+        Iterator<String> it = files.iterator();
         String stop = "stop";
-        String filename = readFileName(console,stop);
-        String[] str = filename.split(".cmm");
-        String name = str[0];
-        
+        String filename;
+        if (files.isEmpty()) {
+            console = new java.util.Scanner(System.in);
+            filename = readFileName(console,stop);
+        } else {
+            filename = it.next();
+        }
+
         while ( ! filename.equals(stop) ) {
+            String[] str = filename.split(".cmm");
+            String name = str[0];
             FileReader inFile = null;
             try {
                 inFile = new FileReader(filename);
@@ -26,26 +99,46 @@ public class Main {
                 System.exit(-1);
             }
 
-            try {
-                Codegen.p = new PrintWriter(name + ".asm");
-            } catch (FileNotFoundException ex) {
-                System.err.println("File " + filename + ".out could not be opened for writing.");
-                System.exit(-1);
+            if (!interpret && !jvm) {
+                try {
+                    Codegen.p = new PrintWriter(name + ".asm");
+                } catch (FileNotFoundException ex) {
+                    System.err.println("File " + filename + ".out could not be opened for writing.");
+                    System.exit(-1);
+                }
             }
             try {
-                processInputFile(inFile);
+                processInputFile(inFile, name);
             }
             catch (SyntaxErrorException see) {
                 System.out.println("syntax error: parsing aborted");
             }
             inFile.close();
-            Codegen.p.close();
-            filename = readFileName(console,stop);
+            if (!interpret && !jvm) {
+                Codegen.p.close();
+            }
+            if (console != null) {
+                filename = readFileName(console,stop);
+            } else {
+                filename = it.hasNext() ? it.next() : stop;
+            }
         }
     }
 
-    private static void processInputFile(FileReader inFile) {
-        CmmParser P = new CmmParser(new Yylex(inFile));
+    private static void processInputFile(FileReader inFile, String name) {
+        Names.reset();
+        java_cup.runtime.Scanner scanner = new Yylex(inFile);
+        if (pipe) {
+            scanner = new TokenPipe(scanner);
+        }
+        CmmParser P = new CmmParser(scanner);
+        FlatAst flatAst = null;
+        if (stream && !interpret && !jvm) {
+            P.stream = new ProgramStream();
+        } else if (flat) {
+            flatAst = new FlatAst();
+            P.stream = new FlatAst.Collector(flatAst);
+        }
         Symbol root = null; // the parser will return a Symbol whose value
                             // field is the translation of the root nonterminal
                             // (i.e., of the nonterminal "program")
@@ -59,14 +152,99 @@ public class Main {
             System.exit(-1);
         }
         ProgramNode astRoot = (ProgramNode) root.value;
-        astRoot.nameAnalysis();  // perform name analysis
-        astRoot.typeCheck();     // type checking
+        if (flatAst != null) {
+            P.stream.finish();
+            if (!interpret && !jvm) {
+                P.stream = new ProgramStream();
+                FlatAst.Cursor decls = flatAst.cursor(flatAst.root());
+                decls.moveTo(decls.kid(0));
+                for (int k = 0; k < decls.numKids(); k++) {
+                    P.stream.add((DeclNode)flatAst.toAST(decls.kid(k)));
+                }
+            } else {
+                P.stream = null;
+                astRoot = flatAst.toProgram();
+            }
+        }
+        if (P.stream != null) {
+            P.stream.finish();
+            if (ErrMsg.getErr()) {
+                discardCode(name);
+            }
+            return;
+        }
+        if (onePass) {
+            astRoot.analyze();   // name analysis and type checking at once
+        } else {
+            astRoot.nameAnalysis();  // perform name analysis
+            astRoot.typeCheck();     // type checking
+        }
         //astRoot.unparse(outFile, 0); // perform the unparsing
         if(!ErrMsg.getErr()){
-            astRoot.codeGen();
+            if (interpret) {
+                runProgram(astRoot);
+            } else if (jvm) {
+                genClass(astRoot, name);
+            } else {
+                astRoot.codeGen();
+            }
         }
     }
-    
+
+    /**
+     * To empty the MIPS code file of a program with errors, since the code
+     * of its first decls was written while streaming
+     */
+    private static void discardCode(String name) {
+        Codegen.p.close();
+        try {
+            Codegen.p = new PrintWriter(name + ".asm");
+        } catch (FileNotFoundException ex) {
+            System.err.println("File " + name + ".asm could not be opened for writing.");
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * To execute a checked program with the interpreter
+     */
+    private static void runProgram(ProgramNode astRoot) {
+        try {
+            astRoot.interpret(System.in, System.out);
+        } catch (InterpreterException ex) {
+            System.err.println("***RUNTIME ERROR*** " + ex.getMessage());
+        } catch (StackOverflowError err) {
+            System.err.println("***RUNTIME ERROR*** stack overflow");
+        }
+        if (stats) {
+            Interpreter.printStats(System.err);
+        }
+    }
+
+    /**
+     * To generate (and possibly run) a Java class for a checked program
+     */
+    private static void genClass(ProgramNode astRoot, String name) {
+        String className = JvmCodegen.className(name);
+        byte[] bytes = astRoot.jvmGen(className);
+        if (ErrMsg.getErr()) {
+            return;
+        }
+        File classFile = new File(new File(name).getAbsoluteFile().getParentFile(),
+                                  className + ".class");
+        try {
+            FileOutputStream out = new FileOutputStream(classFile);
+            out.write(bytes);
+            out.close();
+        } catch (IOException ex) {
+            System.err.println("File " + classFile + " could not be written.");
+            System.exit(-1);
+        }
+        if (jvmRun) {
+            JvmLauncher.run(className, bytes);
+        }
+    }
+
     /**
      * To read a valid input file name or the keyword 'stop' from the user
      */
@@ -76,7 +254,7 @@ public class Main {
             System.out.print("file name? ");
             filename = input.nextLine().trim();
             if ( ! filename.equals(stop) ) {
-                File file = new File(filename);	
+                File file = new File(filename);
                 if ( ! file.exists() ) {
                     System.out.println(filename + " not found");
                     filename = null;
@@ -0,0 +1,150 @@
+import java.util.*;
+
+/**
+ * The Names class interns the identifiers of the program being compiled.
+ *
+ * Each distinct name gets a dense int id (0, 1, 2, ...) the first time the
+ * scanner sees it, and one String is kept for it.  IdNode and SymTable
+ * work with the ids, so that resolving a name only compares ints.
+ *
+ * intern is only called while scanning (and by the String versions of
+ * the SymTable methods); the analysis of function bodies, which may run
+ * on several threads, only reads the table.  The scanner may run on a
+ * thread of its own (see TokenPipe) while the ids it has passed on are
+ * used, so names is volatile and a new id is stored before a grown array
+ * is published.
+ */
+public class Names {
+    // name of each id
+    private static volatile String[] names = new String[256];
+    private static int numNames = 0;
+
+    // open-addressing hash table of ids + 1 (0 = empty slot)
+    private static int[] slots = new int[512];
+
+    /**
+     * Forget all the names (before compiling another program)
+     */
+    public static void reset() {
+        names = new String[256];
+        numNames = 0;
+        slots = new int[512];
+    }
+
+    /**
+     * Return the id of the name buf[start..start+len), adding it if it is
+     * new; no String is made for a name already seen
+     */
+    public static int intern(char[] buf, int start, int len) {
+        int mask = slots.length - 1;
+        int k = hash(buf, start, len) & mask;
+        while (slots[k] != 0) {
+            int id = slots[k] - 1;
+            if (sameName(names[id], buf, start, len)) {
+                return id;
+            }
+            k = (k + 1) & mask;
+        }
+        return add(new String(buf, start, len), k);
+    }
+
+    /**
+     * Return the id of the given name, adding it if it is new
+     */
+    public static int intern(String name) {
+        int id = lookup(name);
+        if (id >= 0) {
+            return id;
+        }
+        int mask = slots.length - 1;
+        int k = hash(name) & mask;
+        while (slots[k] != 0) {
+            k = (k + 1) & mask;
+        }
+        return add(name, k);
+    }
+
+    /**
+     * Return the id of the given name, or -1 if it was never interned
+     */
+    public static int lookup(String name) {
+        int mask = slots.length - 1;
+        int k = hash(name) & mask;
+        while (slots[k] != 0) {
+            int id = slots[k] - 1;
+            if (names[id].equals(name)) {
+                return id;
+            }
+            k = (k + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the name of the given id
+     */
+    public static String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Return the number of names (ids are 0 .. size()-1)
+     */
+    public static int size() {
+        return numNames;
+    }
+
+    private static int add(String name, int slot) {
+        int id = numNames++;
+        if (id == names.length) {
+            String[] grown = Arrays.copyOf(names, 2 * id);
+            grown[id] = name;
+            names = grown;
+        } else {
+            names[id] = name;
+        }
+        slots[slot] = id + 1;
+        if (2 * numNames > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private static void rehash() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int id = 0; id < numNames; id++) {
+            int k = hash(names[id]) & mask;
+            while (slots[k] != 0) {
+                k = (k + 1) & mask;
+            }
+            slots[k] = id + 1;
+        }
+    }
+
+    // same values as String.hashCode, spread over the low bits
+    private static int hash(char[] buf, int start, int len) {
+        int h = 0;
+        for (int k = start; k < start + len; k++) {
+            h = 31 * h + buf[k];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameName(String name, char[] buf, int start, int len) {
+        if (name.length() != len) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (name.charAt(k) != buf[start + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
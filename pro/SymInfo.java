@@ -45,6 +45,13 @@ public class SymInfo {
     public boolean isGlobal(){
         return this.isGlobalVar;
     }
+    
+    /**
+     * Return the size in bytes of a variable with this symbol.
+     */
+    public int size() {
+        return 4;
+    }
 }
 
 /**
@@ -57,9 +64,10 @@ class FnInfo extends SymInfo {
     private Type returnType;
     private int numParams;
     private List<Type> paramTypes;
+    private FnDeclNode decl;
     
     public FnInfo(Type type, int numparams) {
-        super(new FnType());
+        super(Type.FN);
         returnType = type;
         numParams = numparams;
     }
@@ -79,6 +87,15 @@ class FnInfo extends SymInfo {
     public List<Type> getParamTypes() {
         return paramTypes;
     }
+    
+    //Declaration of the function (used by the interpreter to make calls)
+    public void setDecl(FnDeclNode decl) {
+        this.decl = decl;
+    }
+    
+    public FnDeclNode getDecl() {
+        return decl;
+    }
 
     public String toString() {
         // make list of formals
@@ -106,31 +123,73 @@ class StructInfo extends SymInfo {
     private IdNode structType;  // name of the struct type
     
     public StructInfo(IdNode id) {
-        super(new StructType(id));
+        super(((StructDefInfo)id.sym()).getStructType());
         structType = id;
     }
 
     public IdNode getStructType() {
         return structType;
     }    
+    
+    public int size() {
+        return ((StructDefInfo)structType.sym()).getSize();
+    }
 }
 
 /**
  * The StructDefInfo class is a subclass of the Sym class just for the 
  * definition of a struct type. 
  * Each StructDefInfo contains a symbol table to hold information about its 
- * fields.
+ * fields, and its layout: the size of the struct and the offset of each
+ * field (by field number, i.e. the order of the declarations).  The
+ * SymInfo of a field holds its offset too.
  */
 class StructDefInfo extends SymInfo {
+    // alignment of fields and structs, in bytes
+    public static final int ALIGN = 4;
+    
     // new fields
     private SymTable symTab;
+    private StructType structType;  // type of the variables of this struct
+    private int size;
+    private int[] offsets;
     
-    public StructDefInfo(SymTable table) {
-        super(new StructDefType());
+    public StructDefInfo(SymTable table, IdNode id) {
+        super(Type.STRUCTDEF);
         symTab = table;
+        structType = new StructType(id);
+    }
+    
+    /**
+     * Lay out the given fields, in order: each one gets the next offset
+     * that is a multiple of its alignment.
+     */
+    public void layout(List<SymInfo> fields) {
+        offsets = new int[fields.size()];
+        int offset = 0;
+        for (int k = 0; k < offsets.length; k++) {
+            SymInfo field = fields.get(k);
+            offset = (offset + ALIGN - 1) / ALIGN * ALIGN;
+            offsets[k] = offset;
+            field.setOffset(offset);
+            offset += field.size();
+        }
+        size = (offset + ALIGN - 1) / ALIGN * ALIGN;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public int getFieldOffset(int field) {
+        return offsets[field];
     }
 
     public SymTable getSymTable() {
         return symTab;
     }
+
+    public StructType getStructType() {
+        return structType;
+    }
 }
@@ -1,72 +1,169 @@
-
 import java.util.*;
 
 /**
  * A class for Symbol Table
+ *
+ * Names are given by their ids (see Names); the methods taking a String
+ * look the id up first.
+ *
+ * All the scopes share one map from a name to the chain of its bindings,
+ * innermost first.  Each scope is a segment of an undo log holding the
+ * names declared in it, so that addScope and the lookups take constant
+ * time, and removeScope takes time proportional to the number of
+ * declarations in the scope it removes.
  */
 public class SymTable {
 
-    private List<Map<String,SymInfo>> bindings;
+    // innermost binding of each name
+    private IdMap<Binding> table = new IdMap<Binding>();
+
+    // names declared in each scope, outermost scope first, and the
+    // position in the log where each scope starts
+    private int[] log = new int[8];
+    private int logSize = 0;
+    private int[] marks = new int[8];
+    private int depth = 0;  // number of scopes
+
+    // the outermost scope as a persistent Env (not kept up to date in a
+    // view, whose outermost scope is base)
+    private Env env = new Env();
+
+    // for a view: its read-only outermost scopes
+    private Env base = null;
 
     /**
      * Create a Symbol Table with one empty scope
      */
     public SymTable() {
-        bindings = new ArrayList<Map<String,SymInfo>>();
-        bindings.add(new HashMap<String,SymInfo>());
+        addScope();
+    }
+
+    /**
+     * Create a Symbol Table over the given Env: its scopes are read-only
+     * and count as one scope (the outermost) of this table
+     */
+    public SymTable(Env base) {
+        this.base = base;
+    }
+
+    /**
+     * Return a view of the outermost scope of this table as it is now:
+     * a table whose only scope is read-only, and in which declarations
+     * added to this table later are not visible.  Scopes added to the
+     * view are private to it, so views can be used by different threads.
+     */
+    public SymTable view() {
+        if ( depth == 0 || base != null )
+            throw new EmptySymTableException();
+        return new SymTable(env);
+    }
+
+    /**
+     * Return the contents of this table as an Env; it takes time
+     * proportional to the number of declarations in the scopes that are
+     * not the outermost one
+     */
+    public Env snapshot() {
+        Env e = base;
+        int d = 1;
+        if ( base == null ) {
+            if ( depth == 0 )
+                throw new EmptySymTableException();
+            e = env;
+            d = 2;
+        }
+        for ( ; d <= depth; d++ ) {
+            e = e.addScope();
+            for ( Map.Entry<Integer,SymInfo> entry : scopeById(d) )
+                e = e.addDecl(entry.getKey(), entry.getValue());
+        }
+        return e;
     }
 
     /**
      * Add a declaration (i.e. a pair [name,info]) in the inner scope
      */
     public void addDecl(String name, SymInfo info) {
-        if ( name == null || info == null )
+        if ( name == null )
             throw new NullPointerException();
-        if ( bindings.isEmpty() )
+        addDecl(Names.intern(name), info);
+    }
+
+    public void addDecl(int id, SymInfo info) {
+        if ( info == null )
+            throw new NullPointerException();
+        if ( depth == 0 )
             throw new EmptySymTableException();
-        Map<String,SymInfo> map = bindings.get(0);
-        if ( map.get(name) != null )
+        Binding b = table.get(id);
+        if ( b != null && b.depth == depth )
             throw new DuplicateSymException();
-        map.put(name, info);
+        table.put(id, new Binding(info, depth, b));
+        if ( depth == 1 && base == null )
+            env = env.addDecl(id, info);
+        if ( logSize == log.length )
+            log = Arrays.copyOf(log, 2 * logSize);
+        log[logSize++] = id;
     }
 
     /**
      * Add a new inner scope
      */
     public void addScope() {
-        bindings.add(0, new HashMap<String,SymInfo>());
+        if ( depth == marks.length )
+            marks = Arrays.copyOf(marks, 2 * depth);
+        marks[depth++] = logSize;
     }
 
     /**
      * Lookup for 'name' in the inner scope
      */
     public SymInfo lookupLocal(String name) {
-        if ( bindings.isEmpty() )
-            throw new EmptySymTableException();
-        return bindings.get(0).get(name);
+        return lookupLocal(Names.lookup(name));
+    }
+
+    public SymInfo lookupLocal(int id) {
+        if ( depth == 0 ) {
+            if ( base == null )
+                throw new EmptySymTableException();
+            return base.lookupLocal(id);
+        }
+        Binding b = table.get(id);
+        return b != null && b.depth == depth ? b.info : null;
     }
 
     /**
-     * Lookup for 'name' sequentially in all scopes from inner to outer
+     * Lookup for 'name' in all scopes from inner to outer
      */
     public SymInfo lookupGlobal(String name) {
-        if ( bindings.isEmpty() )
+        return lookupGlobal(Names.lookup(name));
+    }
+
+    public SymInfo lookupGlobal(int id) {
+        if ( depth == 0 && base == null )
             throw new EmptySymTableException();
-        for ( Map<String,SymInfo> map : bindings )  {
-            SymInfo info = map.get(name);
-            if ( info != null )
-                return info;
-        }
-        return null;
+        Binding b = table.get(id);
+        if ( b != null )
+            return b.info;
+        return base == null ? null : base.lookupGlobal(id);
     }
 
     /**
      * Remove the inner scope
      */
     public void removeScope() {
-        if ( bindings.isEmpty() )
+        if ( depth == 0 )
             throw new EmptySymTableException();
-        bindings.remove(0);
+        int mark = marks[--depth];
+        while ( logSize > mark ) {
+            int id = log[--logSize];
+            Binding b = table.get(id);
+            if ( b.next == null )
+                table.remove(id);
+            else
+                table.put(id, b.next);
+        }
+        if ( depth == 0 )
+            env = new Env();
     }
 
     /**
@@ -74,12 +171,54 @@ public class SymTable {
      */
     public void print() {
         System.out.print("\nSym Table\n");
-        for ( Map<String,SymInfo> map : bindings )
-            System.out.println(map);
+        for ( int d = depth; d >= 1; d-- )
+            System.out.println(scope(d));
         System.out.println();
     }
 
+    /**
+     * Return the bindings of the scope at the given depth as a map
+     */
+    private Map<String,SymInfo> scope(int d) {
+        Map<String,SymInfo> map = new HashMap<String,SymInfo>();
+        for ( Map.Entry<Integer,SymInfo> entry : scopeById(d) )
+            map.put(Names.name(entry.getKey()), entry.getValue());
+        return map;
+    }
+
+    /**
+     * Return the bindings of the scope at the given depth, in the order
+     * they were added
+     */
+    private List<Map.Entry<Integer,SymInfo>> scopeById(int d) {
+        List<Map.Entry<Integer,SymInfo>> list =
+            new ArrayList<Map.Entry<Integer,SymInfo>>();
+        int end = d < depth ? marks[d] : logSize;
+        for ( int k = marks[d - 1]; k < end; k++ ) {
+            Binding b = table.get(log[k]);
+            while ( b.depth > d )
+                b = b.next;
+            list.add(new AbstractMap.SimpleEntry<Integer,SymInfo>(log[k], b.info));
+        }
+        return list;
+    }
+
     public int size(){
-        return bindings.size();
+        return depth + (base == null ? 0 : 1);
+    }
+
+    /**
+     * A binding of a name, linked to the binding it hides
+     */
+    private static class Binding {
+        SymInfo info;
+        int depth;    // depth of the scope of the declaration
+        Binding next; // binding of the same name in an outer scope
+
+        Binding(SymInfo info, int depth, Binding next) {
+            this.info = info;
+            this.depth = depth;
+            this.next = next;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,190 @@
+import java_cup.runtime.*;
+
+/**
+ * A scanner that runs another one (a Yylex) on a thread of its own, ahead
+ * of the parser, so that scanning overlaps with parsing and the passes
+ * that run during the parse (see ProgramStream).
+ *
+ * The lexer thread decodes each token into a slot of a ring buffer: its
+ * kind (see sym), line and char numbers, and its value (the id of an ID,
+ * see Names, or the value of an INTLITERAL; the text of a STRINGLITERAL
+ * goes in a slot of its own).  next_token makes a Symbol again from the
+ * slot.  There is one producer and one consumer, so the ring needs no
+ * lock: each side only writes its own counter (volatile), and waits for
+ * the other one by spinning and then yielding when the ring is full or
+ * empty.  The producer publishes its counter every BATCH tokens, or when
+ * it has to wait, or at the end of the input.
+ *
+ * The messages of the scanner are collected on the lexer thread and
+ * printed when the token after them is taken, so they are printed at the
+ * same point as with the scanner run by the parser itself.
+ */
+public class TokenPipe implements Scanner {
+    private static final int SIZE = 1024;  // slots (a power of 2)
+    private static final int MASK = SIZE - 1;
+    private static final int BATCH = 32;
+    private static final int SPINS = 100;
+
+    // the slots
+    private final int[] kind = new int[SIZE];
+    private final int[] line = new int[SIZE];
+    private final int[] charNum = new int[SIZE];
+    private final int[] value = new int[SIZE];
+    private final String[] text = new String[SIZE];
+    private final ErrMsg[] msgs = new ErrMsg[SIZE];  // null if none
+
+    // number of tokens written by the producer and taken by the consumer
+    private volatile long written = 0;
+    private volatile long taken = 0;
+
+    // what stopped the producer before the end of the input, if anything
+    private volatile Throwable failure = null;
+
+    private final Scanner scanner;
+    private Thread lexer = null;
+    private boolean atEOF = false;  // EOF was taken (the parser asks again)
+
+    /**
+     * Create a pipe for the given scanner; it starts on the first call of
+     * next_token
+     */
+    public TokenPipe(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /**
+     * Return the next token, waiting for the lexer thread if needed
+     */
+    public Symbol next_token() throws Exception {
+        if (atEOF) {
+            return new Symbol(sym.EOF);
+        }
+        if (lexer == null) {
+            start();
+        }
+        long t = taken;
+        int spins = 0;
+        while (written == t) {
+            if (failure != null && written == t) {
+                throw rethrow(failure);
+            }
+            if (++spins > SPINS) {
+                Thread.yield();
+            }
+        }
+        int k = (int)t & MASK;
+        if (msgs[k] != null) {
+            msgs[k].print();
+            msgs[k] = null;
+        }
+        Symbol s = token(kind[k], line[k], charNum[k], value[k], text[k]);
+        text[k] = null;
+        atEOF = s.sym == sym.EOF;
+        taken = t + 1;
+        return s;
+    }
+
+    /**
+     * Make the Symbol of a decoded token
+     */
+    private static Symbol token(int kind, int line, int ch, int val,
+                                String str) {
+        switch (kind) {
+        case sym.EOF:
+            return new Symbol(sym.EOF);
+        case sym.ID:
+            return new Symbol(kind, new IdTokenVal(line, ch, val));
+        case sym.INTLITERAL:
+            return new Symbol(kind, new IntLitTokenVal(line, ch, val));
+        case sym.STRINGLITERAL:
+            return new Symbol(kind, new StrLitTokenVal(line, ch, str));
+        default:
+            return new Symbol(kind, new TokenVal(line, ch));
+        }
+    }
+
+    private void start() {
+        lexer = new Thread(new Runnable() {
+            public void run() {
+                produce();
+            }
+        }, "lexer");
+        lexer.setDaemon(true);
+        lexer.start();
+    }
+
+    /**
+     * The loop of the lexer thread
+     */
+    private void produce() {
+        long w = 0;       // tokens written, published or not
+        long free = 0;    // slots known to be free up to this count
+        ErrMsg log = new ErrMsg();
+        try {
+            while (true) {
+                ErrMsg.collect(log);
+                Symbol s;
+                try {
+                    s = scanner.next_token();
+                } finally {
+                    ErrMsg.collect(null);
+                }
+                if (w == free) {
+                    written = w;  // publish before waiting
+                    free = waitForSlot(w);
+                }
+                int k = (int)w & MASK;
+                kind[k] = s.sym;
+                if (s.value instanceof TokenVal) {
+                    TokenVal tok = (TokenVal)s.value;
+                    line[k] = tok.linenum;
+                    charNum[k] = tok.charnum;
+                    if (tok instanceof IdTokenVal) {
+                        value[k] = ((IdTokenVal)tok).id;
+                    } else if (tok instanceof IntLitTokenVal) {
+                        value[k] = ((IntLitTokenVal)tok).intVal;
+                    } else if (tok instanceof StrLitTokenVal) {
+                        text[k] = ((StrLitTokenVal)tok).strVal;
+                    }
+                }
+                if (!log.isEmpty()) {
+                    msgs[k] = log;
+                    log = new ErrMsg();
+                }
+                w++;
+                if (s.sym == sym.EOF) {
+                    written = w;
+                    return;
+                }
+                if (w % BATCH == 0) {
+                    written = w;
+                }
+            }
+        } catch (Throwable ex) {
+            written = w;
+            failure = ex;
+        }
+    }
+
+    /**
+     * Wait until the slot of token w is free, and return the count up to
+     * which slots are free
+     */
+    private long waitForSlot(long w) {
+        int spins = 0;
+        long t;
+        while (w - (t = taken) >= SIZE) {
+            if (++spins > SPINS) {
+                Thread.yield();
+            }
+        }
+        return t + SIZE;
+    }
+
+    private static Exception rethrow(Throwable ex) {
+        if (ex instanceof Error) {
+            throw (Error)ex;
+        }
+        return (Exception)ex;
+    }
+}
@@ -1,54 +1,89 @@
 /**
  * Type class and its subclasses: 
  * ErrorType, IntType, BoolType, VoidType, StringType, FnType, StructType,
+ *
+ * Types are canonical: there is one instance of each primitive type (and
+ * of FnType and StructDefType, which carry no information), and one
+ * StructType per struct definition, so type checking does not allocate.
+ * Each type has a small integer tag; two types are equal when their
+ * tags are (struct types, like before, are all equal to each other).
  */
 abstract public class Type {
 
+    // tags
+    public static final int TAG_ERROR = 0;
+    public static final int TAG_INT = 1;
+    public static final int TAG_BOOL = 2;
+    public static final int TAG_VOID = 3;
+    public static final int TAG_STRING = 4;
+    public static final int TAG_FN = 5;
+    public static final int TAG_STRUCT = 6;
+    public static final int TAG_STRUCTDEF = 7;
+
+    // the canonical instances
+    public static final Type ERROR = new ErrorType();
+    public static final Type INT = new IntType();
+    public static final Type BOOL = new BoolType();
+    public static final Type VOID = new VoidType();
+    public static final Type STRING = new StringType();
+    public static final Type FN = new FnType();
+    public static final Type STRUCTDEF = new StructDefType();
+
+    private final int tag;
+
     /**
-     * default constructor
+     * constructor (only for the canonical instances)
      */
-    public Type() {
+    Type(int tag) {
+        this.tag = tag;
     }
 
     /**
-     * every subclass must provide a toString method and an equals method
+     * every subclass must provide a toString method
      */
     abstract public String toString();
-    abstract public boolean equals(Type t);
+
+    public final int tag() {
+        return tag;
+    }
+
+    public final boolean equals(Type t) {
+        return tag == t.tag;
+    }
 
     /**
-     * default methods for "isXXXType"
+     * "isXXXType" methods
      */
-    public boolean isErrorType() {
-        return false;
+    public final boolean isErrorType() {
+        return tag == TAG_ERROR;
     }
 
-    public boolean isIntType() {
-        return false;
+    public final boolean isIntType() {
+        return tag == TAG_INT;
     }
 
-    public boolean isBoolType() {
-        return false;
+    public final boolean isBoolType() {
+        return tag == TAG_BOOL;
     }
 
-    public boolean isVoidType() {
-        return false;
+    public final boolean isVoidType() {
+        return tag == TAG_VOID;
     }
     
-    public boolean isStringType() {
-        return false;
+    public final boolean isStringType() {
+        return tag == TAG_STRING;
     }
 
-    public boolean isFnType() {
-        return false;
+    public final boolean isFnType() {
+        return tag == TAG_FN;
     }
 
-    public boolean isStructType() {
-        return false;
+    public final boolean isStructType() {
+        return tag == TAG_STRUCT;
     }
     
-    public boolean isStructDefType() {
-        return false;
+    public final boolean isStructDefType() {
+        return tag == TAG_STRUCTDEF;
     }
 }
 
@@ -57,12 +92,8 @@ abstract public class Type {
 // **********************************************************************
 class ErrorType extends Type {
 
-    public boolean isErrorType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isErrorType();
+    ErrorType() {
+        super(TAG_ERROR);
     }
 
     public String toString() {
@@ -75,12 +106,8 @@ class ErrorType extends Type {
 // **********************************************************************
 class IntType extends Type {
 
-    public boolean isIntType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isIntType();
+    IntType() {
+        super(TAG_INT);
     }
 
     public String toString() {
@@ -93,12 +120,8 @@ class IntType extends Type {
 // **********************************************************************
 class BoolType extends Type {
 
-    public boolean isBoolType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isBoolType();
+    BoolType() {
+        super(TAG_BOOL);
     }
 
     public String toString() {
@@ -111,12 +134,8 @@ class BoolType extends Type {
 // **********************************************************************
 class VoidType extends Type {
 
-    public boolean isVoidType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isVoidType();
+    VoidType() {
+        super(TAG_VOID);
     }
 
     public String toString() {
@@ -129,12 +148,8 @@ class VoidType extends Type {
 // **********************************************************************
 class StringType extends Type {
 
-    public boolean isStringType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isStringType();
+    StringType() {
+        super(TAG_STRING);
     }
 
     public String toString() {
@@ -147,12 +162,8 @@ class StringType extends Type {
 // **********************************************************************
 class FnType extends Type {
 
-    public boolean isFnType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isFnType();
+    FnType() {
+        super(TAG_FN);
     }
 
     public String toString() {
@@ -166,17 +177,14 @@ class FnType extends Type {
 class StructType extends Type {
     private IdNode myId;
     
-    public StructType(IdNode id) {
+    /**
+     * the struct type of the definition whose name is id; use
+     * StructDefInfo.getStructType to get the canonical instance
+     */
+    StructType(IdNode id) {
+        super(TAG_STRUCT);
         myId = id;
     }
-    
-    public boolean isStructType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isStructType();
-    }
 
     public String toString() {
         return myId.name();
@@ -188,12 +196,8 @@ class StructType extends Type {
 // **********************************************************************
 class StructDefType extends Type {
 
-    public boolean isStructDefType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isStructDefType();
+    StructDefType() {
+        super(TAG_STRUCTDEF);
     }
 
     public String toString() {
@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 // **********************************************************************
 // The ASTnode class defines the nodes of the abstract-syntax tree that
@@ -109,6 +110,10 @@ abstract class ASTnode {
     // every subclass must provide an unparse operation
     abstract public void unparse(PrintWriter p, int indent);
 
+    // every subclass adds itself and its subtree to the given flat AST,
+    // kids first, and returns its node (see FlatAst)
+    abstract public int flatten(FlatAst ast);
+
     // this method can be used by the unparse methods to do indenting
     protected void doIndent(PrintWriter p, int indent) {
         for (int k=0; k<indent; k++) p.print(" ");
@@ -128,23 +133,125 @@ class ProgramNode extends ASTnode {
     /**
      * nameAnalysis
      * Creates an empty symbol table for the outermost scope, then processes
-     * all of the globals, struct defintions, and functions in the program.
+     * all of the globals, struct defintions, and function headers in the
+     * program, in order.  The function bodies are processed afterwards,
+     * possibly in parallel (see analyzeFns); the error messages are
+     * printed in source order.
      */
     public void nameAnalysis() {
+        analyze(false);
+    }
+    
+    /**
+     * typeCheck
+     * Type checks the function bodies, possibly in parallel.
+     */
+    public void typeCheck() {
+        List<FnDeclNode> fns = new ArrayList<FnDeclNode>();
+        for (DeclNode node : myDeclList.getList()) {
+            if (node instanceof FnDeclNode) {
+                fns.add((FnDeclNode)node);
+            }
+        }
+        ErrMsg[] logs = new ErrMsg[fns.size()];
+        for (int k = 0; k < logs.length; k++) {
+            logs[k] = new ErrMsg();
+        }
+        analyzeFns(fns, logs, FnDeclNode.TYPE_CHECK);
+        for (ErrMsg log : logs) {
+            log.print();
+        }
+    }
+    
+    /**
+     * analyze
+     * Does nameAnalysis and typeCheck with one walk over each function
+     * body: every node is type checked right after its name analysis.
+     * The messages are the same, and in the same order, as with
+     * nameAnalysis followed by typeCheck, since the type checking
+     * messages are kept apart (see ErrMsg) and printed after all the
+     * name analysis ones.
+     */
+    public void analyze() {
+        analyze(true);
+    }
+    
+    /**
+     * Does nameAnalysis, along with typeCheck if check is set.
+     */
+    private void analyze(boolean check) {
         SymTable symTab = new SymTable();
-        myDeclList.nameAnalysis(symTab);
+        List<DeclNode> decls = myDeclList.getList();
+        List<FnDeclNode> fns = new ArrayList<FnDeclNode>();
+        List<ErrMsg> logs = new ArrayList<ErrMsg>();
+        for (DeclNode node : decls) {
+            ErrMsg log = new ErrMsg(check);
+            logs.add(log);
+            ErrMsg.collect(log);
+            try {
+                if (node instanceof FnDeclNode) {
+                    ((FnDeclNode)node).declare(symTab);
+                    fns.add((FnDeclNode)node);
+                } else {
+                    node.nameAnalysis(symTab);
+                }
+            } catch (ErrMsg.Abort ex) {
+                ErrMsg.collect(null);
+                for (ErrMsg l : logs) {
+                    l.print();  // stops at the internal error
+                }
+            }
+        }
+        ErrMsg.collect(null);
+        
+        // a function's body messages follow the ones of its header
+        ErrMsg[] fnLogs = new ErrMsg[fns.size()];
+        for (int k = 0, j = 0; k < decls.size(); k++) {
+            if (decls.get(k) instanceof FnDeclNode) {
+                fnLogs[j++] = logs.get(k);
+            }
+        }
+        analyzeFns(fns, fnLogs, check ? FnDeclNode.ANALYZE
+                                      : FnDeclNode.NAME_ANALYSIS);
+        for (ErrMsg log : logs) {
+            log.print();
+        }
+        
         if (symTab.lookupGlobal("main") == null) {
         	ErrMsg.fatal(0, 0,
                     "No main function");
         	
         }
+        
+        for (ErrMsg log : logs) {
+            log.printTypeErrors();
+        }
     }
     
     /**
-     * typeCheck
+     * analyzeFns
+     * Does the given pass (see FnDeclNode.analyze) over the bodies of the
+     * given functions, the messages of fns[k] going to logs[k].  Runs on
+     * a fork-join pool when Codegen.threads > 1; the bodies only read the
+     * global scope.
      */
-    public void typeCheck() {
-        myDeclList.typeCheck();
+    static void analyzeFns(List<FnDeclNode> fns, ErrMsg[] logs, int pass) {
+        if (Codegen.threads > 1 && fns.size() > 1) {
+            ForkJoinPool pool = new ForkJoinPool(Codegen.threads);
+            try {
+                pool.invoke(new FnAnalysisTask(fns, logs, pass, 0, fns.size()));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for (int k = 0; k < fns.size(); k++) {
+                fns.get(k).analyze(logs[k], pass);
+            }
+        }
+    }
+    
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.PROGRAM, 0, 0, 0, myDeclList.flatten(ast));
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -153,12 +260,143 @@ class ProgramNode extends ASTnode {
     
     public void codeGen() {
 		myDeclList.codeGen();
+		if (Codegen.bufferedIO) {
+		    Codegen.genRuntime();
+		}
 	}
+    
+    /**
+     * interpret
+     * Gives every global variable its slots in the globals array, then
+     * executes main with the given input and output streams.
+     */
+    public void interpret(InputStream in, OutputStream out) {
+        int numGlobals = 0;
+        FnDeclNode mainFn = null;
+        for (DeclNode node : myDeclList.getList()) {
+            if (node instanceof VarDeclNode) {
+                SymInfo sym = ((VarDeclNode)node).getMyId().sym();
+                sym.setOffset(4*numGlobals);
+                numGlobals += sym.size() / 4;
+            }
+            else if (node instanceof FnDeclNode &&
+                     ((FnDeclNode)node).name().equals("main")) {
+                mainFn = (FnDeclNode)node;
+            }
+        }
+        
+        Interpreter.start(numGlobals, in, out);
+        try {
+            mainFn.invoke(new int[mainFn.frameSlots()]);
+        } finally {
+            Interpreter.finish();
+        }
+    }
+
+    /**
+     * jvmGen
+     * Generates a class with the given name for the program and returns
+     * the contents of its class file, or null if a function could not be
+     * generated.
+     */
+    public byte[] jvmGen(String className) {
+        JvmCodegen.start(className);
+        myDeclList.jvmGen();
+        if (ErrMsg.getErr()) {
+            return null;
+        }
+        FnInfo mainInfo = null;
+        for (DeclNode node : myDeclList.getList()) {
+            if (node instanceof FnDeclNode &&
+                ((FnDeclNode)node).name().equals("main")) {
+                mainInfo = ((FnDeclNode)node).sym();
+            }
+        }
+        return JvmCodegen.finish(mainInfo);
+    }
 
     // 1 kid
     private DeclListNode myDeclList;
 }
 
+// **********************************************************************
+// ProgramStream (the top-level decls handed over one at a time)
+// **********************************************************************
+
+/**
+ * The passes over a program whose top-level decls are handed over one at
+ * a time, as the parser reduces them (see cmm.cup), instead of as a
+ * ProgramNode.  Each decl is analyzed (name analysis and type checking in
+ * one walk), its MIPS code is written out, and then it is dropped, so the
+ * memory used is proportional to the largest decl rather than to the
+ * program.  This works because names must be declared before they are
+ * used: a decl only needs the global scope made by the decls before it,
+ * which is all a function body sees anyway (see FnDeclNode.declare).
+ *
+ * The messages are the same, and in the same order, as with
+ * ProgramNode.analyze: the type checking ones are kept (see ErrMsg) and
+ * printed by finish.  Code is only written while there has been no
+ * error, so the caller has to discard it if there is one in the end.
+ */
+class ProgramStream {
+    private SymTable symTab = new SymTable();
+    private List<ErrMsg> logs = new ArrayList<ErrMsg>();
+
+    /**
+     * add
+     * Analyzes the given top-level decl, prints its name analysis
+     * messages and generates its code.
+     */
+    public void add(DeclNode node) {
+        ErrMsg log = new ErrMsg(true);
+        logs.add(log);
+        ErrMsg.collect(log);
+        try {
+            if (node instanceof FnDeclNode) {
+                ((FnDeclNode)node).declare(symTab);
+            } else {
+                node.nameAnalysis(symTab);
+            }
+        } catch (ErrMsg.Abort ex) {
+            ErrMsg.collect(null);
+            log.print();  // stops at the internal error
+        }
+        ErrMsg.collect(null);
+        if (node instanceof FnDeclNode) {
+            ((FnDeclNode)node).analyze(log, FnDeclNode.ANALYZE);
+        }
+        log.print();
+        
+        if (!ErrMsg.getErr()) {
+            Codegen.p.print(Codegen.genDecl(node));
+        }
+        if (node instanceof FnDeclNode) {
+            ((FnDeclNode)node).release();
+        }
+    }
+    
+    /**
+     * finish
+     * Called after the last decl: checks that there is a main function,
+     * prints the type checking messages and generates the run-time
+     * routines.
+     */
+    public void finish() {
+        if (symTab.lookupGlobal("main") == null) {
+            ErrMsg.fatal(0, 0,
+                    "No main function");
+        }
+        
+        for (ErrMsg log : logs) {
+            log.printTypeErrors();
+        }
+        
+        if (!ErrMsg.getErr() && Codegen.bufferedIO) {
+            Codegen.genRuntime();
+        }
+    }
+}
+
 class DeclListNode extends ASTnode {
     public DeclListNode(List<DeclNode> S) {
         myDecls = S;
@@ -197,6 +435,36 @@ class DeclListNode extends ASTnode {
         }
     }
     
+    /**
+     * allocLocals
+     * Gives the variables declared in the list consecutive places in the
+     * frame, starting at the given offset, and returns the offset after
+     * them.  A variable of n bytes uses the offsets from the one of its
+     * SymInfo down to that minus n-4, so that its address is $fp minus
+     * its offset and the fields of a struct are at increasing addresses.
+     */
+    public int allocLocals(int offset) {
+        for (DeclNode node : myDecls) {
+            if (node instanceof VarDeclNode) {
+                SymInfo sym = ((VarDeclNode)node).getMyId().sym();
+                int size = (sym == null) ? 4 : sym.size();
+                if (sym != null) {  // null if the decl is bad
+                    sym.setOffset(offset + size - 4);
+                }
+                offset += size;
+            }
+        }
+        return offset;
+    }
+    
+    public int flatten(FlatAst ast) {
+        List<Integer> kids = new ArrayList<Integer>();
+        for (DeclNode node : myDecls) {
+            kids.add(node.flatten(ast));
+        }
+        return ast.add(FlatAst.DECL_LIST, 0, 0, 0, kids);
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         Iterator it = myDecls.iterator();
         try {
@@ -209,12 +477,21 @@ class DeclListNode extends ASTnode {
         }
     }
     
+    /**
+     * codeGen
+     * Generates the top-level decls (functions possibly in parallel);
+     * the code is written in source order.
+     */
     public void codeGen() {
-		for (DeclNode node : myDecls) {
-            node.codeGen();
-        }
+		Codegen.genDecls(myDecls);
 	}
     
+    public void jvmGen() {
+        for (DeclNode node : myDecls) {
+            node.jvmGen();
+        }
+    }
+    
     public List<DeclNode> getList() {
     	return myDecls;
     	
@@ -258,6 +535,14 @@ class FormalsListNode extends ASTnode {
         return myFormals.size();
     }
     
+    public int flatten(FlatAst ast) {
+        List<Integer> kids = new ArrayList<Integer>();
+        for (FormalDeclNode node : myFormals) {
+            kids.add(node.flatten(ast));
+        }
+        return ast.add(FlatAst.FORMALS_LIST, 0, 0, 0, kids);
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         Iterator<FormalDeclNode> it = myFormals.iterator();
         if (it.hasNext()) { // if there is at least one element
@@ -288,13 +573,26 @@ class FnBodyNode extends ASTnode {
     /**
      * nameAnalysis
      * Given a symbol table symTab, do:
+     * - record a snapshot of symTab (the globals and the formals)
      * - process the declaration list
+     * - give the locals their places in the frame, from offset on
      * - process the statement list
+     * Returns the end of the frame (see StmtListNode.nameAnalysis).
      */
-    public void nameAnalysis(SymTable symTab, int offset) {
+    public int nameAnalysis(SymTable symTab, int offset) {
+        myEnv = symTab.snapshot();
         myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab, offset);
+        int end = myDeclList.allocLocals(offset);
+        return myStmtList.nameAnalysis(symTab, end);
     }    
+    
+    /**
+     * Return the environment at the start of the body, as recorded by
+     * nameAnalysis.
+     */
+    public Env getEnv() {
+        return myEnv;
+    }
  
     /**
      * typeCheck
@@ -302,7 +600,24 @@ class FnBodyNode extends ASTnode {
     public void typeCheck(Type retType) {
         myStmtList.typeCheck(retType);
     }    
+    
+    /**
+     * analyze
+     * Does the same as nameAnalysis, but the statements are also type
+     * checked (against the given return type) as they are processed.
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        myEnv = symTab.snapshot();
+        myDeclList.nameAnalysis(symTab);
+        int end = myDeclList.allocLocals(offset);
+        return myStmtList.analyze(symTab, end, retType);
+    }
           
+    public int flatten(FlatAst ast) {
+        int decls = myDeclList.flatten(ast);
+        return ast.add(FlatAst.FN_BODY, 0, 0, 0, decls, myStmtList.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         myDeclList.unparse(p, indent);
         myStmtList.unparse(p, indent);
@@ -312,6 +627,14 @@ class FnBodyNode extends ASTnode {
         myStmtList.codeGen(label);
     }
     
+    public int exec(int[] frame) {
+        return myStmtList.exec(frame);
+    }
+    
+    public void jvmGen() {
+        myStmtList.jvmGen();
+    }
+    
 
 
 	public List<DeclNode> getDeclList() {
@@ -322,6 +645,8 @@ class FnBodyNode extends ASTnode {
     // 2 kids
     private DeclListNode myDeclList;
     private StmtListNode myStmtList;
+    
+    private Env myEnv;
 }
 
 class StmtListNode extends ASTnode {
@@ -332,39 +657,321 @@ class StmtListNode extends ASTnode {
     /**
      * nameAnalysis
      * Given a symbol table symTab, process each statement in the list.
+     * Returns the end of the deepest frame area used by a nested block.
      */
-    public void nameAnalysis(SymTable symTab, int offset) {
-        for (StmtNode node : myStmts) {
-            node.nameAnalysis(symTab, offset);
-        }
+    public int nameAnalysis(SymTable symTab, int offset) {
+        return new StmtWalk.NameAnalysis(symTab).walk(myStmts, offset);
     }    
     
     /**
      * typeCheck
      */
     public void typeCheck(Type retType) {
-        for(StmtNode node : myStmts) {
-            node.typeCheck(retType);
-        }
+        new StmtWalk.TypeCheck(retType).walk(myStmts, 0);
+    }
+    
+    /**
+     * analyze
+     * Does the nameAnalysis and the typeCheck of each statement in the
+     * list; returns the same as nameAnalysis.
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        return new StmtWalk.Analyze(symTab, retType).walk(myStmts, offset);
+    }
+    
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.STMT_LIST, 0, 0, 0,
+                       new StmtWalk.Flatten(ast).flatten(myStmts));
     }
     
     public void unparse(PrintWriter p, int indent) {
-        Iterator<StmtNode> it = myStmts.iterator();
-        while (it.hasNext()) {
-            it.next().unparse(p, indent);
-        }
+        new StmtWalk.Unparse(p).walk(myStmts, indent);
     }
     
     public void codeGen(String label) {
-		for(StmtNode node : myStmts) {
-            node.codeGen(label);
-        }
+        new StmtWalk.CodeGen(label).walk(myStmts, 0);
 	}
+    
+    public List<StmtNode> getList() {
+        return myStmts;
+    }
+    
+    public int exec(int[] frame) {
+        for (StmtNode node : myStmts) {
+            Interpreter.numStmts++;
+            if (node.exec(frame) == Interpreter.RETURN) {
+                return Interpreter.RETURN;
+            }
+        }
+        return Interpreter.NORMAL;
+    }
 
+    public void jvmGen() {
+        new StmtWalk.JvmGen().walk(myStmts, 0);
+    }
+    
     // list of kids (StmtNodes)
     private List<StmtNode> myStmts;
 }
 
+// **********************************************************************
+// StmtWalk (explicit-stack driver for the passes over statement lists)
+// **********************************************************************
+
+/**
+ * A pass over a list of statements that does not recurse into the nested
+ * blocks: the arms of the block statements are walked with an explicit
+ * stack, so the nesting depth is not limited by the Java stack.
+ *
+ * A pass says what to do with a statement that is not a block (stmt),
+ * and when an arm of a block is entered and left.  The int is an offset
+ * in the frame (see StmtListNode.nameAnalysis) or, for unparse, the
+ * indent: enter gets the one of the block and returns the one of the
+ * stmts of the arm, and walk returns the highest value returned by stmt
+ * or enter.
+ */
+abstract class StmtWalk {
+    abstract int stmt(StmtNode node, int offset);
+    abstract int enter(BlockStmtNode node, int k, int offset);
+    abstract void leave(BlockStmtNode node, int k, int offset);
+
+    /**
+     * Walks the given statements, from offset
+     */
+    int walk(List<StmtNode> stmts, int offset) {
+        List<Arm> stack = new ArrayList<Arm>();
+        Arm arm = new Arm(null, 0, stmts, offset);
+        while (true) {
+            if (arm.it.hasNext()) {
+                StmtNode node = arm.it.next();
+                if (node instanceof BlockStmtNode) {
+                    BlockStmtNode block = (BlockStmtNode)node;
+                    stack.add(arm);
+                    arm = new Arm(block, 0, block.stmtList(0).getList(),
+                                  enter(block, 0, arm.offset));
+                } else {
+                    arm.high = Math.max(arm.high, stmt(node, arm.offset));
+                }
+            } else if (stack.isEmpty()) {
+                return arm.high;
+            } else {
+                Arm outer = stack.get(stack.size() - 1);
+                leave(arm.block, arm.k, outer.offset);
+                outer.high = Math.max(outer.high, arm.high);
+                int k = arm.k + 1;
+                if (k < arm.block.numArms()) {
+                    arm = new Arm(arm.block, k, arm.block.stmtList(k).getList(),
+                                  enter(arm.block, k, outer.offset));
+                } else {
+                    arm = stack.remove(stack.size() - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * The statements of arm k of a block (or the list being walked, with
+     * a null block), and where the walk is in them
+     */
+    private static class Arm {
+        final BlockStmtNode block;
+        final int k;
+        final Iterator<StmtNode> it;
+        final int offset;
+        int high;
+
+        Arm(BlockStmtNode block, int k, List<StmtNode> stmts, int offset) {
+            this.block = block;
+            this.k = k;
+            this.it = stmts.iterator();
+            this.offset = offset;
+            this.high = offset;
+        }
+    }
+
+    static class NameAnalysis extends StmtWalk {
+        private SymTable symTab;
+
+        NameAnalysis(SymTable symTab) {
+            this.symTab = symTab;
+        }
+
+        int stmt(StmtNode node, int offset) {
+            return node.nameAnalysis(symTab, offset);
+        }
+
+        int enter(BlockStmtNode node, int k, int offset) {
+            if (k == 0) {
+                node.cond().nameAnalysis(symTab);
+            }
+            return node.enterScope(symTab, k, offset);
+        }
+
+        void leave(BlockStmtNode node, int k, int offset) {
+            node.leaveScope(symTab);
+        }
+    }
+
+    static class TypeCheck extends StmtWalk {
+        private Type retType;
+
+        TypeCheck(Type retType) {
+            this.retType = retType;
+        }
+
+        int stmt(StmtNode node, int offset) {
+            node.typeCheck(retType);
+            return offset;
+        }
+
+        int enter(BlockStmtNode node, int k, int offset) {
+            if (k == 0) {
+                node.checkCond(node.cond().typeCheck());
+            }
+            return offset;
+        }
+
+        void leave(BlockStmtNode node, int k, int offset) {
+        }
+    }
+
+    static class Analyze extends StmtWalk {
+        private SymTable symTab;
+        private Type retType;
+
+        Analyze(SymTable symTab, Type retType) {
+            this.symTab = symTab;
+            this.retType = retType;
+        }
+
+        int stmt(StmtNode node, int offset) {
+            return node.analyze(symTab, offset, retType);
+        }
+
+        int enter(BlockStmtNode node, int k, int offset) {
+            if (k == 0) {
+                node.checkCond(node.cond().analyze(symTab));
+            }
+            return node.enterScope(symTab, k, offset);
+        }
+
+        void leave(BlockStmtNode node, int k, int offset) {
+            node.leaveScope(symTab);
+        }
+    }
+
+    static class Unparse extends StmtWalk {
+        private PrintWriter p;
+
+        Unparse(PrintWriter p) {
+            this.p = p;
+        }
+
+        int stmt(StmtNode node, int indent) {
+            node.unparse(p, indent);
+            return indent;
+        }
+
+        int enter(BlockStmtNode node, int k, int indent) {
+            node.unparseHead(p, indent, k);
+            return indent + 4;
+        }
+
+        void leave(BlockStmtNode node, int k, int indent) {
+            node.doIndent(p, indent);
+            p.println("}");
+        }
+    }
+
+    static class CodeGen extends StmtWalk {
+        private String exitLabel;  // of the function
+
+        CodeGen(String exitLabel) {
+            this.exitLabel = exitLabel;
+        }
+
+        int stmt(StmtNode node, int offset) {
+            node.codeGen(exitLabel);
+            return offset;
+        }
+
+        int enter(BlockStmtNode node, int k, int offset) {
+            node.codeGenEnter(k);
+            return offset;
+        }
+
+        void leave(BlockStmtNode node, int k, int offset) {
+            node.codeGenLeave(k);
+        }
+    }
+
+    /**
+     * Adds the statements to a flat AST (see ASTnode.flatten); a block is
+     * added after its condition and its arms, which are added as they are
+     * left.
+     */
+    static class Flatten extends StmtWalk {
+        private FlatAst ast;
+        private List<List<Integer>> arms = new ArrayList<List<Integer>>();
+        private List<List<Integer>> blocks = new ArrayList<List<Integer>>();
+
+        Flatten(FlatAst ast) {
+            this.ast = ast;
+        }
+
+        /**
+         * Flattens the given statements and returns their nodes
+         */
+        List<Integer> flatten(List<StmtNode> stmts) {
+            arms.add(new ArrayList<Integer>());
+            walk(stmts, 0);
+            return arms.remove(arms.size() - 1);
+        }
+
+        int stmt(StmtNode node, int offset) {
+            arms.get(arms.size() - 1).add(node.flatten(ast));
+            return offset;
+        }
+
+        int enter(BlockStmtNode node, int k, int offset) {
+            if (k == 0) {
+                blocks.add(new ArrayList<Integer>());
+                blocks.get(blocks.size() - 1).add(node.cond().flatten(ast));
+            }
+            blocks.get(blocks.size() - 1).add(node.declList(k).flatten(ast));
+            arms.add(new ArrayList<Integer>());
+            return offset;
+        }
+
+        void leave(BlockStmtNode node, int k, int offset) {
+            List<Integer> kids = blocks.get(blocks.size() - 1);
+            kids.add(ast.add(FlatAst.STMT_LIST, 0, 0, 0,
+                             arms.remove(arms.size() - 1)));
+            if (k == node.numArms() - 1) {
+                blocks.remove(blocks.size() - 1);
+                arms.get(arms.size() - 1).add(ast.add(node.flatKind(), 0, 0, 0,
+                                                      kids));
+            }
+        }
+    }
+
+    static class JvmGen extends StmtWalk {
+        int stmt(StmtNode node, int offset) {
+            node.jvmGen();
+            return offset;
+        }
+
+        int enter(BlockStmtNode node, int k, int offset) {
+            node.jvmGenEnter(k);
+            return offset;
+        }
+
+        void leave(BlockStmtNode node, int k, int offset) {
+            node.jvmGenLeave(k);
+        }
+    }
+}
+
 class ExpListNode extends ASTnode {
     public ExpListNode(List<ExpNode> S) {
         myExps = S;
@@ -392,22 +999,48 @@ class ExpListNode extends ASTnode {
         try {
             for (ExpNode node : myExps) {
                 Type actualType = node.typeCheck();     // actual type of arg
-                
-                if (!actualType.isErrorType()) {        // if this is not an error
-                    Type formalType = typeList.get(k);  // get the formal type
-                    if (!formalType.equals(actualType)) {
-                        ErrMsg.fatal(node.lineNum(), node.charNum(),
-                                     "Type of actual does not match type of formal");
-                    }
-                }
+                check(node, actualType, typeList.get(k));
                 k++;
             }
         } catch (NoSuchElementException e) {
-            System.err.println("unexpected NoSuchElementException in ExpListNode.typeCheck");
-            System.exit(-1);
+            ErrMsg.typeInternal("unexpected NoSuchElementException in ExpListNode.typeCheck");
         }
     }
     
+    /**
+     * analyze
+     * Given a symbol table symTab and the types of the formals, does the
+     * nameAnalysis and the typeCheck of each exp in the list.
+     */
+    public void analyze(SymTable symTab, List<Type> typeList) {
+        int k = 0;
+        for (ExpNode node : myExps) {
+            check(node, node.analyze(symTab), typeList.get(k));
+            k++;
+        }
+    }
+    
+    /**
+     * check
+     * Checks the actual type of an arg against the type of its formal.
+     */
+    private void check(ExpNode node, Type actualType, Type formalType) {
+        if (!actualType.isErrorType()) {        // if this is not an error
+            if (!formalType.equals(actualType)) {
+                ErrMsg.typeError(node.lineNum(), node.charNum(),
+                                 "Type of actual does not match type of formal");
+            }
+        }
+    }
+    
+    public int flatten(FlatAst ast) {
+        List<Integer> kids = new ArrayList<Integer>();
+        for (ExpNode node : myExps) {
+            kids.add(node.flatten(ast));
+        }
+        return ast.add(FlatAst.EXP_LIST, 0, 0, 0, kids);
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         Iterator<ExpNode> it = myExps.iterator();
         if (it.hasNext()) { // if there is at least one element
@@ -424,7 +1057,23 @@ class ExpListNode extends ASTnode {
             node.codeGen();
         }
     }
+    
+    /**
+     * Evaluate the expressions into consecutive slots of the callee frame.
+     */
+    public void evalInto(int[] frame, int[] calleeFrame) {
+        int k = 0;
+        for (ExpNode node : myExps) {
+            calleeFrame[k++] = node.eval(frame);
+        }
+    }
 
+    public void jvmGen() {
+        for (ExpNode node : myExps) {
+            node.jvmGen();
+        }
+    }
+    
     // list of kids (ExpNodes)
     private List<ExpNode> myExps;
 }
@@ -443,6 +1092,8 @@ abstract class DeclNode extends ASTnode {
     public void typeCheck() { }
     
     public void codeGen() {}
+    
+    public void jvmGen() {}
 }
 
 class VarDeclNode extends DeclNode {
@@ -473,7 +1124,7 @@ class VarDeclNode extends DeclNode {
     
     public SymInfo nameAnalysis(SymTable symTab, SymTable globalTab) {
         boolean badDecl = false;
-        String name = myId.name();
+        int id = myId.id();
         SymInfo sym = null;
         IdNode structId = null;
 
@@ -485,7 +1136,7 @@ class VarDeclNode extends DeclNode {
         
         else if (myType instanceof StructNode) {
             structId = ((StructNode)myType).idNode();
-            sym = globalTab.lookupGlobal(structId.name());
+            sym = globalTab.lookupGlobal(structId.id());
             
             // if the name for the struct type is not found, 
             // or is not a struct type
@@ -499,7 +1150,7 @@ class VarDeclNode extends DeclNode {
             }
         }
         
-        if (symTab.lookupLocal(name) != null) {
+        if (symTab.lookupLocal(id) != null) {
             ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
                          "Multiply declared identifier");
             badDecl = true;            
@@ -513,27 +1164,30 @@ class VarDeclNode extends DeclNode {
                 else {
                     sym = new SymInfo(myType.type());
                 }
-                symTab.addDecl(name, sym);
+                symTab.addDecl(id, sym);
                 
-                if(symTab.size() == 1){
-                        sym.setGlobal(true);
+                if(symTab.size() == 1 && symTab == globalTab){
+                        sym.setGlobal(true);  // not a struct field
                 }
                 
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                ErrMsg.internal("Unexpected DuplicateSymException " +
+                                " in VarDeclNode.nameAnalysis");
             } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                ErrMsg.internal("Unexpected EmptySymTableException " +
+                                " in VarDeclNode.nameAnalysis");
             }
         }
         
         return sym;
     }    
     
+    public int flatten(FlatAst ast) {
+        int type = myType.flatten(ast);
+        return ast.add(FlatAst.VAR_DECL, 0, 0, mySize, type, myId.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myType.unparse(p, 0);
@@ -547,7 +1201,15 @@ class VarDeclNode extends DeclNode {
         if(this.myId.sym().isGlobal()) {
             Codegen.generate(".data");
             Codegen.generate(".align 2");
-            Codegen.generateLabeled("_" + myId.name(), ".space 4", "");
+            Codegen.generateLabeled("_" + myId.name(),
+                                    ".space " + myId.sym().size(), "");
+        }
+    }
+    
+    public void jvmGen() {
+        if (myId.sym().isGlobal()) {
+            JvmCodegen.cf.addField(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC,
+                                   "_" + myId.name(), "I");
         }
     }
     
@@ -564,6 +1226,11 @@ class VarDeclNode extends DeclNode {
 }
 
 class FnDeclNode extends DeclNode {
+    // passes over the body (see analyze)
+    static final int NAME_ANALYSIS = 0;
+    static final int TYPE_CHECK = 1;
+    static final int ANALYZE = 2;
+
     public FnDeclNode(TypeNode type,
                       IdNode id,
                       FormalsListNode formalList,
@@ -588,12 +1255,25 @@ class FnDeclNode extends DeclNode {
      *         update symbol table entry with types of formals
      *     process the body of the function
      *     exit scope
+     * This is done in two parts: declare, then analyzeBody.
      */
     public SymInfo nameAnalysis(SymTable symTab) {
-        String name = myId.name();
+        declare(symTab);
+        analyzeBody(false);
+        return null;
+    }
+    
+    /**
+     * declare
+     * Given the global symbol table symTab, adds this function to it and
+     * processes the formals in a new scope of a view of symTab (in which
+     * the globals declared later are not visible).
+     */
+    public void declare(SymTable symTab) {
+        int id = myId.id();
         FnInfo sym = null;
         
-        if (symTab.lookupLocal(name) != null) {
+        if (symTab.lookupLocal(id) != null) {
             ErrMsg.fatal(myId.lineNum(), myId.charNum(),
                          "Multiply declared identifier");
         }
@@ -601,51 +1281,56 @@ class FnDeclNode extends DeclNode {
         else { // add function name to local symbol table
             try {
                 sym = new FnInfo(myType.type(), myFormalsList.length());
-                symTab.addDecl(name, sym);
+                sym.setDecl(this);
+                symTab.addDecl(id, sym);
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in FnDeclNode.nameAnalysis");
-                System.exit(-1);
+                ErrMsg.internal("Unexpected DuplicateSymException " +
+                                " in FnDeclNode.nameAnalysis");
             } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in FnDeclNode.nameAnalysis");
-                System.exit(-1);
+                ErrMsg.internal("Unexpected EmptySymTableException " +
+                                " in FnDeclNode.nameAnalysis");
             }
         }
         
-        symTab.addScope();  // add a new scope for locals and params
+        bodyTab = symTab.view();
+        bodyTab.addScope();  // add a new scope for locals and params
         
         // process the formals
-        List<Type> typeList = myFormalsList.nameAnalysis(symTab);
+        List<Type> typeList = myFormalsList.nameAnalysis(bodyTab);
         if (sym != null) {
             sym.addFormals(typeList);
             sym.setOffset(4*this.myFormalsList.length()); //Offset of params
             this.paramsOffset = sym.getOffset();
         }
-        int offset = 8 + this.paramsOffset; 
-		
-        myBody.nameAnalysis(symTab, offset + 4*myBody.getDeclList().size()); 
+    }
+    
+    /**
+     * analyzeBody
+     * Processes the body of the function in the scope made by declare,
+     * type checking it at the same time if check is set.
+     * Only the scopes of this function are modified, so the bodies of
+     * different functions can be processed at the same time.
+     */
+    public void analyzeBody(boolean check) {
+        SymTable symTab = bodyTab;
+        bodyTab = null;
         // process the function body
-        
-        for (DeclNode node : myBody.getDeclList()) {
-			if (node instanceof VarDeclNode) {
-				((VarDeclNode)node).getMyId().sym().setOffset(offset);
-				offset += 4;			
-			}
-		}
-        
-        this.localsOffset = offset - 8 - this.paramsOffset; 
+        if (check) {
+            this.frameSize = myBody.analyze(symTab, 8 + this.paramsOffset,
+                                            myType.type());
+        }
+        else {
+            this.frameSize = myBody.nameAnalysis(symTab, 8 + this.paramsOffset);
+        }
+        this.localsOffset = this.frameSize - 8 - this.paramsOffset;
         
         try {
             symTab.removeScope();  // exit scope
         } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in FnDeclNode.nameAnalysis");
-            System.exit(-1);
+            ErrMsg.internal("Unexpected EmptySymTableException " +
+                            " in FnDeclNode.nameAnalysis");
         }
-        
-        return null;
     } 
        
     /**
@@ -654,7 +1339,36 @@ class FnDeclNode extends DeclNode {
     public void typeCheck() {
         myBody.typeCheck(myType.type());
     }
+    
+    /**
+     * analyze
+     * Does the given pass over the body: the second part of
+     * nameAnalysis (NAME_ANALYSIS), typeCheck (TYPE_CHECK) or both at
+     * once (ANALYZE), with the messages going to log.
+     */
+    public void analyze(ErrMsg log, int pass) {
+        ErrMsg.collect(log);
+        try {
+            if (pass == TYPE_CHECK) {
+                typeCheck();
+            } else {
+                analyzeBody(pass == ANALYZE);
+            }
+        } catch (ErrMsg.Abort ex) {
+            // the internal error is in log
+        } finally {
+            ErrMsg.collect(null);
+        }
+    }
         
+    public int flatten(FlatAst ast) {
+        int type = myType.flatten(ast);
+        int id = myId.flatten(ast);
+        int formals = myFormalsList.flatten(ast);
+        return ast.add(FlatAst.FN_DECL, 0, 0, 0, type, id, formals,
+                       myBody.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myType.unparse(p, 0);
@@ -670,15 +1384,16 @@ class FnDeclNode extends DeclNode {
     //Generates the function prologue, 
     //epilogue for function, uses offsets from name analysis
     public void codeGen() {
-		Codegen.p.print("\t.text\n");
+		Codegen.setLabelScope(this.myId.name());
+		Codegen.out().print("\t.text\n");
 		//if main
 		if(this.myId.name().equals("main")) {
-			Codegen.p.print("\t.globl main\n");
+			Codegen.out().print("\t.globl main\n");
 			Codegen.genLabel(this.myId.name());
 			Codegen.genLabel("__start");
 		}
 		else {
-			Codegen.p.print("\t_" + this.myId.name() + ":\n");
+			Codegen.out().print("\t_" + this.myId.name() + ":\n");
 		}
 		
 		String exitLabel = "exit_" + this.myId.name();
@@ -713,6 +1428,9 @@ class FnDeclNode extends DeclNode {
 		Codegen.generate("move", Codegen.SP,Codegen.T0);
 		
 		if(this.myId.name().equals("main")) {
+			if (Codegen.bufferedIO) {
+			    Codegen.generate("jal", ".Lrt_flush");
+			}
 			Codegen.generate("li",Codegen.V0,"10");
 			Codegen.generate("syscall");
 		}
@@ -723,6 +1441,88 @@ class FnDeclNode extends DeclNode {
 		
 
 	}
+    
+    /**
+     * jvmGen
+     * Generates a static method for this function.  The locals start as 0
+     * (as in the interpreter), since the verifier rejects a read of a slot
+     * that may not have been stored.  All paths end with a return, so a
+     * return is added for the end of the body.  A body too large for a
+     * method is an error.
+     */
+    public void jvmGen() {
+        boolean isVoid = myType.type().isVoidType();
+        Bytecode code = JvmCodegen.cf.addMethod(
+                              ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC,
+                              "_" + myId.name(), JvmCodegen.descriptor(sym()),
+                              frameSlots());
+        JvmCodegen.code = code;
+        for (int slot = sym().getNumParams(); slot < frameSlots(); slot++) {
+            code.iconst(0);
+            code.istore(slot);
+        }
+        myBody.jvmGen();
+        if (isVoid) {
+            code.op(ClassFile.RETURN, 0);
+        } else {
+            code.iconst(0);
+            code.op(ClassFile.IRETURN, -1);
+        }
+        if (code.tooLarge()) {
+            ErrMsg.fatal(myId.lineNum(), myId.charNum(),
+                         "Function too large for the JVM");
+        }
+        JvmCodegen.code = null;
+    }
+    
+    /**
+     * Return the symbol of this function.
+     */
+    public FnInfo sym() {
+        return (FnInfo)myId.sym();
+    }
+    
+    /**
+     * Return the name of this function.
+     */
+    public String name() {
+        return myId.name();
+    }
+    
+    /**
+     * Return the number of int slots needed for a frame of this function
+     * (params, saved registers and all locals, including nested blocks).
+     */
+    public int frameSlots() {
+        return frameSize / 4;
+    }
+    
+    /**
+     * invoke
+     * Execute the body of this function in the given frame, whose first
+     * slots already hold the actual parameters.  Returns the value of the
+     * executed return statement (0 if the end of the body is reached).
+     */
+    public int invoke(int[] frame) {
+        Interpreter.enter();
+        if (myBody.exec(frame) != Interpreter.RETURN) {
+            Interpreter.retVal = 0;
+        }
+        Interpreter.leave();
+        return Interpreter.retVal;
+    }
+    
+    /**
+     * release
+     * Drops the link from the symbol of this function to this node (which
+     * the interpreter uses), so that the node can be garbage collected
+     * once the caller is done with it (see ProgramStream).
+     */
+    public void release() {
+        if (sym() != null) {
+            sym().setDecl(null);
+        }
+    }
 
     // 4 kids
     private TypeNode myType;
@@ -731,6 +1531,45 @@ class FnDeclNode extends DeclNode {
     private FnBodyNode myBody;
     private int localsOffset;
     private int paramsOffset;
+    private int frameSize;
+    private SymTable bodyTab;  // scope of the formals, from declare
+}
+
+// **********************************************************************
+// FnAnalysisTask
+//    fork-join task running FnDeclNode.analyze for the functions
+//    fns[lo..hi)
+// **********************************************************************
+class FnAnalysisTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int CUTOFF = 4;
+
+    private List<FnDeclNode> fns;
+    private ErrMsg[] logs;
+    private int pass;
+    private int lo;
+    private int hi;
+
+    FnAnalysisTask(List<FnDeclNode> fns, ErrMsg[] logs, int pass,
+                   int lo, int hi) {
+        this.fns = fns;
+        this.logs = logs;
+        this.pass = pass;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    protected void compute() {
+        if (hi - lo <= CUTOFF) {
+            for (int k = lo; k < hi; k++) {
+                fns.get(k).analyze(logs[k], pass);
+            }
+        } else {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new FnAnalysisTask(fns, logs, pass, lo, mid),
+                      new FnAnalysisTask(fns, logs, pass, mid, hi));
+        }
+    }
 }
 
 class FormalDeclNode extends DeclNode {
@@ -748,7 +1587,7 @@ class FormalDeclNode extends DeclNode {
      * else add a new entry to the symbol table and return that Sym
      */
     public SymInfo nameAnalysis(SymTable symTab) {
-        String name = myId.name();
+        int id = myId.id();
         boolean badDecl = false;
         SymInfo sym = null;
         
@@ -758,7 +1597,7 @@ class FormalDeclNode extends DeclNode {
             badDecl = true;        
         }
         
-        if (symTab.lookupLocal(name) != null) {
+        if (symTab.lookupLocal(id) != null) {
             ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
                          "Multiply declared identifier");
             badDecl = true;
@@ -767,25 +1606,28 @@ class FormalDeclNode extends DeclNode {
         if (!badDecl) {  // insert into symbol table
             try {
                 sym = new SymInfo(myType.type());
-                symTab.addDecl(name, sym);
+                symTab.addDecl(id, sym);
                 
                 
                 
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                ErrMsg.internal("Unexpected DuplicateSymException " +
+                                " in VarDeclNode.nameAnalysis");
             } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                ErrMsg.internal("Unexpected EmptySymTableException " +
+                                " in VarDeclNode.nameAnalysis");
             }
         }
         
         return sym;
     }    
     
+    public int flatten(FlatAst ast) {
+        int type = myType.flatten(ast);
+        return ast.add(FlatAst.FORMAL_DECL, 0, 0, 0, type, myId.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         myType.unparse(p, 0);
         p.print(" ");
@@ -817,10 +1659,10 @@ class StructDeclNode extends DeclNode {
      *     add a new entry to symbol table for this struct
      */
     public SymInfo nameAnalysis(SymTable symTab) {
-        String name = myId.name();
+        int id = myId.id();
         boolean badDecl = false;
         
-        if (symTab.lookupLocal(name) != null) {
+        if (symTab.lookupLocal(id) != null) {
             ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
                          "Multiply declared identifier");
             badDecl = true;            
@@ -833,23 +1675,43 @@ class StructDeclNode extends DeclNode {
         
         if (!badDecl) {
             try {   // add entry to symbol table
-                StructDefInfo sym = new StructDefInfo(structInfoTab);
-                symTab.addDecl(name, sym);
+                StructDefInfo sym = new StructDefInfo(structInfoTab, myId);
+                sym.layout(fields());
+                symTab.addDecl(id, sym);
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in StructDeclNode.nameAnalysis");
-                System.exit(-1);
+                ErrMsg.internal("Unexpected DuplicateSymException " +
+                                " in StructDeclNode.nameAnalysis");
             } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in StructDeclNode.nameAnalysis");
-                System.exit(-1);
+                ErrMsg.internal("Unexpected EmptySymTableException " +
+                                " in StructDeclNode.nameAnalysis");
             }
         }
         
         return null;
     }    
     
+    /**
+     * Return the symbols of the (good) fields, in order.
+     */
+    private List<SymInfo> fields() {
+        List<SymInfo> fields = new ArrayList<SymInfo>();
+        for (DeclNode node : myDeclList.getList()) {
+            if (node instanceof VarDeclNode) {
+                SymInfo sym = ((VarDeclNode)node).getMyId().sym();
+                if (sym != null) {  // null if the decl is bad
+                    fields.add(sym);
+                }
+            }
+        }
+        return fields;
+    }
+    
+    public int flatten(FlatAst ast) {
+        int id = myId.flatten(ast);
+        return ast.add(FlatAst.STRUCT_DECL, 0, 0, 0, id, myDeclList.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("struct ");
@@ -884,7 +1746,11 @@ class IntNode extends TypeNode {
      * type
      */
     public Type type() {
-        return new IntType();
+        return Type.INT;
+    }
+    
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.INT, 0, 0, 0);
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -900,7 +1766,11 @@ class BoolNode extends TypeNode {
      * type
      */
     public Type type() {
-        return new BoolType();
+        return Type.BOOL;
+    }
+    
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.BOOL, 0, 0, 0);
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -916,7 +1786,11 @@ class VoidNode extends TypeNode {
      * type
      */
     public Type type() {
-        return new VoidType();
+        return Type.VOID;
+    }
+    
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.VOID, 0, 0, 0);
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -937,7 +1811,14 @@ class StructNode extends TypeNode {
      * type
      */
     public Type type() {
-        return new StructType(myId);
+        if (myId.sym() instanceof StructDefInfo) {
+            return ((StructDefInfo)myId.sym()).getStructType();
+        }
+        return new StructType(myId);  // not linked to a definition
+    }
+    
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.STRUCT, 0, 0, 0, myId.flatten(ast));
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -955,11 +1836,25 @@ class StructNode extends TypeNode {
 
 abstract class StmtNode extends ASTnode {
     abstract public void nameAnalysis(SymTable symTab);
-    public void nameAnalysis(SymTable symTab, int offset) {
+    
+    // returns the end of the frame area used (by nested blocks)
+    public int nameAnalysis(SymTable symTab, int offset) {
 			nameAnalysis(symTab);
+			return offset;
 	}
     abstract public void typeCheck(Type retType);
+    
+    // does the nameAnalysis and the typeCheck in one walk (see
+    // ProgramNode.analyze); returns the end of the frame area used
+    abstract public int analyze(SymTable symTab, int offset, Type retType);
+    
     public void codeGen(String label) {}
+    
+    // executes the statement, returns Interpreter.NORMAL or RETURN
+    abstract public int exec(int[] frame);
+    
+    // generates JVM code for the statement (empty operand stack before/after)
+    abstract public void jvmGen();
 }
 
 class AssignStmtNode extends StmtNode {
@@ -981,7 +1876,19 @@ class AssignStmtNode extends StmtNode {
     public void typeCheck(Type retType) {
         myAssign.typeCheck();
     }
+    
+    /**
+     * analyze
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        myAssign.analyze(symTab);
+        return offset;
+    }
         
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.ASSIGN_STMT, 0, 0, 0, myAssign.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myAssign.unparse(p, -1); // no parentheses
@@ -992,7 +1899,17 @@ class AssignStmtNode extends StmtNode {
 		this.myAssign.codeGen();
         Codegen.genPop(Codegen.T0);
 	}
+    
+    public int exec(int[] frame) {
+        myAssign.eval(frame);
+        return Interpreter.NORMAL;
+    }
 
+    public void jvmGen() {
+        myAssign.jvmGen();
+        JvmCodegen.code.op(ClassFile.POP, -1);
+    }
+    
     // 1 kid
     private AssignNode myAssign;
 }
@@ -1014,14 +1931,32 @@ class PostIncStmtNode extends StmtNode {
      * typeCheck
      */
     public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
-        
+        check(myExp.typeCheck());
+    }
+    
+    /**
+     * analyze
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        check(myExp.analyze(symTab));
+        return offset;
+    }
+    
+    /**
+     * check
+     * Checks this statement given the type of its expression.
+     */
+    private void check(Type type) {
         if (!type.isErrorType() && !type.isIntType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
         }
     }
         
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.POST_INC, 0, 0, 0, myExp.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myExp.unparse(p, 0);
@@ -1044,8 +1979,23 @@ class PostIncStmtNode extends StmtNode {
 			Codegen.generateIndexed("sw", Codegen.T0, Codegen.T1, 0);
 			
 		}
+		else if (myExp instanceof DotAccessExpNode) {
+			DotAccessExpNode dotExp = (DotAccessExpNode)myExp;
+			Codegen.generate("lw", Codegen.T0, dotExp.loc());
+			Codegen.generate("add", Codegen.T0, Codegen.T0, 1);
+			dotExp.genStore(Codegen.T0);
+		}
 	}
+    
+    public int exec(int[] frame) {
+        myExp.store(frame, myExp.eval(frame) + 1);
+        return Interpreter.NORMAL;
+    }
 
+    public void jvmGen() {
+        myExp.jvmGenInc(1);
+    }
+    
     // 1 kid
     private ExpNode myExp;
 }
@@ -1067,14 +2017,32 @@ class PostDecStmtNode extends StmtNode {
      * typeCheck
      */
     public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
-        
+        check(myExp.typeCheck());
+    }
+    
+    /**
+     * analyze
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        check(myExp.analyze(symTab));
+        return offset;
+    }
+    
+    /**
+     * check
+     * Checks this statement given the type of its expression.
+     */
+    private void check(Type type) {
         if (!type.isErrorType() && !type.isIntType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
         }
     }
         
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.POST_DEC, 0, 0, 0, myExp.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myExp.unparse(p, 0);
@@ -1094,8 +2062,23 @@ class PostDecStmtNode extends StmtNode {
 			
 			Codegen.generateIndexed("sw", Codegen.T0, Codegen.T1, 0);		
 		}
+		else if (myExp instanceof DotAccessExpNode) {
+			DotAccessExpNode dotExp = (DotAccessExpNode)myExp;
+			Codegen.generate("lw", Codegen.T0, dotExp.loc());
+			Codegen.generate("sub", Codegen.T0, Codegen.T0, "1");
+			dotExp.genStore(Codegen.T0);
+		}
 	}
     
+    public int exec(int[] frame) {
+        myExp.store(frame, myExp.eval(frame) - 1);
+        return Interpreter.NORMAL;
+    }
+    
+    public void jvmGen() {
+        myExp.jvmGenInc(-1);
+    }
+    
     // 1 kid
     private ExpNode myExp;
 }
@@ -1117,24 +2100,42 @@ class ReadStmtNode extends StmtNode {
      * typeCheck
      */
     public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
-        
-        if (type.isFnType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to read a function");
-        }
-        
-        if (type.isStructDefType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to read a struct name");
-        }
-        
-        if (type.isStructType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to read a struct variable");
+        check(myExp.typeCheck());
+    }
+    
+    /**
+     * analyze
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        check(myExp.analyze(symTab));
+        return offset;
+    }
+    
+    /**
+     * check
+     * Checks this statement given the type of its expression.
+     */
+    private void check(Type type) {
+        switch (type.tag()) {
+        case Type.TAG_FN:
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to read a function");
+            break;
+        case Type.TAG_STRUCTDEF:
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to read a struct name");
+            break;
+        case Type.TAG_STRUCT:
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to read a struct variable");
+            break;
         }
     }
     
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.READ, 0, 0, 0, myExp.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("cin >> ");
@@ -1146,14 +2147,41 @@ class ReadStmtNode extends StmtNode {
 
         if(myExp instanceof IdNode){
             ((IdNode) myExp).genAddr();
-			Codegen.genPop(Codegen.T0);
-			Codegen.generate("li", Codegen.V0, 5);
-			Codegen.generate("syscall");
+            if (Codegen.bufferedIO) {
+                Codegen.generate("jal", ".Lrt_read_int");
+                Codegen.genPop(Codegen.T0);
+            }
+            else {
+			    Codegen.genPop(Codegen.T0);
+			    Codegen.generate("li", Codegen.V0, 5);
+			    Codegen.generate("syscall");
+            }
 			Codegen.generateIndexed("sw", Codegen.V0, Codegen.T0, 0 );
 			
 		}
+        else if (myExp instanceof DotAccessExpNode) {
+            if (Codegen.bufferedIO) {
+                Codegen.generate("jal", ".Lrt_read_int");
+            }
+            else {
+			    Codegen.generate("li", Codegen.V0, 5);
+			    Codegen.generate("syscall");
+            }
+            ((DotAccessExpNode)myExp).genStore(Codegen.V0);
+        }
+    }
+    
+    public int exec(int[] frame) {
+        myExp.store(frame, Interpreter.readInt());
+        return Interpreter.NORMAL;
     }
 
+    public void jvmGen() {
+        JvmCodegen.code.invokestatic(JvmCodegen.RUNTIME, "readInt", "()I",
+                                     0, true);
+        myExp.jvmGenStore();
+    }
+    
     // 1 kid (actually can only be an IdNode or an ArrayExpNode)
     private ExpNode myExp;
 }
@@ -1175,29 +2203,46 @@ class WriteStmtNode extends StmtNode {
      * typeCheck
      */
     public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
-        
-        if (type.isFnType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to write a function");
-        }
-        
-        if (type.isStructDefType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to write a struct name");
-        }
-        
-        if (type.isStructType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to write a struct variable");
-        }
-        
-        if (type.isVoidType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to write void");
+        check(myExp.typeCheck());
+    }
+    
+    /**
+     * analyze
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        check(myExp.analyze(symTab));
+        return offset;
+    }
+    
+    /**
+     * check
+     * Checks this statement given the type of its expression.
+     */
+    private void check(Type type) {
+        switch (type.tag()) {
+        case Type.TAG_FN:
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to write a function");
+            break;
+        case Type.TAG_STRUCTDEF:
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to write a struct name");
+            break;
+        case Type.TAG_STRUCT:
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to write a struct variable");
+            break;
+        case Type.TAG_VOID:
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to write void");
+            break;
         }
     }
         
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.WRITE, 0, 0, 0, myExp.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("cout << ");
@@ -1209,7 +2254,17 @@ class WriteStmtNode extends StmtNode {
 		myExp.codeGen();
 		Codegen.genPop(Codegen.A0);
 		
-        if(myExp instanceof StringLitNode){
+		if (Codegen.bufferedIO) {
+		    if (myExp.type().isStringType()) {
+		        Codegen.generate("jal", ".Lrt_print_str");
+		    }
+		    else {
+		        Codegen.generate("jal", ".Lrt_print_int");
+		    }
+		    return;
+		}
+		
+        if(myExp.type().isStringType()){
 			Codegen.generate("li", Codegen.V0, 4);
         }
         
@@ -1220,104 +2275,245 @@ class WriteStmtNode extends StmtNode {
        	Codegen.generate("syscall");	     
 	}
     
+    public int exec(int[] frame) {
+        if (myExp instanceof StringLitNode) {
+            Interpreter.out.print(((StringLitNode)myExp).value());
+        }
+        else {
+            Interpreter.out.print(myExp.eval(frame));
+        }
+        return Interpreter.NORMAL;
+    }
+    
 
+    public void jvmGen() {
+        myExp.jvmGen();
+        if (myExp instanceof StringLitNode) {
+            JvmCodegen.code.invokestatic(JvmCodegen.RUNTIME, "print",
+                                         "(Ljava/lang/String;)V", 1, false);
+        }
+        else {
+            JvmCodegen.code.invokestatic(JvmCodegen.RUNTIME, "print",
+                                         "(I)V", 1, false);
+        }
+    }
+    
     // 1 kid
     private ExpNode myExp;
 }
 
-class IfStmtNode extends StmtNode {
-    public IfStmtNode(ExpNode exp, DeclListNode dlist, StmtListNode slist) {
-        myDeclList = dlist;
-        myExp = exp;
-        myStmtList = slist;
+// **********************************************************************
+// BlockStmtNode: the statements with nested lists (if, if-else, while)
+// **********************************************************************
+
+// A block statement has a condition and one or two arms (then, else),
+// each one a scope with its decls and stmts.  The passes over statement
+// lists do not recurse into the arms: they are walked by StmtWalk, using
+// the hooks below, with an explicit stack.
+
+abstract class BlockStmtNode extends StmtNode {
+    // blocks need an offset (see nameAnalysis(SymTable, int))
+    public void nameAnalysis(SymTable symTab) {
+        ErrMsg.internal("Unexpected call of " + getClass().getName() +
+                        ".nameAnalysis without an offset");
     }
     
     /**
      * nameAnalysis
      * Given a symbol table symTab, do:
      * - process the condition
-     * - enter a new scope
-     * - process the decls and stmts
-     * - exit the scope
+     * - for each arm: enter a new scope, process the decls and stmts,
+     *   exit the scope
      */
+    public int nameAnalysis(SymTable symTab, int offset) {
+        return new StmtWalk.NameAnalysis(symTab).walk(asList(), offset);
+    }
     
-    public void nameAnalysis(SymTable symTab) {
-		System.out.println("IFSTMT: This should NOT BE CALLED");
-	}
+    /**
+     * typeCheck
+     */
+    public void typeCheck(Type retType) {
+        new StmtWalk.TypeCheck(retType).walk(asList(), 0);
+    }
     
-    public void nameAnalysis(SymTable symTab, int offset) {
-        myExp.nameAnalysis(symTab);
-        symTab.addScope();		
-        myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab, offset + 4*myDeclList.getList().size());
-      
-        this.offset = 0;
-        for (DeclNode d : myDeclList.getList()) {
-			if (d instanceof VarDeclNode) {
-				((VarDeclNode)d).getMyId().sym().setOffset(offset + this.offset);
-				this.offset += 4;
-				
-			}
-		}      
+    /**
+     * analyze
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        return new StmtWalk.Analyze(symTab, retType).walk(asList(), offset);
+    }
+    
+    public void unparse(PrintWriter p, int indent) {
+        new StmtWalk.Unparse(p).walk(asList(), indent);
+    }
+    
+    public void codeGen(String label) {
+        new StmtWalk.CodeGen(label).walk(asList(), 0);
+    }
+    
+    public void jvmGen() {
+        new StmtWalk.JvmGen().walk(asList(), 0);
+    }
+    
+    public int flatten(FlatAst ast) {
+        return new StmtWalk.Flatten(ast).flatten(asList()).get(0);
+    }
+    
+    private List<StmtNode> asList() {
+        return Collections.<StmtNode>singletonList(this);
+    }
+    
+    /**
+     * enterScope
+     * Enters the scope of arm k, which starts at offset in the frame:
+     * processes its decls and gives them their places.  Returns the
+     * offset of the statements of the arm.
+     */
+    public int enterScope(SymTable symTab, int k, int offset) {
+        symTab.addScope();
+        DeclListNode decls = declList(k);
+        decls.nameAnalysis(symTab);
+        int end = decls.allocLocals(offset);
+        setArmSize(k, end - offset);
+        return end;
+    }
+    
+    /**
+     * leaveScope
+     * Exits the scope of an arm.
+     */
+    public void leaveScope(SymTable symTab) {
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in IfStmtNode.nameAnalysis");
-            System.exit(-1);        
+            ErrMsg.internal("Unexpected EmptySymTableException " +
+                            " in BlockStmtNode.leaveScope");
         }
     }
     
-     /**
-     * typeCheck
+    // the condition
+    abstract public ExpNode cond();
+    
+    // number of arms (1 or 2), and the decls and stmts of arm k
+    abstract public int numArms();
+    abstract public DeclListNode declList(int k);
+    abstract public StmtListNode stmtList(int k);
+    
+    // records the size of the locals of arm k
+    abstract protected void setArmSize(int k, int size);
+    
+    // checks the condition, of the given type
+    abstract public void checkCond(Type type);
+    
+    // prints what comes before the stmts of arm k
+    abstract public void unparseHead(PrintWriter p, int indent, int k);
+    
+    // generates the code that comes before / after the stmts of arm k
+    abstract public void codeGenEnter(int k);
+    abstract public void codeGenLeave(int k);
+    
+    // the same for JVM code
+    abstract public void jvmGenEnter(int k);
+    abstract public void jvmGenLeave(int k);
+    
+    // the kind of node in a FlatAst
+    abstract public int flatKind();
+}
+
+class IfStmtNode extends BlockStmtNode {
+    public IfStmtNode(ExpNode exp, DeclListNode dlist, StmtListNode slist) {
+        myDeclList = dlist;
+        myExp = exp;
+        myStmtList = slist;
+    }
+    
+    public int flatKind() {
+        return FlatAst.IF;
+    }
+    
+    public ExpNode cond() {
+        return myExp;
+    }
+    
+    public int numArms() {
+        return 1;
+    }
+    
+    public DeclListNode declList(int k) {
+        return myDeclList;
+    }
+    
+    public StmtListNode stmtList(int k) {
+        return myStmtList;
+    }
+    
+    protected void setArmSize(int k, int size) {
+        this.offset = size;
+    }
+    
+    /**
+     * checkCond
      */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
-        
+    public void checkCond(Type type) {
         if (!type.isErrorType() && !type.isBoolType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Non-bool expression used as an if condition");        
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Non-bool expression used as an if condition");        
         }
-        
-        myStmtList.typeCheck(retType);
     }
        
-    public void unparse(PrintWriter p, int indent) {
+    public void unparseHead(PrintWriter p, int indent, int k) {
         doIndent(p, indent);
         p.print("if (");
         myExp.unparse(p, 0);
         p.println(") {");
         myDeclList.unparse(p, indent+4);
-        myStmtList.unparse(p, indent+4);
-        doIndent(p, indent);
-        p.println("}");
     }
     
-    public void codeGen(String label) {
-		String label1 = Codegen.nextLabel();
-		String label2 = Codegen.nextLabel();
+    public void codeGenEnter(int k) {
+		Codegen.nextLabel();  // not used
+		myExitLabel = Codegen.nextLabel();
 		
 		myExp.codeGen();
 		Codegen.genPop(Codegen.T0);
 		
-		Codegen.generate("bne", Codegen.T0, "1", label2);
+		Codegen.generate("bne", Codegen.T0, "1", myExitLabel);
 		
 		Codegen.generate("subu", Codegen.SP, Codegen.SP, this.offset);
-		
-		myStmtList.codeGen(label);
-		
+	}
+    
+    public void codeGenLeave(int k) {
 		Codegen.generate("addu", Codegen.SP, Codegen.SP, this.offset);
 		
-		Codegen.genLabel(label2);
+		Codegen.genLabel(myExitLabel);
 	}
+    
+    public int exec(int[] frame) {
+        if (myExp.eval(frame) != 0) {
+            return myStmtList.exec(frame);
+        }
+        return Interpreter.NORMAL;
+    }
+
+    public void jvmGenEnter(int k) {
+        myExitLab = new Label();
+        myExp.jvmGen();
+        JvmCodegen.code.branch(ClassFile.IFEQ, myExitLab);
+    }
+    
+    public void jvmGenLeave(int k) {
+        JvmCodegen.code.placeLabel(myExitLab);
+    }
+    
     // 4 kids
     private ExpNode myExp;
     private DeclListNode myDeclList;
     private StmtListNode myStmtList;
     private int offset;
+    private String myExitLabel;
+    private Label myExitLab;
 }
 
-class IfElseStmtNode extends StmtNode {
+class IfElseStmtNode extends BlockStmtNode {
     public IfElseStmtNode(ExpNode exp, DeclListNode dlist1,
                           StmtListNode slist1, DeclListNode dlist2,
                           StmtListNode slist2) {
@@ -1328,123 +2524,113 @@ class IfElseStmtNode extends StmtNode {
         myElseStmtList = slist2;
     }
     
-    public void nameAnalysis(SymTable s) {
-		System.out.println("This should not occur");
-	}
+    public int flatKind() {
+        return FlatAst.IF_ELSE;
+    }
+    
+    public ExpNode cond() {
+        return myExp;
+    }
+    
+    public int numArms() {
+        return 2;
+    }
+    
+    public DeclListNode declList(int k) {
+        return k == 0 ? myThenDeclList : myElseDeclList;
+    }
+    
+    public StmtListNode stmtList(int k) {
+        return k == 0 ? myThenStmtList : myElseStmtList;
+    }
+    
+    protected void setArmSize(int k, int size) {
+        if (k == 0) {
+            this.offsetThen = size;
+        }
+        else {
+            this.offsetElse = size;
+        }
+    }
     
     /**
-     * nameAnalysis
-     * Given a symbol table symTab, do:
-     * - process the condition
-     * - enter a new scope
-     * - process the decls and stmts of then
-     * - exit the scope
-     * - enter a new scope
-     * - process the decls and stmts of else
-     * - exit the scope
-     */
-    public void nameAnalysis(SymTable symTab, int offset) {
-        myExp.nameAnalysis(symTab);
-        symTab.addScope();
-              
-        myThenDeclList.nameAnalysis(symTab);
-        myThenStmtList.nameAnalysis(symTab, offset + 4*myThenDeclList.getList().size());
-        
-        this.offsetThen = 0;
-        for (DeclNode d : myThenDeclList.getList()) {
-			if (d instanceof VarDeclNode) {
-				((VarDeclNode)d).getMyId().sym().setOffset(offset + this.offsetThen);
-				this.offsetThen += 4;
-				
-			}
-		}
-        
-       try {
-            symTab.removeScope();
-        } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in IfStmtNode.nameAnalysis");
-            System.exit(-1);        
+     * checkCond
+     */
+    public void checkCond(Type type) {
+        if (!type.isErrorType() && !type.isBoolType()) {
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Non-bool expression used as an if condition");        
         }
-        symTab.addScope();
-                
-        myElseDeclList.nameAnalysis(symTab);
-        myElseStmtList.nameAnalysis(symTab, offset + 4*myElseDeclList.getList().size());
-        
-        this.offsetElse = 0;
-        for (DeclNode d : myElseDeclList.getList()) {
-			if (d instanceof VarDeclNode) {
-				((VarDeclNode)d).getMyId().sym().setOffset(offset + this.offsetElse);
-				this.offsetElse += 4;
-				
-			}
-		}
+    }
         
-        try {
-            symTab.removeScope();
-        } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in IfStmtNode.nameAnalysis");
-            System.exit(-1);        
+    public void unparseHead(PrintWriter p, int indent, int k) {
+        doIndent(p, indent);
+        if (k == 0) {
+            p.print("if (");
+            myExp.unparse(p, 0);
+            p.println(") {");
+            myThenDeclList.unparse(p, indent+4);
+        }
+        else {
+            p.println("else {");
+            myElseDeclList.unparse(p, indent+4);
+        }
+    }
+    
+    public void codeGenEnter(int k) {
+        if (k == 0) {
+		    myElseLabel = Codegen.nextLabel();
+		    myExitLabel = Codegen.nextLabel();
+		    
+		    myExp.codeGen();
+		    Codegen.genPop(Codegen.T0);
+		    
+		    Codegen.generate("bne", Codegen.T0, "1", myElseLabel);
+		    Codegen.generate("subu", Codegen.SP, Codegen.SP, this.offsetThen);
+        }
+        else {
+		    Codegen.generate("subu", Codegen.SP, Codegen.SP, this.offsetElse);
+        }
+	}
+    
+    public void codeGenLeave(int k) {
+        if (k == 0) {
+		    Codegen.generate("addu", Codegen.SP, Codegen.SP, this.offsetThen);
+		    Codegen.generate("b", myExitLabel);	
+		    Codegen.genLabel(myElseLabel);
+        }
+        else {
+		    Codegen.generate("addu", Codegen.SP, Codegen.SP, this.offsetElse);
+		    Codegen.genLabel(myExitLabel);
+        }
+	}
+    
+    public int exec(int[] frame) {
+        if (myExp.eval(frame) != 0) {
+            return myThenStmtList.exec(frame);
+        }
+        return myElseStmtList.exec(frame);
+    }
+
+    public void jvmGenEnter(int k) {
+        if (k == 0) {
+            myElseLab = new Label();
+            myExitLab = new Label();
+            myExp.jvmGen();
+            JvmCodegen.code.branch(ClassFile.IFEQ, myElseLab);
         }
     }
     
-    /**
-     * typeCheck
-     */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
-        
-        if (!type.isErrorType() && !type.isBoolType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Non-bool expression used as an if condition");        
+    public void jvmGenLeave(int k) {
+        if (k == 0) {
+            JvmCodegen.code.branch(ClassFile.GOTO, myExitLab);
+            JvmCodegen.code.placeLabel(myElseLab);
+        }
+        else {
+            JvmCodegen.code.placeLabel(myExitLab);
         }
-        
-        myThenStmtList.typeCheck(retType);
-        myElseStmtList.typeCheck(retType);
-    }
-        
-    public void unparse(PrintWriter p, int indent) {
-        doIndent(p, indent);
-        p.print("if (");
-        myExp.unparse(p, 0);
-        p.println(") {");
-        myThenDeclList.unparse(p, indent+4);
-        myThenStmtList.unparse(p, indent+4);
-        doIndent(p, indent);
-        p.println("}");
-        doIndent(p, indent);
-        p.println("else {");
-        myElseDeclList.unparse(p, indent+4);
-        myElseStmtList.unparse(p, indent+4);
-        doIndent(p, indent);
-        p.println("}");        
     }
     
-    public void codeGen(String label) {
-		String label1 = Codegen.nextLabel();
-		String label2 = Codegen.nextLabel();
-		
-		myExp.codeGen();
-		Codegen.genPop(Codegen.T0);
-		
-		Codegen.generate("bne", Codegen.T0, "1", label1);
-		
-		Codegen.generate("subu", Codegen.SP, Codegen.SP, this.offsetThen);
-		myThenStmtList.codeGen(label);
-		Codegen.generate("addu", Codegen.SP, Codegen.SP, this.offsetThen);
-		
-		Codegen.generate("b", label2);	
-		
-		Codegen.genLabel(label1);
-		Codegen.generate("subu", Codegen.SP, Codegen.SP, this.offsetElse);
-		myElseStmtList.codeGen(label);
-		Codegen.generate("addu", Codegen.SP, Codegen.SP, this.offsetElse);
-		
-		Codegen.genLabel(label2);
-		
-	}
-
     // 5 kids
     private ExpNode myExp;
     private DeclListNode myThenDeclList;
@@ -1453,102 +2639,112 @@ class IfElseStmtNode extends StmtNode {
     private DeclListNode myElseDeclList;
     private int offsetThen;
     private int offsetElse;
+    private String myElseLabel;
+    private String myExitLabel;
+    private Label myElseLab;
+    private Label myExitLab;
 }
 
-class WhileStmtNode extends StmtNode {
+class WhileStmtNode extends BlockStmtNode {
     public WhileStmtNode(ExpNode exp, DeclListNode dlist, StmtListNode slist) {
         myExp = exp;
         myDeclList = dlist;
         myStmtList = slist;
     }
     
-    /**
-     * nameAnalysis
-     * Given a symbol table symTab, do:
-     * - process the condition
-     * - enter a new scope
-     * - process the decls and stmts
-     * - exit the scope
-     */
-     
-    public void nameAnalysis(SymTable symTab) {
-			System.out.println("This should not run: WHile loop");
-	} 
-     
-    public void nameAnalysis(SymTable symTab, int offset) {
-        myExp.nameAnalysis(symTab);
-        symTab.addScope();
-        
-        myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab, offset + 4*myDeclList.getList().size());
-        
-        this.offset = 0;
-        for (DeclNode d : myDeclList.getList()) {
-			if (d instanceof VarDeclNode) {
-				((VarDeclNode)d).getMyId().sym().setOffset(offset + this.offset);
-				this.offset += 4;
-				
-			}
-		}		
-        try {
-            symTab.removeScope();
-        } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in IfStmtNode.nameAnalysis");
-            System.exit(-1);        
-        }
+    public int flatKind() {
+        return FlatAst.WHILE;
+    }
+    
+    public ExpNode cond() {
+        return myExp;
+    }
+    
+    public int numArms() {
+        return 1;
+    }
+    
+    public DeclListNode declList(int k) {
+        return myDeclList;
+    }
+    
+    public StmtListNode stmtList(int k) {
+        return myStmtList;
+    }
+    
+    protected void setArmSize(int k, int size) {
+        this.offset = size;
     }
     
     /**
-     * typeCheck
+     * checkCond
      */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
-        
+    public void checkCond(Type type) {
         if (!type.isErrorType() && !type.isBoolType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Non-bool expression used as a while condition");        
+            ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                             "Non-bool expression used as a while condition");        
         }
-        
-        myStmtList.typeCheck(retType);
     }
         
-    public void unparse(PrintWriter p, int indent) {
+    public void unparseHead(PrintWriter p, int indent, int k) {
         doIndent(p, indent);
         p.print("while (");
         myExp.unparse(p, 0);
         p.println(") {");
         myDeclList.unparse(p, indent+4);
-        myStmtList.unparse(p, indent+4);
-        doIndent(p, indent);
-        p.println("}");
     }
     
-    public void codeGen(String label) {
-		String label1 = Codegen.nextLabel();
-		String label2 = Codegen.nextLabel();
+    public void codeGenEnter(int k) {
+		myLoopLabel = Codegen.nextLabel();
+		myExitLabel = Codegen.nextLabel();
 		
-		Codegen.genLabel(label1);
+		Codegen.genLabel(myLoopLabel);
 		myExp.codeGen();
 		
 		Codegen.genPop(Codegen.T0);
 		
-		Codegen.generate("bne", Codegen.T0, "1", label2);
+		Codegen.generate("bne", Codegen.T0, "1", myExitLabel);
 		Codegen.generate("subu", Codegen.SP, Codegen.SP, this.offset);
-		
-		myStmtList.codeGen(label);
-		
+	}
+    
+    public void codeGenLeave(int k) {
 		Codegen.generate("addu", Codegen.SP, Codegen.SP, this.offset);
-		Codegen.generate("j", label1);
+		Codegen.generate("j", myLoopLabel);
 		
-		Codegen.genLabel(label2);
+		Codegen.genLabel(myExitLabel);
 	}
+    
+    public int exec(int[] frame) {
+        while (myExp.eval(frame) != 0) {
+            if (myStmtList.exec(frame) == Interpreter.RETURN) {
+                return Interpreter.RETURN;
+            }
+        }
+        return Interpreter.NORMAL;
+    }
 
+    public void jvmGenEnter(int k) {
+        myLoopLab = new Label();
+        myExitLab = new Label();
+        JvmCodegen.code.placeLabel(myLoopLab);
+        myExp.jvmGen();
+        JvmCodegen.code.branch(ClassFile.IFEQ, myExitLab);
+    }
+    
+    public void jvmGenLeave(int k) {
+        JvmCodegen.code.branch(ClassFile.GOTO, myLoopLab);
+        JvmCodegen.code.placeLabel(myExitLab);
+    }
+    
     // 4 kids
     private ExpNode myExp;
     private DeclListNode myDeclList;
     private StmtListNode myStmtList;
     private int offset;
+    private String myLoopLabel;
+    private String myExitLabel;
+    private Label myLoopLab;
+    private Label myExitLab;
 }
 
 class CallStmtNode extends StmtNode {
@@ -1571,6 +2767,18 @@ class CallStmtNode extends StmtNode {
         myCall.typeCheck();
     }
     
+    /**
+     * analyze
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        myCall.analyze(symTab);
+        return offset;
+    }
+    
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.CALL_STMT, 0, 0, 0, myCall.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         myCall.unparse(p, indent);
@@ -1581,7 +2789,19 @@ class CallStmtNode extends StmtNode {
         this.myCall.codeGen();
         Codegen.genPop(Codegen.T0);
     }
+    
+    public int exec(int[] frame) {
+        myCall.eval(frame);
+        return Interpreter.NORMAL;
+    }
 
+    public void jvmGen() {
+        myCall.jvmGen();
+        if (myCall.returnsValue()) {
+            JvmCodegen.code.op(ClassFile.POP, -1);
+        }
+    }
+    
     // 1 kid
     private CallExpNode myCall;
 }
@@ -1611,28 +2831,51 @@ class ReturnStmtNode extends StmtNode {
      * typeCheck
      */
     public void typeCheck(Type retType) {
+        check(myExp == null ? null : myExp.typeCheck(), retType);
+    }
+    
+    /**
+     * analyze
+     */
+    public int analyze(SymTable symTab, int offset, Type retType) {
+        check(myExp == null ? null : myExp.analyze(symTab), retType);
+        return offset;
+    }
+    
+    /**
+     * check
+     * Checks the returned value, of the given type (null if there is
+     * none), against the return type of the function.
+     */
+    private void check(Type type, Type retType) {
         if (myExp != null) {  // return value given
-            Type type = myExp.typeCheck();
-            
             if (retType.isVoidType()) {
-                ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                             "Return with a value in a void function");                
+                ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                                 "Return with a value in a void function");                
             }
             
             else if (!retType.isErrorType() && !type.isErrorType() && !retType.equals(type)){
-                ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                             "Bad return value");
+                ErrMsg.typeError(myExp.lineNum(), myExp.charNum(),
+                                 "Bad return value");
             }
         }
         
         else {  // no return value given -- ok if this is a void function
             if (!retType.isVoidType()) {
-                ErrMsg.fatal(0, 0, "Missing return value");                
+                ErrMsg.typeError(0, 0, "Missing return value");                
             }
         }
         
     }
     
+    public int flatten(FlatAst ast) {
+        if (myExp == null) {
+            return ast.add(FlatAst.RETURN, myLinenum, myCharnum, 0);
+        }
+        return ast.add(FlatAst.RETURN, myLinenum, myCharnum, 0,
+                       myExp.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         doIndent(p, indent);
         p.print("return");
@@ -1652,7 +2895,25 @@ class ReturnStmtNode extends StmtNode {
 		
 		Codegen.generate("b", exitLabel);
 	}
+    
+    public int exec(int[] frame) {
+        if (myExp != null) {
+            Interpreter.retVal = myExp.eval(frame);
+        }
+        return Interpreter.RETURN;
+    }
 
+    public void jvmGen() {
+        if (myExp != null) {
+            myExp.jvmGen();
+            JvmCodegen.code.op(ClassFile.IRETURN, -1);
+        }
+        else {
+            JvmCodegen.code.op(ClassFile.RETURN, 0);
+        }
+        JvmCodegen.code.endPath();
+    }
+    
     // 3 kid
     private ExpNode myExp; // possibly null
     private int myCharnum;
@@ -1670,10 +2931,56 @@ abstract class ExpNode extends ASTnode {
     public void nameAnalysis(SymTable symTab) { }
     
     abstract public Type typeCheck();
+    
+    /**
+     * analyze
+     * Does the nameAnalysis and the typeCheck of this node in one walk
+     * (see ProgramNode.analyze) and returns its type.  This version is
+     * for nodes whose typeCheck does not visit the kids.
+     */
+    public Type analyze(SymTable symTab) {
+        nameAnalysis(symTab);
+        return typeCheck();
+    }
+    
+    /**
+     * Return the type of this expression, as found by typeCheck or
+     * analyze.
+     */
+    public Type type() {
+        return myType;
+    }
+    
     abstract public int lineNum();
     abstract public int charNum();
     public void codeGen() {}
-    public static Hashtable<String, String> stringTable = new Hashtable<String, String>();
+    
+    // evaluates the expression in the given frame (bools are 0 or 1)
+    abstract public int eval(int[] frame);
+    
+    // stores a value into the location denoted by this expression
+    public void store(int[] frame, int val) {
+        throw new InterpreterException("assignment to a non-location");
+    }
+    
+    // generates JVM code that pushes the value of the expression
+    abstract public void jvmGen();
+    
+    // generates JVM code that pops a value into this location
+    public void jvmGenStore() {
+        ErrMsg.fatal(lineNum(), charNum(), "Assignment to a non-location");
+        JvmCodegen.code.op(ClassFile.POP, -1);
+    }
+    
+    // generates JVM code that adds delta to this location
+    public void jvmGenInc(int delta) {
+        jvmGen();
+        JvmCodegen.code.iconst(delta);
+        JvmCodegen.code.op(ClassFile.IADD, -1);
+        jvmGenStore();
+    }
+    
+    protected Type myType;  // set by typeCheck
 }
 
 class IntLitNode extends ExpNode {
@@ -1701,7 +3008,11 @@ class IntLitNode extends ExpNode {
      * typeCheck
      */
     public Type typeCheck() {
-        return new IntType();
+        return myType = Type.INT;
+    }
+    
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.INT_LIT, myLineNum, myCharNum, myIntVal);
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -1712,7 +3023,15 @@ class IntLitNode extends ExpNode {
 		Codegen.generate("li", Codegen.T0, this.myIntVal);
         Codegen.genPush(Codegen.T0);
 	}
+    
+    public int eval(int[] frame) {
+        return myIntVal;
+    }
 
+    public void jvmGen() {
+        JvmCodegen.code.iconst(myIntVal);
+    }
+    
     private int myLineNum;
     private int myCharNum;
     private int myIntVal;
@@ -1743,33 +3062,64 @@ class StringLitNode extends ExpNode {
      * typeCheck
      */
     public Type typeCheck() {
-        return new StringType();
+        return myType = Type.STRING;
     }
         
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.STRING_LIT, myLineNum, myCharNum,
+                       ast.string(myStrVal));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         p.print(myStrVal);
     }
     
     public void codeGen() {
-    	String label = stringTable.get(this.myStrVal);
+    	String label = Codegen.stringLabel(this.myStrVal);
     	if (label == null) {
     		String newLabel = Codegen.nextLabel();
-    		stringTable.put(this.myStrVal, newLabel);
-    		Codegen.p.println("\t.data");
+    		Codegen.addStringLabel(this.myStrVal, newLabel);
+    		Codegen.out().println("\t.data");
     		Codegen.generateLabeled(newLabel, ".asciiz " + myStrVal, "");
-    		Codegen.p.println("\t.text");
+    		Codegen.out().println("\t.text");
     		Codegen.generate("la", Codegen.T0, newLabel);
     		Codegen.genPush(Codegen.T0);
     	}
     	else{
-    		Codegen.p.println("\t.text");
+    		Codegen.out().println("\t.text");
     		Codegen.generate("la", Codegen.T0, label);
     		Codegen.genPush(Codegen.T0);
     	}    	
     }
+    
+    /**
+     * Return the characters this literal denotes (escapes decoded).
+     */
+    public String value() {
+        if (myValue == null) {
+            myValue = Interpreter.decode(myStrVal);
+        }
+        return myValue;
+    }
+    
+    public int eval(int[] frame) {
+        throw new InterpreterException("string used as a value");
+    }
+    
+    public void jvmGen() {
+        if (ClassFile.utf8Length(value()) > 65535) {
+            ErrMsg.fatal(myLineNum, myCharNum,
+                         "String literal too long for the JVM");
+            JvmCodegen.code.iconst(0);
+            return;
+        }
+        JvmCodegen.code.ldcString(value());
+    }
+    
     private int myLineNum;
     private int myCharNum;
     private String myStrVal;
+    private String myValue;  // decoded string, for the interpreter
 }
 
 class TrueNode extends ExpNode {
@@ -1796,9 +3146,13 @@ class TrueNode extends ExpNode {
      * typeCheck
      */
     public Type typeCheck() {
-        return new BoolType();
+        return myType = Type.BOOL;
     }
         
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.TRUE, myLineNum, myCharNum, 0);
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         p.print("true");
     }
@@ -1807,7 +3161,15 @@ class TrueNode extends ExpNode {
 		Codegen.generate("li", Codegen.T0, 1);
         Codegen.genPush(Codegen.T0);
 	}
+    
+    public int eval(int[] frame) {
+        return 1;
+    }
 
+    public void jvmGen() {
+        JvmCodegen.code.iconst(1);
+    }
+    
     private int myLineNum;
     private int myCharNum;
 }
@@ -1836,9 +3198,13 @@ class FalseNode extends ExpNode {
      * typeCheck
      */
     public Type typeCheck() {
-        return new BoolType();
+        return myType = Type.BOOL;
     }
         
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.FALSE, myLineNum, myCharNum, 0);
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         p.print("false");
     }
@@ -1847,16 +3213,25 @@ class FalseNode extends ExpNode {
 		Codegen.generate("li", Codegen.T0, 0);
         Codegen.genPush(Codegen.T0);
 	}
+    
+    public int eval(int[] frame) {
+        return 0;
+    }
 
+    public void jvmGen() {
+        JvmCodegen.code.iconst(0);
+    }
+    
     private int myLineNum;
     private int myCharNum;
 }
 
 class IdNode extends ExpNode {
-    public IdNode(int lineNum, int charNum, String strVal) {
+    public IdNode(int lineNum, int charNum, int id) {
         myLineNum = lineNum;
         myCharNum = charNum;
-        myStrVal = strVal;
+        myIdNum = id;
+        myStrVal = Names.name(id);
     }
 
     /**
@@ -1873,6 +3248,13 @@ class IdNode extends ExpNode {
         return myStrVal;
     }
     
+    /**
+     * Return the id of the name of this ID (see Names).
+     */
+    public int id() {
+        return myIdNum;
+    }
+    
     /**
      * Return the symbol associated with this ID.
      */
@@ -1901,7 +3283,7 @@ class IdNode extends ExpNode {
      * - if ok, link to symbol table entry
      */
     public void nameAnalysis(SymTable symTab) {
-        SymInfo sym = symTab.lookupGlobal(myStrVal);
+        SymInfo sym = symTab.lookupGlobal(myIdNum);
         if (sym == null) {
             ErrMsg.fatal(myLineNum, myCharNum, "Undeclared identifier");
         } else {
@@ -1914,15 +3296,18 @@ class IdNode extends ExpNode {
      */
     public Type typeCheck() {
         if (mySym != null) {
-            return mySym.getType();
+            return myType = mySym.getType();
         } 
         else {
-            System.err.println("ID with null sym field in IdNode.typeCheck");
-            System.exit(-1);
+            ErrMsg.typeInternal("ID with null sym field in IdNode.typeCheck");
         }
-        return null;
+        return myType = Type.ERROR;
     }
            
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.ID, myLineNum, myCharNum, myIdNum);
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         p.print(myStrVal);
         if (mySym != null) {
@@ -1960,8 +3345,53 @@ class IdNode extends ExpNode {
         }
 		
 	}
+	
+    public int eval(int[] frame) {
+        if (mySym.isGlobal()) {
+            return Interpreter.globals[mySym.getOffset() >> 2];
+        }
+        return frame[mySym.getOffset() >> 2];
+    }
+    
+    public void store(int[] frame, int val) {
+        if (mySym.isGlobal()) {
+            Interpreter.globals[mySym.getOffset() >> 2] = val;
+        }
+        else {
+            frame[mySym.getOffset() >> 2] = val;
+        }
+    }
+    
+    public void jvmGen() {
+        if (mySym.isGlobal()) {
+            JvmCodegen.code.getstatic(JvmCodegen.cf.name(), "_" + myStrVal);
+        }
+        else {
+            JvmCodegen.code.iload(mySym.getOffset() >> 2);
+        }
+    }
+    
+    public void jvmGenStore() {
+        if (mySym.isGlobal()) {
+            JvmCodegen.code.putstatic(JvmCodegen.cf.name(), "_" + myStrVal);
+        }
+        else {
+            JvmCodegen.code.istore(mySym.getOffset() >> 2);
+        }
+    }
+    
+    public void jvmGenInc(int delta) {
+        if (mySym.isGlobal()) {
+            super.jvmGenInc(delta);
+        }
+        else {
+            JvmCodegen.code.iinc(mySym.getOffset() >> 2, delta);
+        }
+    }
+    
     private int myLineNum;
     private int myCharNum;
+    private int myIdNum;
     private String myStrVal;
     private SymInfo mySym;
 }
@@ -2057,8 +3487,7 @@ class DotAccessExpNode extends ExpNode {
                         structInfoTab = ((StructDefInfo)sym).getSymTable();
                     }
                     else {
-                        System.err.println("Unexpected Sym type in DotAccessExpNode");
-                        System.exit(-1);
+                        ErrMsg.internal("Unexpected Sym type in DotAccessExpNode");
                     }
                 }
             }
@@ -2066,14 +3495,13 @@ class DotAccessExpNode extends ExpNode {
         }
         
         else { // don't know what kind of thing myLoc is
-            System.err.println("Unexpected node type in LHS of dot-access");
-            System.exit(-1);
+            ErrMsg.internal("Unexpected node type in LHS of dot-access");
         }
         
         // do name analysis on RHS of dot-access in the struct's symbol table
         if (!badAccess) {
         
-            sym = structInfoTab.lookupGlobal(myId.name()); // lookup
+            sym = structInfoTab.lookupGlobal(myId.id()); // lookup
             if (sym == null) { // not found - RHS is not a valid field name
                 ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
                              "Invalid struct field name");
@@ -2087,15 +3515,61 @@ class DotAccessExpNode extends ExpNode {
                 if (sym instanceof StructInfo) {
                     mySym = ((StructInfo)sym).getStructType().sym();
                 }
+                
+                // fold the chain into its base variable and an offset
+                if (myLoc instanceof IdNode) {
+                    myBase = (IdNode)myLoc;
+                    myOffset = sym.getOffset();
+                }
+                else {
+                    myBase = ((DotAccessExpNode)myLoc).myBase;
+                    myOffset = ((DotAccessExpNode)myLoc).myOffset +
+                               sym.getOffset();
+                }
             }
         }
     }    
+    
+    /**
+     * loc
+     * Returns the address of the field as the operand of a load or
+     * store: the base variable's label or $fp, plus a constant.
+     */
+    public String loc() {
+        SymInfo base = myBase.sym();
+        if (base.isGlobal()) {
+            return "_" + myBase.name() + (myOffset == 0 ? "" : "+" + myOffset);
+        }
+        return (myOffset - base.getOffset()) + "(" + Codegen.FP + ")";
+    }
+    
+    /**
+     * codeGen
+     * Pushes the value of the field.
+     */
+    public void codeGen() {
+        Codegen.generate("lw", Codegen.T0, loc());
+        Codegen.genPush(Codegen.T0);
+    }
+    
+    /**
+     * genStore
+     * Stores the given register into the field.
+     */
+    public void genStore(String reg) {
+        Codegen.generate("sw", reg, loc());
+    }
  
     /**
      * typeCheck
      */
     public Type typeCheck() {
-        return myId.typeCheck();
+        return myType = myId.typeCheck();
+    }
+    
+    public int flatten(FlatAst ast) {
+        int loc = myLoc.flatten(ast);
+        return ast.add(FlatAst.DOT_ACCESS, 0, 0, 0, loc, myId.flatten(ast));
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -2103,12 +3577,38 @@ class DotAccessExpNode extends ExpNode {
         p.print(".");
         myId.unparse(p, 0);
     }
+    
+    public int eval(int[] frame) {
+        SymInfo base = myBase.sym();
+        if (base.isGlobal()) {
+            return Interpreter.globals[(base.getOffset() + myOffset) >> 2];
+        }
+        return frame[(base.getOffset() - myOffset) >> 2];
+    }
+    
+    public void store(int[] frame, int val) {
+        SymInfo base = myBase.sym();
+        if (base.isGlobal()) {
+            Interpreter.globals[(base.getOffset() + myOffset) >> 2] = val;
+        }
+        else {
+            frame[(base.getOffset() - myOffset) >> 2] = val;
+        }
+    }
 
+    public void jvmGen() {
+        ErrMsg.fatal(lineNum(), charNum(),
+                     "Struct field access is not supported by the JVM backend");
+        JvmCodegen.code.iconst(0);
+    }
+    
     // 4 kids
     private ExpNode myLoc;    
     private IdNode myId;
     private SymInfo mySym;          // link to Sym for struct type
     private boolean badAccess;  // to prevent multiple, cascading errors
+    private IdNode myBase;      // variable at the start of the chain
+    private int myOffset;       // offset of the field in that variable
 }
 
 class AssignNode extends ExpNode {
@@ -2147,37 +3647,58 @@ class AssignNode extends ExpNode {
      * typeCheck
      */
     public Type typeCheck() {
-        Type typeLhs = myLhs.typeCheck();
-        Type typeRhs = myRhs.typeCheck();
+        return myType = check(myLhs.typeCheck(), myRhs.typeCheck());
+    }
+    
+    /**
+     * analyze
+     */
+    public Type analyze(SymTable symTab) {
+        return myType = check(myLhs.analyze(symTab), myRhs.analyze(symTab));
+    }
+    
+    /**
+     * check
+     * Returns the type of this assignment given the types of its two
+     * operands.
+     */
+    private Type check(Type typeLhs, Type typeRhs) {
         Type retType = typeLhs;
         
-        if (typeLhs.isFnType() && typeRhs.isFnType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Function assignment");
-            retType = new ErrorType();
-        }
-        
-        if (typeLhs.isStructDefType() && typeRhs.isStructDefType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Struct name assignment");
-            retType = new ErrorType();
+        if (typeLhs.tag() == typeRhs.tag()) {
+            switch (typeLhs.tag()) {
+            case Type.TAG_FN:
+                ErrMsg.typeError(lineNum(), charNum(), "Function assignment");
+                retType = Type.ERROR;
+                break;
+            case Type.TAG_STRUCTDEF:
+                ErrMsg.typeError(lineNum(), charNum(), "Struct name assignment");
+                retType = Type.ERROR;
+                break;
+            case Type.TAG_STRUCT:
+                ErrMsg.typeError(lineNum(), charNum(), "Struct variable assignment");
+                retType = Type.ERROR;
+                break;
+            }
         }
         
-        if (typeLhs.isStructType() && typeRhs.isStructType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Struct variable assignment");
-            retType = new ErrorType();
-        }        
-        
-        if (!typeLhs.equals(typeRhs) && !typeLhs.isErrorType() && !typeRhs.isErrorType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Type mismatch");
-            retType = new ErrorType();
+        else if (!typeLhs.isErrorType() && !typeRhs.isErrorType()) {
+            ErrMsg.typeError(lineNum(), charNum(), "Type mismatch");
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isErrorType() || typeRhs.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
     
+    public int flatten(FlatAst ast) {
+        int lhs = myLhs.flatten(ast);
+        return ast.add(FlatAst.ASSIGN, 0, 0, 0, lhs, myRhs.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         if (indent != -1)  p.print("(");
         myLhs.unparse(p, 0);
@@ -2210,9 +3731,28 @@ class AssignNode extends ExpNode {
             Codegen.generateIndexed("sw", Codegen.T1, Codegen.T0, 0); 
             Codegen.genPush(Codegen.T1); 
         }
+        
+        else if (myLhs instanceof DotAccessExpNode) {
+            myRhs.codeGen();
+            Codegen.genPop(Codegen.T1);
+            ((DotAccessExpNode)myLhs).genStore(Codegen.T1);
+            Codegen.genPush(Codegen.T1);
+        }
+    }
+    
+    public int eval(int[] frame) {
+        int val = myRhs.eval(frame);
+        myLhs.store(frame, val);
+        return val;
     }
 
 
+    public void jvmGen() {
+        myRhs.jvmGen();
+        JvmCodegen.code.op(ClassFile.DUP, 1);
+        myLhs.jvmGenStore();
+    }
+    
     // 2 kids
     private ExpNode myLhs;
     private ExpNode myRhs;
@@ -2256,33 +3796,74 @@ class CallExpNode extends ExpNode {
     }  
       
     /**
-     * typeCheck
+     * typeCheck
+     */
+    public Type typeCheck() {
+        if (check(myId.typeCheck())) {
+            myExpList.typeCheck(((FnInfo)myId.sym()).getParamTypes());
+        }
+        return myType = returnType();
+    }
+    
+    /**
+     * analyze
+     * The args are only type checked if typeCheck would do it; otherwise
+     * they only get their name analysis.
+     */
+    public Type analyze(SymTable symTab) {
+        if (check(myId.analyze(symTab))) {
+            myExpList.analyze(symTab, ((FnInfo)myId.sym()).getParamTypes());
+        }
+        else {
+            myExpList.nameAnalysis(symTab);
+        }
+        return myType = returnType();
+    }
+    
+    /**
+     * check
+     * Checks the called name, of the given type, and the number of args.
+     * Returns true if the args are to be type checked.
      */
-    public Type typeCheck() {
-        if (!myId.typeCheck().isFnType()) {  
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Attempt to call a non-function");
-            return new ErrorType();
+    private boolean check(Type type) {
+        if (!type.isFnType()) {  
+            ErrMsg.typeError(myId.lineNum(), myId.charNum(), 
+                             "Attempt to call a non-function");
+            return false;
         }
         
         FnInfo fnInfo = (FnInfo)(myId.sym());
         
         if (fnInfo == null) {
-            System.err.println("null sym for Id in CallExpNode.typeCheck");
-            System.exit(-1);
+            ErrMsg.typeInternal("null sym for Id in CallExpNode.typeCheck");
+            return false;
         }
         
         if (myExpList.size() != fnInfo.getNumParams()) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Function call with wrong number of args");
-            return fnInfo.getReturnType();
+            ErrMsg.typeError(myId.lineNum(), myId.charNum(), 
+                             "Function call with wrong number of args");
+            return false;
         }
-        
-        myExpList.typeCheck(fnInfo.getParamTypes());
-        return fnInfo.getReturnType();
+        return true;
+    }
+    
+    /**
+     * Return the type of this call: the return type of the function, or
+     * the error type if the name is not a function.
+     */
+    private Type returnType() {
+        if (!myId.type().isFnType()) {
+            return Type.ERROR;
+        }
+        return ((FnInfo)myId.sym()).getReturnType();
     }
         
     // ** unparse **
+    public int flatten(FlatAst ast) {
+        int id = myId.flatten(ast);
+        return ast.add(FlatAst.CALL, 0, 0, 0, id, myExpList.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         myId.unparse(p, 0);
         p.print("(");
@@ -2297,7 +3878,29 @@ class CallExpNode extends ExpNode {
         this.myId.genJumpAndLink();
         Codegen.genPush(Codegen.V0);
     }
+    
+    public int eval(int[] frame) {
+        FnDeclNode fn = ((FnInfo)myId.sym()).getDecl();
+        int[] calleeFrame = new int[fn.frameSlots()];
+        myExpList.evalInto(frame, calleeFrame);
+        return fn.invoke(calleeFrame);
+    }
 
+    /**
+     * Return true if the called function returns a value.
+     */
+    public boolean returnsValue() {
+        return !((FnInfo)myId.sym()).getReturnType().isVoidType();
+    }
+    
+    public void jvmGen() {
+        FnInfo info = (FnInfo)myId.sym();
+        myExpList.jvmGen();
+        JvmCodegen.code.invokestatic(JvmCodegen.cf.name(), "_" + myId.name(),
+                                     JvmCodegen.descriptor(info),
+                                     info.getNumParams(), returnsValue());
+    }
+    
     // 2 kids
     private IdNode myId;
     private ExpListNode myExpList;  // possibly null
@@ -2332,16 +3935,58 @@ abstract class UnaryExpNode extends ExpNode {
         myExp.nameAnalysis(symTab);
     }
     
+    /**
+     * typeCheck
+     */
+    public Type typeCheck() {
+        return myType = check(myExp.typeCheck());
+    }
+    
+    /**
+     * analyze
+     */
+    public Type analyze(SymTable symTab) {
+        return myType = check(myExp.analyze(symTab));
+    }
+    
+    /**
+     * check
+     * Returns the type of this expression given the type of its operand.
+     */
+    abstract protected Type check(Type type);
+    
     // one child
     protected ExpNode myExp;
 }
 
+// The passes over a binary expression do not recurse into its left
+// operand: a chain such as a + b + ... + z, which the parser builds
+// leaning to the left, is walked with an explicit stack (see spine), so
+// its length is not limited by the Java stack.  The subclasses give what
+// to do after the left operand (unparseRest, codeGenRest, ...).
+
 abstract class BinaryExpNode extends ExpNode {
     public BinaryExpNode(ExpNode exp1, ExpNode exp2) {
         myExp1 = exp1;
         myExp2 = exp2;
     }
     
+    /**
+     * spine
+     * Returns the binary nodes on the left spine of this node, from this
+     * node down: the left operand of each one is the next one, and the
+     * left operand of the last one is not a binary node.
+     */
+    private List<BinaryExpNode> spine() {
+        List<BinaryExpNode> spine = new ArrayList<BinaryExpNode>();
+        ExpNode node = this;
+        while (node instanceof BinaryExpNode) {
+            spine.add((BinaryExpNode)node);
+            node = ((BinaryExpNode)node).myExp1;
+        }
+        return spine;
+    }
+    
     /**
      * Return the line number for this binary expression node. 
      * The line number is the one corresponding to the left operand.
@@ -2364,10 +4009,124 @@ abstract class BinaryExpNode extends ExpNode {
      * two children
      */
     public void nameAnalysis(SymTable symTab) {
-        myExp1.nameAnalysis(symTab);
-        myExp2.nameAnalysis(symTab);
+        List<BinaryExpNode> spine = spine();
+        spine.get(spine.size() - 1).myExp1.nameAnalysis(symTab);
+        for (int k = spine.size() - 1; k >= 0; k--) {
+            spine.get(k).myExp2.nameAnalysis(symTab);
+        }
+    }
+    
+    /**
+     * typeCheck
+     */
+    public Type typeCheck() {
+        List<BinaryExpNode> spine = spine();
+        Type type = spine.get(spine.size() - 1).myExp1.typeCheck();
+        for (int k = spine.size() - 1; k >= 0; k--) {
+            BinaryExpNode node = spine.get(k);
+            type = node.myType = node.check(type, node.myExp2.typeCheck());
+        }
+        return type;
+    }
+    
+    /**
+     * analyze
+     */
+    public Type analyze(SymTable symTab) {
+        List<BinaryExpNode> spine = spine();
+        Type type = spine.get(spine.size() - 1).myExp1.analyze(symTab);
+        for (int k = spine.size() - 1; k >= 0; k--) {
+            BinaryExpNode node = spine.get(k);
+            type = node.myType = node.check(type, node.myExp2.analyze(symTab));
+        }
+        return type;
+    }
+    
+    public void unparse(PrintWriter p, int indent) {
+        List<BinaryExpNode> spine = spine();
+        for (int k = 0; k < spine.size(); k++) {
+            p.print("(");
+        }
+        spine.get(spine.size() - 1).myExp1.unparse(p, 0);
+        for (int k = spine.size() - 1; k >= 0; k--) {
+            spine.get(k).unparseRest(p);
+        }
+    }
+    
+    /**
+     * codeGen
+     * The labels of the nodes on the spine are made first, from the top
+     * node down, then the code of each node follows the code of its left
+     * operand.
+     */
+    public void codeGen() {
+        List<BinaryExpNode> spine = spine();
+        String[] labels = new String[2 * spine.size()];
+        for (int k = 0; k < spine.size(); k++) {
+            for (int j = 0; j < spine.get(k).codeGenLabels(); j++) {
+                labels[2*k + j] = Codegen.nextLabel();
+            }
+        }
+        spine.get(spine.size() - 1).myExp1.codeGen();
+        for (int k = spine.size() - 1; k >= 0; k--) {
+            spine.get(k).codeGenRest(labels[2*k], labels[2*k + 1]);
+        }
+    }
+    
+    public int eval(int[] frame) {
+        List<BinaryExpNode> spine = spine();
+        int val = spine.get(spine.size() - 1).myExp1.eval(frame);
+        for (int k = spine.size() - 1; k >= 0; k--) {
+            val = spine.get(k).evalRest(val, frame);
+        }
+        return val;
+    }
+    
+    public void jvmGen() {
+        List<BinaryExpNode> spine = spine();
+        spine.get(spine.size() - 1).myExp1.jvmGen();
+        for (int k = spine.size() - 1; k >= 0; k--) {
+            spine.get(k).jvmGenRest();
+        }
+    }
+    
+    public int flatten(FlatAst ast) {
+        List<BinaryExpNode> spine = spine();
+        int node = spine.get(spine.size() - 1).myExp1.flatten(ast);
+        for (int k = spine.size() - 1; k >= 0; k--) {
+            BinaryExpNode exp = spine.get(k);
+            node = ast.add(exp.flatKind(), 0, 0, 0, node, exp.myExp2.flatten(ast));
+        }
+        return node;
     }
     
+    // prints the rest of this node after its left operand
+    abstract protected void unparseRest(PrintWriter p);
+    
+    // number of labels codeGenRest needs (at most 2)
+    protected int codeGenLabels() {
+        return 0;
+    }
+    
+    // generates the code of this node after the code of its left operand
+    abstract protected void codeGenRest(String label1, String label2);
+    
+    // evaluates this node given the value of its left operand
+    abstract protected int evalRest(int val1, int[] frame);
+    
+    // generates JVM code for this node after the one of its left operand
+    abstract protected void jvmGenRest();
+    
+    // the kind of node in a FlatAst
+    abstract protected int flatKind();
+    
+    /**
+     * check
+     * Returns the type of this expression given the types of its two
+     * operands.
+     */
+    abstract protected Type check(Type type1, Type type2);
+    
     // two kids
     protected ExpNode myExp1;
     protected ExpNode myExp2;
@@ -2383,25 +4142,28 @@ class UnaryMinusNode extends UnaryExpNode {
     }
 
     /**
-     * typeCheck
+     * check
      */
-    public Type typeCheck() {
-        Type type = myExp.typeCheck();
-        Type retType = new IntType();
+    protected Type check(Type type) {
+        Type retType = Type.INT;
         
         if (!type.isErrorType() && !type.isIntType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ErrMsg.typeError(lineNum(), charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (type.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
 
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.UNARY_MINUS, 0, 0, 0, myExp.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         p.print("(-");
         myExp.unparse(p, 0);
@@ -2416,6 +4178,15 @@ class UnaryMinusNode extends UnaryExpNode {
 		Codegen.generate("sub",Codegen.T0, Codegen.T1, Codegen.T0);
         Codegen.genPush(Codegen.T0);
 	}
+    
+    public int eval(int[] frame) {
+        return -myExp.eval(frame);
+    }
+    
+    public void jvmGen() {
+        myExp.jvmGen();
+        JvmCodegen.code.op(ClassFile.INEG, 0);
+    }
 }
 
 class NotNode extends UnaryExpNode {
@@ -2424,25 +4195,28 @@ class NotNode extends UnaryExpNode {
     }
 
     /**
-     * typeCheck
+     * check
      */
-    public Type typeCheck() {
-        Type type = myExp.typeCheck();
-        Type retType = new BoolType();
+    protected Type check(Type type) {
+        Type retType = Type.BOOL;
         
         if (!type.isErrorType() && !type.isBoolType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Logical operator applied to non-bool operand");
-            retType = new ErrorType();
+            ErrMsg.typeError(lineNum(), charNum(),
+                             "Logical operator applied to non-bool operand");
+            retType = Type.ERROR;
         }
         
         if (type.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
     }
 
+    public int flatten(FlatAst ast) {
+        return ast.add(FlatAst.NOT, 0, 0, 0, myExp.flatten(ast));
+    }
+    
     public void unparse(PrintWriter p, int indent) {
         p.print("(!");
         myExp.unparse(p, 0);
@@ -2456,6 +4230,16 @@ class NotNode extends UnaryExpNode {
 		Codegen.generate("seq",Codegen.T0, Codegen.T0, "0");
         Codegen.genPush(Codegen.T0);
 	}  
+    
+    public int eval(int[] frame) {
+        return myExp.eval(frame) == 0 ? 1 : 0;
+    }
+    
+    public void jvmGen() {
+        myExp.jvmGen();
+        JvmCodegen.code.iconst(1);
+        JvmCodegen.code.op(ClassFile.IXOR, -1);
+    }
 }
 
 // **********************************************************************
@@ -2468,27 +4252,25 @@ abstract class ArithmeticExpNode extends BinaryExpNode {
     }
     
     /**
-     * typeCheck
+     * check
      */
-    public Type typeCheck() {
-        Type type1 = myExp1.typeCheck();
-        Type type2 = myExp2.typeCheck();
-        Type retType = new IntType();
+    protected Type check(Type type1, Type type2) {
+        Type retType = Type.INT;
         
         if (!type1.isErrorType() && !type1.isIntType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ErrMsg.typeError(myExp1.lineNum(), myExp1.charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isIntType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ErrMsg.typeError(myExp2.lineNum(), myExp2.charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2501,27 +4283,25 @@ abstract class LogicalExpNode extends BinaryExpNode {
     }
     
     /**
-     * typeCheck
+     * check
      */
-    public Type typeCheck() {
-        Type type1 = myExp1.typeCheck();
-        Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+    protected Type check(Type type1, Type type2) {
+        Type retType = Type.BOOL;
         
         if (!type1.isErrorType() && !type1.isBoolType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
-                         "Logical operator applied to non-bool operand");
-            retType = new ErrorType();
+            ErrMsg.typeError(myExp1.lineNum(), myExp1.charNum(),
+                             "Logical operator applied to non-bool operand");
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isBoolType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
-                         "Logical operator applied to non-bool operand");
-            retType = new ErrorType();
+            ErrMsg.typeError(myExp2.lineNum(), myExp2.charNum(),
+                             "Logical operator applied to non-bool operand");
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2534,45 +4314,44 @@ abstract class EqualityExpNode extends BinaryExpNode {
     }
     
     /**
-     * typeCheck
+     * check
      */
-    public Type typeCheck() {
-        Type type1 = myExp1.typeCheck();
-        Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+    protected Type check(Type type1, Type type2) {
+        Type retType = Type.BOOL;
         
-        if (type1.isVoidType() && type2.isVoidType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Equality operator applied to void functions");
-            retType = new ErrorType();
-        }
-        
-        if (type1.isFnType() && type2.isFnType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Equality operator applied to functions");
-            retType = new ErrorType();
-        }
-        
-        if (type1.isStructDefType() && type2.isStructDefType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Equality operator applied to struct names");
-            retType = new ErrorType();
+        if (type1.tag() == type2.tag()) {
+            switch (type1.tag()) {
+            case Type.TAG_VOID:
+                ErrMsg.typeError(lineNum(), charNum(),
+                                 "Equality operator applied to void functions");
+                retType = Type.ERROR;
+                break;
+            case Type.TAG_FN:
+                ErrMsg.typeError(lineNum(), charNum(),
+                                 "Equality operator applied to functions");
+                retType = Type.ERROR;
+                break;
+            case Type.TAG_STRUCTDEF:
+                ErrMsg.typeError(lineNum(), charNum(),
+                                 "Equality operator applied to struct names");
+                retType = Type.ERROR;
+                break;
+            case Type.TAG_STRUCT:
+                ErrMsg.typeError(lineNum(), charNum(),
+                                 "Equality operator applied to struct variables");
+                retType = Type.ERROR;
+                break;
+            }
         }
         
-        if (type1.isStructType() && type2.isStructType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Equality operator applied to struct variables");
-            retType = new ErrorType();
-        }        
-        
-        if (!type1.equals(type2) && !type1.isErrorType() && !type2.isErrorType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Type mismatch");
-            retType = new ErrorType();
+        else if (!type1.isErrorType() && !type2.isErrorType()) {
+            ErrMsg.typeError(lineNum(), charNum(),
+                             "Type mismatch");
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2585,27 +4364,25 @@ abstract class RelationalExpNode extends BinaryExpNode {
     }
     
     /**
-     * typeCheck
+     * check
      */
-    public Type typeCheck() {
-        Type type1 = myExp1.typeCheck();
-        Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+    protected Type check(Type type1, Type type2) {
+        Type retType = Type.BOOL;
         
         if (!type1.isErrorType() && !type1.isIntType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
-                         "Relational operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ErrMsg.typeError(myExp1.lineNum(), myExp1.charNum(),
+                             "Relational operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isIntType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
-                         "Relational operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ErrMsg.typeError(myExp2.lineNum(), myExp2.charNum(),
+                             "Relational operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2617,15 +4394,16 @@ class PlusNode extends ArithmeticExpNode {
         super(exp1, exp2);
     }
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.PLUS;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" + ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
-    public void codeGen() {
-    	this.myExp1.codeGen();
+    protected void codeGenRest(String label1, String label2) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2634,6 +4412,15 @@ class PlusNode extends ArithmeticExpNode {
 
         Codegen.genPush(Codegen.T0);
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 + myExp2.eval(frame);
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.code.op(ClassFile.IADD, -1);
+    }
 }
 
 class MinusNode extends ArithmeticExpNode {
@@ -2641,16 +4428,17 @@ class MinusNode extends ArithmeticExpNode {
         super(exp1, exp2);
     }
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.MINUS;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" - ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-    	this.myExp1.codeGen();
+    protected void codeGenRest(String label1, String label2) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2659,6 +4447,15 @@ class MinusNode extends ArithmeticExpNode {
 
         Codegen.genPush(Codegen.T0);
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 - myExp2.eval(frame);
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.code.op(ClassFile.ISUB, -1);
+    }
 }
 
 class TimesNode extends ArithmeticExpNode {
@@ -2667,16 +4464,17 @@ class TimesNode extends ArithmeticExpNode {
     }
 
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.TIMES;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" * ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-    	this.myExp1.codeGen();
+    protected void codeGenRest(String label1, String label2) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2686,6 +4484,15 @@ class TimesNode extends ArithmeticExpNode {
 
         Codegen.genPush(Codegen.T0);
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 * myExp2.eval(frame);
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.code.op(ClassFile.IMUL, -1);
+    }
 }
 
 class DivideNode extends ArithmeticExpNode {
@@ -2693,16 +4500,17 @@ class DivideNode extends ArithmeticExpNode {
         super(exp1, exp2);
     }
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.DIVIDE;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" / ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-    	this.myExp1.codeGen();
+    protected void codeGenRest(String label1, String label2) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2712,6 +4520,19 @@ class DivideNode extends ArithmeticExpNode {
 
         Codegen.genPush(Codegen.T0);
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        int val2 = myExp2.eval(frame);
+        if (val2 == 0) {
+            throw new InterpreterException("division by zero");
+        }
+        return val1 / val2;
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.code.op(ClassFile.IDIV, -1);
+    }
 }
 
 class AndNode extends LogicalExpNode {
@@ -2719,19 +4540,21 @@ class AndNode extends LogicalExpNode {
         super(exp1, exp2);
     }
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.AND;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" && ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-		String shortLabel = Codegen.nextLabel();
-		String exitLabel = Codegen.nextLabel();
-		
-		this.myExp1.codeGen();
+    protected int codeGenLabels() {
+        return 2;
+    }
+    
+    protected void codeGenRest(String shortLabel, String exitLabel) {
         Codegen.genPop(Codegen.T0);
         Codegen.generate("bne",Codegen.T0, "0", shortLabel); //If not false, use RHS as solution
 		
@@ -2743,6 +4566,22 @@ class AndNode extends LogicalExpNode {
         Codegen.genLabel(exitLabel);
 	}
 	
+    
+    protected int evalRest(int val1, int[] frame) {
+        if (val1 == 0) {
+            return 0;
+        }
+        return myExp2.eval(frame);
+    }
+    
+    protected void jvmGenRest() {
+        Label exitLab = new Label();
+        JvmCodegen.code.op(ClassFile.DUP, 1);
+        JvmCodegen.code.branch(ClassFile.IFEQ, exitLab);  // short circuit
+        JvmCodegen.code.op(ClassFile.POP, -1);
+        myExp2.jvmGen();
+        JvmCodegen.code.placeLabel(exitLab);
+    }
 }
 
 class OrNode extends LogicalExpNode {
@@ -2750,19 +4589,21 @@ class OrNode extends LogicalExpNode {
         super(exp1, exp2);
     }
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.OR;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" || ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-		String shortLabel = Codegen.nextLabel();
-		String exitLabel = Codegen.nextLabel();
-		
-		this.myExp1.codeGen();
+    protected int codeGenLabels() {
+        return 2;
+    }
+    
+    protected void codeGenRest(String shortLabel, String exitLabel) {
         Codegen.genPop(Codegen.T0);
         Codegen.generate("bne",Codegen.T0, "1", shortLabel); //If not true, use RHS as solution
 		
@@ -2773,6 +4614,22 @@ class OrNode extends LogicalExpNode {
         this.myExp2.codeGen(); //Just leave RHS on stack as solution
         Codegen.genLabel(exitLabel);	
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        if (val1 != 0) {
+            return 1;
+        }
+        return myExp2.eval(frame);
+    }
+    
+    protected void jvmGenRest() {
+        Label exitLab = new Label();
+        JvmCodegen.code.op(ClassFile.DUP, 1);
+        JvmCodegen.code.branch(ClassFile.IFNE, exitLab);  // short circuit
+        JvmCodegen.code.op(ClassFile.POP, -1);
+        myExp2.jvmGen();
+        JvmCodegen.code.placeLabel(exitLab);
+    }
 }
 
 class EqualsNode extends EqualityExpNode {
@@ -2780,19 +4637,21 @@ class EqualsNode extends EqualityExpNode {
         super(exp1, exp2);
     }
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.EQUALS;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" == ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen(){
-    	String trueLabel = Codegen.nextLabel();
-		String exitLabel = Codegen.nextLabel();
-    	
-		this.myExp1.codeGen();
+    protected int codeGenLabels() {
+        return 2;
+    }
+    
+    protected void codeGenRest(String trueLabel, String exitLabel) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2809,6 +4668,15 @@ class EqualsNode extends EqualityExpNode {
 		Codegen.genLabel(exitLabel);
 		Codegen.genPush(Codegen.T0);	
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 == myExp2.eval(frame) ? 1 : 0;
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.genCompare(ClassFile.IF_ICMPEQ);
+    }
 }
 
 class NotEqualsNode extends EqualityExpNode {
@@ -2816,20 +4684,21 @@ class NotEqualsNode extends EqualityExpNode {
         super(exp1, exp2);
     }
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.NOT_EQUALS;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" != ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen(){
-    	String trueLabel = Codegen.nextLabel();
-		String exitLabel = Codegen.nextLabel();
-    	
-    	
-		this.myExp1.codeGen();
+    protected int codeGenLabels() {
+        return 2;
+    }
+    
+    protected void codeGenRest(String trueLabel, String exitLabel) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2846,6 +4715,15 @@ class NotEqualsNode extends EqualityExpNode {
 		Codegen.genLabel(exitLabel);
 		Codegen.genPush(Codegen.T0);	
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 != myExp2.eval(frame) ? 1 : 0;
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.genCompare(ClassFile.IF_ICMPNE);
+    }
 }
 
 class LessNode extends RelationalExpNode {
@@ -2853,19 +4731,21 @@ class LessNode extends RelationalExpNode {
         super(exp1, exp2);
     }
     
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.LESS;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" < ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-		String falseLabel = Codegen.nextLabel();
-		String exitLabel = Codegen.nextLabel();
-		
-		this.myExp1.codeGen();
+    protected int codeGenLabels() {
+        return 2;
+    }
+    
+    protected void codeGenRest(String falseLabel, String exitLabel) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2885,6 +4765,15 @@ class LessNode extends RelationalExpNode {
 		Codegen.genPush(Codegen.T0);
 		
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 < myExp2.eval(frame) ? 1 : 0;
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.genCompare(ClassFile.IF_ICMPLT);
+    }
 }
 
 class GreaterNode extends RelationalExpNode {
@@ -2892,19 +4781,21 @@ class GreaterNode extends RelationalExpNode {
         super(exp1, exp2);
     }
 
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.GREATER;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" > ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-		String falseLabel = Codegen.nextLabel();
-		String exitLabel = Codegen.nextLabel();
-		
-		this.myExp1.codeGen();
+    protected int codeGenLabels() {
+        return 2;
+    }
+    
+    protected void codeGenRest(String falseLabel, String exitLabel) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2924,6 +4815,15 @@ class GreaterNode extends RelationalExpNode {
 		Codegen.genPush(Codegen.T0);
 		
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 > myExp2.eval(frame) ? 1 : 0;
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.genCompare(ClassFile.IF_ICMPGT);
+    }
 }
 
 class LessEqNode extends RelationalExpNode {
@@ -2931,19 +4831,21 @@ class LessEqNode extends RelationalExpNode {
         super(exp1, exp2);
     }
 
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.LESS_EQ;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" <= ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-		String trueLabel = Codegen.nextLabel();
-		String exitLabel = Codegen.nextLabel();
-		
-		this.myExp1.codeGen();
+    protected int codeGenLabels() {
+        return 2;
+    }
+    
+    protected void codeGenRest(String trueLabel, String exitLabel) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2962,6 +4864,15 @@ class LessEqNode extends RelationalExpNode {
 		Codegen.genPush(Codegen.T0);
 		
 	}
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 <= myExp2.eval(frame) ? 1 : 0;
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.genCompare(ClassFile.IF_ICMPLE);
+    }
 }
 
 class GreaterEqNode extends RelationalExpNode {
@@ -2969,19 +4880,21 @@ class GreaterEqNode extends RelationalExpNode {
         super(exp1, exp2);
     }
 
-    public void unparse(PrintWriter p, int indent) {
-        p.print("(");
-        myExp1.unparse(p, 0);
+    protected int flatKind() {
+        return FlatAst.GREATER_EQ;
+    }
+    
+    protected void unparseRest(PrintWriter p) {
         p.print(" >= ");
         myExp2.unparse(p, 0);
         p.print(")");
     }
     
-    public void codeGen() {
-		String trueLabel = Codegen.nextLabel();
-		String exitLabel = Codegen.nextLabel();
-		
-		this.myExp1.codeGen();
+    protected int codeGenLabels() {
+        return 2;
+    }
+    
+    protected void codeGenRest(String trueLabel, String exitLabel) {
         this.myExp2.codeGen();
         Codegen.genPop(Codegen.T1);
         Codegen.genPop(Codegen.T0);
@@ -2999,4 +4912,13 @@ class GreaterEqNode extends RelationalExpNode {
 		Codegen.genLabel(exitLabel);
 		Codegen.genPush(Codegen.T0);		
 	}		
+    
+    protected int evalRest(int val1, int[] frame) {
+        return val1 >= myExp2.eval(frame) ? 1 : 0;
+    }
+    
+    protected void jvmGenRest() {
+        myExp2.jvmGen();
+        JvmCodegen.genCompare(ClassFile.IF_ICMPGE);
+    }
 }
@@ -0,0 +1,511 @@
+	.text
+	_add:
+	sw    $ra, 0($sp)	##Start of Prologue for add
+
+	subu  $sp, $sp, 4
+	sw    $fp, 0($sp)
+	subu  $sp, $sp, 4
+	addu  $fp, $sp, 16
+	subu  $sp, $sp, 0
+	lw    $t0, 0($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -4($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	add   $t0, $t0, $t1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $v0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	b     exit_add
+exit_add:
+	lw    $ra, -8($fp)	##Start of Epilogue for add
+
+	move  $t0, $fp
+	lw    $fp, -12($fp)	#Restore frame pointer
+	move  $sp, $t0
+	jr    $ra		#Return jump
+	.text
+	.globl main
+main:
+__start:
+	sw    $ra, 0($sp)	##Start of Prologue for main
+
+	subu  $sp, $sp, 4
+	sw    $fp, 0($sp)
+	subu  $sp, $sp, 4
+	addu  $fp, $sp, 8
+	subu  $sp, $sp, 16
+	la    $t0, -8($fp)	#Generate Address
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	li    $t0, 1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sw    $t1, 0($t0)
+	sw    $t1, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, -8($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	li    $t0, 1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	beq   $t0, $t1, .L2_main
+	li    $t0, 0
+	b     .L3_main
+.L2_main:
+	li    $t0, 1
+.L3_main:
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	bne   $t0, 1, .L1_main
+	subu  $sp, $sp, 12
+	li    $t0, 10
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sw    $t1, -16($fp)
+	sw    $t1, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	li    $t0, 20
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sw    $t1, -12($fp)
+	sw    $t1, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	la    $t0, -20($fp)	#Generate Address
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	li    $t0, 30
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sw    $t1, 0($t0)
+	sw    $t1, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	la    $t0, -8($fp)	#Generate Address
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -16($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -20($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	jal   _add
+	sw    $v0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -12($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -20($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -16($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sub   $t0, $t0, $t1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	mult  $t0, $t1
+	mflo  $t0
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -8($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -8($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -8($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	add   $t0, $t0, $t1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	add   $t0, $t0, $t1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	add   $t0, $t0, $t1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	add   $t0, $t0, $t1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sw    $t1, 0($t0)
+	sw    $t1, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, -16($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_int
+	.data
+.L4_main:	.asciiz " "
+	.text
+	la    $t0, .L4_main
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_str
+	lw    $t0, -12($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_int
+	.text
+	la    $t0, .L4_main
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_str
+	lw    $t0, -20($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_int
+	.text
+	la    $t0, .L4_main
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_str
+	lw    $t0, -8($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_int
+	.data
+.L5_main:	.asciiz "\n"
+	.text
+	la    $t0, .L5_main
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_str
+	addu  $sp, $sp, 12
+.L1_main:
+.L6_main:
+	lw    $t0, -8($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	li    $t0, 0
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sub   $t0, $t1, $t0
+	bgez  $t0, .L8_main
+	li    $t0, 1
+	b     .L9_main
+.L8_main:
+	li    $t0, 0
+.L9_main:
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	bne   $t0, 1, .L7_main
+	subu  $sp, $sp, 4
+	la    $t0, -12($fp)	#Generate Address
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -8($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sw    $t1, 0($t0)
+	sw    $t1, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	la    $t0, -8($fp)	#Generate Address
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, -8($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	li    $t0, 0
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	jal   _add
+	sw    $v0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	li    $t0, 0
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	li    $t0, 0
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sub   $t0, $t0, $t1
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	mult  $t0, $t1
+	mflo  $t0
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t1, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	sw    $t1, 0($t0)
+	sw    $t1, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $t0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	lw    $t0, -12($fp)
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_int
+	.text
+	la    $t0, .L5_main
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $a0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jal   .Lrt_print_str
+	addu  $sp, $sp, 4
+	j     .L6_main
+.L7_main:
+	li    $t0, 0
+	sw    $t0, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	lw    $v0, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	b     exit_main
+exit_main:
+	lw    $ra, 0($fp)	##Start of Epilogue for main
+
+	move  $t0, $fp
+	lw    $fp, -4($fp)	#Restore frame pointer
+	move  $sp, $t0
+	jal   .Lrt_flush
+	li    $v0, 10
+	syscall
+	.data
+	.align 2
+.Lrt_outpos:	.word 0
+.Lrt_inpos:	.word 0
+.Lrt_inlen:	.word 0
+.Lrt_outbuf:	.space 4096
+.Lrt_inbuf:	.space 4096
+.Lrt_digits:	.space 12
+	.text
+.Lrt_flush:		# flush output buffer
+	lw    $a2, .Lrt_outpos
+	beqz  $a2, .Lrt_flush_done
+	li    $a0, 1
+	la    $a1, .Lrt_outbuf
+	li    $v0, 15
+	syscall
+	sw    $zero, .Lrt_outpos
+.Lrt_flush_done:
+	jr    $ra
+.Lrt_print_str:		# buffered string output
+	sw    $ra, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	move  $t0, $a0
+	lw    $t1, .Lrt_outpos
+.Lrt_ps_loop:
+	lb    $t2, 0($t0)
+	beqz  $t2, .Lrt_ps_done
+	sb    $t2, .Lrt_outbuf($t1)
+	addu  $t0, $t0, 1
+	addu  $t1, $t1, 1
+	blt   $t1, 4096, .Lrt_ps_loop
+	sw    $t1, .Lrt_outpos
+	jal   .Lrt_flush
+	li    $t1, 0
+	b     .Lrt_ps_loop
+.Lrt_ps_done:
+	sw    $t1, .Lrt_outpos
+	lw    $ra, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jr    $ra
+.Lrt_print_int:		# buffered int output
+	sw    $ra, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	move  $t0, $a0
+	slt   $t5, $t0, $zero
+	bnez  $t5, .Lrt_pi_neg
+	subu  $t0, $zero, $t0
+.Lrt_pi_neg:
+	la    $t4, .Lrt_digits
+	addu  $t4, $t4, 12
+	move  $t3, $t4
+	li    $t6, 10
+.Lrt_pi_digit:
+	div   $t0, $t6
+	mflo  $t0
+	mfhi  $t2
+	subu  $t2, $zero, $t2
+	addu  $t2, $t2, 48
+	subu  $t3, $t3, 1
+	sb    $t2, 0($t3)
+	bnez  $t0, .Lrt_pi_digit
+	beqz  $t5, .Lrt_pi_copy
+	li    $t2, 45
+	subu  $t3, $t3, 1
+	sb    $t2, 0($t3)
+.Lrt_pi_copy:
+	lw    $t1, .Lrt_outpos
+.Lrt_pi_loop:
+	lb    $t2, 0($t3)
+	sb    $t2, .Lrt_outbuf($t1)
+	addu  $t3, $t3, 1
+	addu  $t1, $t1, 1
+	blt   $t1, 4096, .Lrt_pi_next
+	sw    $t1, .Lrt_outpos
+	jal   .Lrt_flush
+	li    $t1, 0
+.Lrt_pi_next:
+	bne   $t3, $t4, .Lrt_pi_loop
+	sw    $t1, .Lrt_outpos
+	lw    $ra, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jr    $ra
+.Lrt_getc:		# buffered char input
+	lw    $t1, .Lrt_inpos
+	lw    $t2, .Lrt_inlen
+	blt   $t1, $t2, .Lrt_gc_have
+	sw    $ra, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	jal   .Lrt_flush
+	li    $a0, 0
+	la    $a1, .Lrt_inbuf
+	li    $a2, 4096
+	li    $v0, 14
+	syscall
+	lw    $ra, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	li    $t1, 0
+	sw    $zero, .Lrt_inpos
+	sw    $v0, .Lrt_inlen
+	bgtz  $v0, .Lrt_gc_have
+	sw    $zero, .Lrt_inlen
+	li    $v1, -1
+	jr    $ra
+.Lrt_gc_have:
+	lbu   $v1, .Lrt_inbuf($t1)
+	addu  $t1, $t1, 1
+	sw    $t1, .Lrt_inpos
+	jr    $ra
+.Lrt_read_int:		# buffered int input
+	sw    $ra, 0($sp)	#PUSH
+	subu  $sp, $sp, 4
+	li    $t0, 0
+	li    $t5, 0
+.Lrt_ri_skip:
+	jal   .Lrt_getc
+	bltz  $v1, .Lrt_ri_done
+	beq   $v1, 32, .Lrt_ri_skip
+	beq   $v1, 9, .Lrt_ri_skip
+	beq   $v1, 10, .Lrt_ri_skip
+	beq   $v1, 13, .Lrt_ri_skip
+	bne   $v1, 45, .Lrt_ri_digit
+	li    $t5, 1
+	jal   .Lrt_getc
+.Lrt_ri_digit:
+	blt   $v1, 48, .Lrt_ri_end
+	bgt   $v1, 57, .Lrt_ri_end
+	mul   $t0, $t0, 10
+	addu  $t0, $t0, $v1
+	subu  $t0, $t0, 48
+	jal   .Lrt_getc
+	b     .Lrt_ri_digit
+.Lrt_ri_end:
+	bltz  $v1, .Lrt_ri_sign
+	lw    $t1, .Lrt_inpos
+	subu  $t1, $t1, 1
+	sw    $t1, .Lrt_inpos
+.Lrt_ri_sign:
+	beqz  $t5, .Lrt_ri_done
+	subu  $t0, $zero, $t0
+.Lrt_ri_done:
+	move  $v0, $t0
+	lw    $ra, 4($sp)	#POP
+	addu  $sp, $sp, 4
+	jr    $ra